@@ -0,0 +1,110 @@
+package org.liaohailong.cameralibrary.camera;
+
+/**
+ * Describe as : 连拍结果，见{@link CameraHelper#takeBurst(int, long)}
+ */
+
+public final class BurstResult {
+    private final String[] mPaths;//每一张的保存路径，保存失败为null
+    private final long[] mTimestamps;//每一张的拍摄时间（System.currentTimeMillis），未拍摄为0
+    private int mCapturedCount = 0;
+    private int mFailedCount = 0;//已开始拍摄但没有返回数据的张数
+    private long mFirstShotTime = 0;//第一张拍摄时间（SystemClock.elapsedRealtime）
+    private long mLastShotTime = 0;//最后一张拍摄时间（SystemClock.elapsedRealtime）
+
+    BurstResult(int count) {
+        mPaths = new String[count];
+        mTimestamps = new long[count];
+    }
+
+    /**
+     * 记录一张拍摄完成
+     *
+     * @param index       序号
+     * @param timestamp   拍摄时间（System.currentTimeMillis）
+     * @param elapsedTime 拍摄时间（SystemClock.elapsedRealtime），用于计算连拍速度
+     */
+    void onCaptured(int index, long timestamp, long elapsedTime) {
+        mTimestamps[index] = timestamp;
+        if (mCapturedCount == 0) {
+            mFirstShotTime = elapsedTime;
+        }
+        mLastShotTime = elapsedTime;
+        mCapturedCount++;
+    }
+
+    void onSaved(int index, String path) {
+        mPaths[index] = path;
+    }
+
+    /**
+     * 记录一张已开始拍摄、但相机释放或出错而没有返回数据
+     *
+     * @param index 序号
+     */
+    void onFailed(int index) {
+        mPaths[index] = null;
+        mFailedCount++;
+    }
+
+    /**
+     * @return 请求拍摄的张数
+     */
+    public int getRequestedCount() {
+        return mPaths.length;
+    }
+
+    /**
+     * @return 实际拍摄的张数（被拒绝或中途停止时小于请求张数）
+     */
+    public int getCapturedCount() {
+        return mCapturedCount;
+    }
+
+    /**
+     * @return 已开始拍摄但没有返回数据的张数
+     */
+    public int getFailedCount() {
+        return mFailedCount;
+    }
+
+    /**
+     * @return 保存成功的张数
+     */
+    public int getSavedCount() {
+        int count = 0;
+        for (String path : mPaths) {
+            if (path != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param index 序号
+     * @return 保存路径，未拍摄或保存失败时为null
+     */
+    public String getPath(int index) {
+        return mPaths[index];
+    }
+
+    /**
+     * @param index 序号
+     * @return 拍摄时间（System.currentTimeMillis），未拍摄时为0
+     */
+    public long getTimestamp(int index) {
+        return mTimestamps[index];
+    }
+
+    /**
+     * @return 第一张到最后一张之间的持续拍摄速度（张/秒），不足两张时为0
+     */
+    public float getShotsPerSecond() {
+        long duration = mLastShotTime - mFirstShotTime;
+        if (mCapturedCount < 2 || duration <= 0) {
+            return 0;
+        }
+        return (mCapturedCount - 1) * 1000f / duration;
+    }
+}
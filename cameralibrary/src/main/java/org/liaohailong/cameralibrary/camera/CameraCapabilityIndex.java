@@ -0,0 +1,343 @@
+package org.liaohailong.cameralibrary.camera;
+
+import android.content.Context;
+import android.hardware.Camera;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Describe as : 相机能力索引，按相机id缓存朝向、安装角度、尺寸列表、帧率范围、对焦与闪光灯模式
+ * <p>
+ * 1，索引以紧凑的二进制格式保存在应用私有目录，冷启动时直接读取，不再遍历相机信息
+ * 2，系统版本指纹（{@link Build#FINGERPRINT}）变化时作废，重新采集
+ * 3，最佳尺寸的计算结果按目标尺寸缓存，对焦/闪光灯模式以集合保存，查询都是O(1)
+ */
+
+final class CameraCapabilityIndex {
+    private static final String TAG = "CameraCapabilityIndex";
+    private static final String FILE_NAME = "camera_capabilities.bin";
+    private static final int MAGIC = 0x43415053;//CAPS
+    private static final int VERSION = 1;
+
+    static final int SIZE_PREVIEW = 0;
+    static final int SIZE_PICTURE = 1;
+
+    private final File mFile;
+    private final String mFingerprint;
+    private Capability[] mCapabilities;//下标即相机id，为空表示尚未采集相机信息
+
+    /**
+     * 单个相机的能力
+     */
+    static final class Capability {
+        final int cameraId;
+        final int facing;
+        final int orientation;
+        boolean hasParameters = false;//尺寸等列表需要开启相机后才能采集
+        int[] previewSizes = new int[0];//宽高交替排列
+        int[] pictureSizes = new int[0];
+        int[] fpsRanges = new int[0];//最小最大值交替排列，单位为帧率 * 1000
+        Set<String> focusModes = new HashSet<>();
+        Set<String> flashModes = new HashSet<>();
+        private final HashMap<Long, int[]> bestSizes = new HashMap<>();//最佳尺寸缓存
+
+        Capability(int cameraId, int facing, int orientation) {
+            this.cameraId = cameraId;
+            this.facing = facing;
+            this.orientation = orientation;
+        }
+    }
+
+    private CameraCapabilityIndex(File file, String fingerprint) {
+        mFile = file;
+        mFingerprint = fingerprint;
+    }
+
+    /**
+     * 读取本地保存的索引，文件不存在、损坏或系统版本变化时返回空索引
+     *
+     * @param context 上下文
+     * @return 能力索引
+     */
+    static CameraCapabilityIndex load(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        CameraCapabilityIndex index = new CameraCapabilityIndex(file, Build.FINGERPRINT);
+        if (file.exists()) {
+            try {
+                index.read();
+            } catch (Exception ex) {
+                Log.i(TAG, "读取相机能力索引失败，重新采集 " + ex);
+                index.mCapabilities = null;
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 相机信息尚未采集时遍历一次所有相机
+     */
+    private void ensureCameraInfo() {
+        if (mCapabilities != null) {
+            return;
+        }
+        int count = Camera.getNumberOfCameras();
+        Capability[] capabilities = new Capability[count];
+        Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
+        for (int i = 0; i < count; i++) {
+            Camera.getCameraInfo(i, cameraInfo);
+            capabilities[i] = new Capability(i, cameraInfo.facing, cameraInfo.orientation);
+        }
+        mCapabilities = capabilities;
+        save();
+    }
+
+    /**
+     * @param facing 前置/后置
+     * @return 对应朝向的第一个相机id，没有时返回-1
+     */
+    synchronized int findCameraId(int facing) {
+        ensureCameraInfo();
+        for (Capability capability : mCapabilities) {
+            if (capability.facing == facing) {
+                return capability.cameraId;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param cameraId 相机id
+     * @return 相机能力，id无效时返回null
+     */
+    synchronized Capability get(int cameraId) {
+        ensureCameraInfo();
+        if (cameraId < 0 || cameraId >= mCapabilities.length) {
+            return null;
+        }
+        return mCapabilities[cameraId];
+    }
+
+    /**
+     * 开启相机后采集尺寸、帧率、对焦与闪光灯等信息，只在首次或索引作废后执行
+     *
+     * @param cameraId   相机id
+     * @param parameters 相机参数
+     */
+    synchronized void update(int cameraId, Camera.Parameters parameters) {
+        Capability capability = get(cameraId);
+        if (capability == null || capability.hasParameters) {
+            return;
+        }
+        capability.previewSizes = toSizeArray(parameters.getSupportedPreviewSizes());
+        capability.pictureSizes = toSizeArray(parameters.getSupportedPictureSizes());
+        capability.fpsRanges = toRangeArray(parameters.getSupportedPreviewFpsRange());
+        capability.focusModes = toSet(parameters.getSupportedFocusModes());
+        capability.flashModes = toSet(parameters.getSupportedFlashModes());
+        capability.bestSizes.clear();
+        capability.hasParameters = true;
+        save();
+    }
+
+    /**
+     * 获取与目标尺寸相等或宽高比最接近的尺寸，结果按目标尺寸缓存
+     *
+     * @param cameraId     相机id
+     * @param kind         {@link #SIZE_PREVIEW}或{@link #SIZE_PICTURE}
+     * @param targetWidth  目标宽
+     * @param targetHeight 目标高
+     * @return 最佳尺寸{宽, 高}，没有采集到尺寸时返回null
+     */
+    synchronized int[] getBestSize(int cameraId, int kind, int targetWidth, int targetHeight) {
+        Capability capability = get(cameraId);
+        if (capability == null || !capability.hasParameters) {
+            return null;
+        }
+        long key = ((long) kind << 48) | ((long) (targetWidth & 0xffffff) << 24) | (targetHeight & 0xffffff);
+        if (capability.bestSizes.containsKey(key)) {
+            return capability.bestSizes.get(key);
+        }
+        int[] sizes = kind == SIZE_PICTURE ? capability.pictureSizes : capability.previewSizes;
+        int[] bestSize = findBestSize(targetWidth, targetHeight, sizes);
+        capability.bestSizes.put(key, bestSize);
+        return bestSize;
+    }
+
+    /**
+     * 获取与目标尺寸相等或宽高比最接近的尺寸
+     *
+     * @param targetWidth  目标宽
+     * @param targetHeight 目标高
+     * @param sizes        宽高交替排列的尺寸集合
+     * @return 最佳尺寸{宽, 高}，没有合适尺寸时返回null
+     */
+    static int[] findBestSize(int targetWidth, int targetHeight, int[] sizes) {
+        int bestIndex = -1;
+        //目标大小的宽高比
+        float targetRatio = targetWidth * 1.0f / targetHeight;
+        float minDiff = targetRatio;
+        for (int i = 0; i + 1 < sizes.length; i += 2) {
+            if (sizes[i] == targetWidth && sizes[i + 1] == targetHeight) {
+                bestIndex = i;
+                break;
+            }
+            float supportRatio = sizes[i] * 1.0f / sizes[i + 1];
+            float tempDiff = Math.abs(supportRatio - targetRatio);
+            if (tempDiff < minDiff) {
+                minDiff = tempDiff;
+                bestIndex = i;
+            }
+        }
+        return bestIndex < 0 ? null : new int[]{sizes[bestIndex], sizes[bestIndex + 1]};
+    }
+
+    private static int[] toSizeArray(List<Camera.Size> sizeList) {
+        if (sizeList == null) {
+            return new int[0];
+        }
+        int[] sizes = new int[sizeList.size() * 2];
+        for (int i = 0; i < sizeList.size(); i++) {
+            Camera.Size size = sizeList.get(i);
+            sizes[i * 2] = size.width;
+            sizes[i * 2 + 1] = size.height;
+        }
+        return sizes;
+    }
+
+    private static int[] toRangeArray(List<int[]> rangeList) {
+        if (rangeList == null) {
+            return new int[0];
+        }
+        int[] ranges = new int[rangeList.size() * 2];
+        for (int i = 0; i < rangeList.size(); i++) {
+            int[] range = rangeList.get(i);
+            ranges[i * 2] = range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
+            ranges[i * 2 + 1] = range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+        }
+        return ranges;
+    }
+
+    private static Set<String> toSet(List<String> list) {
+        Set<String> set = new HashSet<>();
+        if (list != null) {
+            set.addAll(list);
+        }
+        return set;
+    }
+
+    private void read() throws IOException {
+        DataInputStream inputStream = null;
+        try {
+            inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (inputStream.readInt() != MAGIC || inputStream.readInt() != VERSION) {
+                throw new IOException("unknown format");
+            }
+            if (!mFingerprint.equals(inputStream.readUTF())) {
+                throw new IOException("fingerprint changed");
+            }
+            int count = inputStream.readInt();
+            Capability[] capabilities = new Capability[count];
+            for (int i = 0; i < count; i++) {
+                Capability capability = new Capability(inputStream.readInt(), inputStream.readInt(), inputStream.readInt());
+                capability.hasParameters = inputStream.readBoolean();
+                capability.previewSizes = readIntArray(inputStream);
+                capability.pictureSizes = readIntArray(inputStream);
+                capability.fpsRanges = readIntArray(inputStream);
+                capability.focusModes = readStringSet(inputStream);
+                capability.flashModes = readStringSet(inputStream);
+                capabilities[i] = capability;
+            }
+            mCapabilities = capabilities;
+        } finally {
+            if (inputStream != null) {
+                inputStream.close();
+            }
+        }
+    }
+
+    /**
+     * 先写入临时文件再重命名，避免中途失败留下损坏的索引
+     */
+    private void save() {
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        DataOutputStream outputStream = null;
+        try {
+            outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(VERSION);
+            outputStream.writeUTF(mFingerprint);
+            outputStream.writeInt(mCapabilities.length);
+            for (Capability capability : mCapabilities) {
+                outputStream.writeInt(capability.cameraId);
+                outputStream.writeInt(capability.facing);
+                outputStream.writeInt(capability.orientation);
+                outputStream.writeBoolean(capability.hasParameters);
+                writeIntArray(outputStream, capability.previewSizes);
+                writeIntArray(outputStream, capability.pictureSizes);
+                writeIntArray(outputStream, capability.fpsRanges);
+                writeStringSet(outputStream, capability.focusModes);
+                writeStringSet(outputStream, capability.flashModes);
+            }
+            outputStream.close();
+            outputStream = null;
+            if (!tempFile.renameTo(mFile)) {
+                Log.i(TAG, "保存相机能力索引失败 rename");
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static int[] readIntArray(DataInputStream inputStream) throws IOException {
+        int[] array = new int[inputStream.readInt()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = inputStream.readInt();
+        }
+        return array;
+    }
+
+    private static void writeIntArray(DataOutputStream outputStream, int[] array) throws IOException {
+        outputStream.writeInt(array.length);
+        for (int value : array) {
+            outputStream.writeInt(value);
+        }
+    }
+
+    private static Set<String> readStringSet(DataInputStream inputStream) throws IOException {
+        int count = inputStream.readInt();
+        Set<String> set = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            set.add(inputStream.readUTF());
+        }
+        return set;
+    }
+
+    private static void writeStringSet(DataOutputStream outputStream, Set<String> set) throws IOException {
+        outputStream.writeInt(set.size());
+        for (String value : set) {
+            outputStream.writeUTF(value);
+        }
+    }
+}
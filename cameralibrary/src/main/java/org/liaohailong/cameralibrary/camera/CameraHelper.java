@@ -1,13 +1,20 @@
 package org.liaohailong.cameralibrary.camera;
 
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.ImageFormat;
 import android.graphics.Point;
 import android.hardware.Camera;
 import android.media.CamcorderProfile;
 import android.media.MediaRecorder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.MotionEvent;
@@ -18,9 +25,13 @@ import android.view.SurfaceView;
 import android.view.View;
 import android.widget.Toast;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Describe as : 相机开启协助类
@@ -60,52 +71,281 @@ public final class CameraHelper {
     static final int REQUEST_CAMERA_PERMISSION_CODE = 0x001;
     static final int REQUEST_WRITE_EXTERNAL_STORAGE_PERMISSION_CODE = 0x002;
     static final int REQUEST_RECORD_AUDIO_PERMISSION_CODE = 0x003;
+    private static final int FPS_CHECK_INTERVAL = 60;//每隔多少帧检查一次实际帧率
+    private static final long FOCUS_SAMPLE_INTERVAL = 200;//没有预览回调时对焦采样的间隔（毫秒）
+    private static final long SURFACE_DESTROY_TIMEOUT = 2000;//Surface销毁时等待相机线程停止预览的上限（毫秒）
+    private static final long ARM_RECORDER_DELAY = 500;//开启预览后多久进入录制准备状态（毫秒）
+    private static final long ARM_RECORDER_IDLE_DELAY = 3000;//对焦、修改参数或拍照后相机空闲多久再重新准备（毫秒）
+
+    /**
+     * 预览帧率策略，见{@link Builder#setFpsPolicy(FpsPolicy, int)}
+     */
+    public enum FpsPolicy {
+        /**
+         * 最高帧率，优先固定帧率
+         */
+        MAX_THROUGHPUT,
+        /**
+         * 省电：最高帧率不低于15帧中最低的范围，允许暗光下降帧
+         */
+        POWER_SAVING,
+        /**
+         * 包含目标帧率的最窄范围
+         */
+        TARGET
+    }
 
     //相机配置相关
-    private Camera mCamera;
-    private Camera.Parameters mParameters;
+    private volatile Camera mCamera;
+    private Camera.Parameters mParameters;//参数缓存，与相机中的参数保持一致，只在相机线程修改
+    //以下为参数缓存中常用值的快照，可在任意线程读取
+    private volatile boolean isZoomSupported = false;
+    private volatile int mMaxZoom = 0;
+    private volatile int mZoom = 0;
+    private volatile String mCurrentFlashMode;
+    private volatile int[] mPreviewFpsRange;//当前生效的预览帧率范围
+    private volatile String mFocusMode;
+    private final ZoomController mZoomController = new ZoomController(new ZoomController.Host() {
+        @Override
+        public void runOnCameraThread(Runnable runnable) {
+            CameraHelper.this.runOnCameraThread(runnable);
+        }
+
+        @Override
+        public void commitZoom(int zoom) {
+            commitParameters(zoom, null, null);
+        }
+
+        @Override
+        public void onZoomChanged(int zoom) {
+            //平滑缩放由相机自行修改缩放级别，同步到参数缓存
+            if (mParameters != null) {
+                mParameters.setZoom(zoom);
+            }
+            mZoom = zoom;
+        }
+    });
 
     //基本信息相关
     private WeakReference<Activity> mActivityWeak;
     private Camera.PreviewCallback mPreviewCallback;
+    private PreviewBufferPool mPreviewBufferPool;//预览缓冲池，为空表示每帧由相机分配新数组
+    private final Camera.PreviewCallback mInternalPreviewCallback = new Camera.PreviewCallback() {
+        @Override
+        public void onPreviewFrame(byte[] data, Camera camera) {
+            if (mFirstFrameRequestNanos != 0) {
+                onFirstPreviewFrame();
+            }
+            long frameNanos = System.nanoTime();
+            mMetrics.onPreviewFrame(frameNanos);
+            if (mFpsPolicy != null && ++mFpsCheckFrames >= FPS_CHECK_INTERVAL) {
+                mFpsCheckFrames = 0;
+                checkDeliveredFps();
+            }
+            if (mPreviewBufferPool != null) {
+                mPreviewBufferPool.onFrameDelivered(data);
+            }
+            mZoomController.onPreviewFrame(frameNanos);
+            mFocusScheduler.onPreviewFrame(data, mPreviewWidth, mPreviewHeight, frameNanos);
+            ZslRingBuffer zslBuffer = mZslBuffer;
+            if (zslBuffer != null) {
+                zslBuffer.offer(data, SystemClock.elapsedRealtime());
+            }
+            if (mFrameDispatcher.hasConsumers()) {
+                //开启缓冲池时预览回调持有一次引用，由recyclePreviewBuffer释放
+                boolean callerHolds = mPreviewCallback != null && mPreviewBufferPool != null;
+                mFrameDispatcher.dispatch(data, mPreviewWidth, mPreviewHeight, mPreviewFormat, frameNanos, callerHolds);
+                if (mPreviewCallback != null) {
+                    mPreviewCallback.onPreviewFrame(data, camera);
+                }
+            } else if (mPreviewCallback != null) {
+                mPreviewCallback.onPreviewFrame(data, camera);
+            } else if (mPreviewBufferPool != null) {
+                mPreviewBufferPool.recycle(data);
+            }
+        }
+    };
+    //把预览帧分发给各个FrameProcessor，缓冲区在所有持有者释放后归还缓冲池
+    private final FrameDispatcher mFrameDispatcher = new FrameDispatcher(new FrameDispatcher.Recycler() {
+        @Override
+        public void recycle(byte[] buffer) {
+            PreviewBufferPool previewBufferPool = mPreviewBufferPool;
+            if (previewBufferPool != null) {
+                previewBufferPool.recycle(buffer);
+            }
+        }
+    });
+    private volatile int mPreviewWidth;
+    private volatile int mPreviewHeight;
+    private volatile int mPreviewFormat;
+    //没有预览回调时用于统计第一帧预览到达的时间，以及对焦调度采样，数据写入复用的mFocusSampleBuffer
+    private final Camera.PreviewCallback mFirstFrameCallback = new Camera.PreviewCallback() {
+        @Override
+        public void onPreviewFrame(byte[] data, Camera camera) {
+            isFocusSampleQueued = false;
+            if (mFirstFrameRequestNanos != 0) {
+                onFirstPreviewFrame();
+            }
+            mFocusScheduler.onPreviewFrame(data, mPreviewWidth, mPreviewHeight, System.nanoTime());
+        }
+    };
+    private byte[] mFocusSampleBuffer;//没有预览回调时采样使用的缓冲区，只在相机线程访问
+    private boolean isFocusSampleQueued = false;//采样缓冲区已交给相机、尚未回调
+    private volatile long mFirstFrameRequestNanos = 0;//请求开启相机的时间，0表示没有等待中的第一帧
+    private volatile long mTimeToFirstFrameMs = -1;//最近一次开启到第一帧预览的耗时
+    private final CameraMetrics mMetrics = new CameraMetrics();
+    private FpsPolicy mFpsPolicy;//预览帧率策略，为空表示使用相机默认值
+    private int mTargetFps = 30;//FpsPolicy.TARGET的目标帧率
+    private int mFpsCheckFrames = 0;//距上次检查实际帧率的帧数，只在预览回调线程访问
+    private volatile long mFpsViolationCount = 0;//实际帧率不在请求范围内的次数
+    private volatile int mOpenToken = 0;//每次停止时递增，用于取消尚未执行的预热开启
+    private volatile boolean isSwitching = false;//切换摄像头后尚未收到新摄像头的第一帧
+    private volatile long mSwitchLatencyMs = -1;//最近一次切换摄像头的耗时
+    private CameraConfig mNextConfig;//预先计算好的另一个摄像头的配置，只在相机线程访问
     private SurfaceView mSurfaceView;
-    private SurfaceHolder mSurfaceHolder;
+    private volatile SurfaceHolder mSurfaceHolder;
     private int mFaceType = Camera.CameraInfo.CAMERA_FACING_BACK;
+    private int mCameraId = -1;//当前开启的相机id
+    private final Context mAppContext;
+    private CameraCapabilityIndex mCapabilityIndex;//相机能力索引，首次开启相机时加载
+    private StorageBenchmark mStorageBenchmark;//保存目录的写入速度，首次开启预览时加载或测试
+    private volatile int mFrameRotation = 0;//预览帧转正所需的顺时针旋转角度
+    private volatile boolean isFrameMirror = false;//预览帧转正后是否需要水平镜像（前置摄像头）
     private String directoryPath = "";//保存路径
+    private CaptureStore mCaptureStore;//保存目录下照片与录像的命名、索引与配额
     private int displayWidth = 1920;
     private int displayHeight = 1080;
     private Bitmap.CompressFormat mCompressFormat = Bitmap.CompressFormat.PNG;
+    private boolean isJpegPassthrough = false;//JPEG格式下是否直写相机数据
+    private CaptureSavePipeline mSavePipeline;//拍照保存流水线
+    private boolean isStillCapturePending = false;//已调用takePicture、尚未返回数据，期间占用一个保存名额且不能解锁相机
+    private volatile BurstSession mBurstSession;//进行中的连拍，只在相机线程访问
+    private int mZslFrameCount = 0;//零延时拍照缓存的预览帧数，0表示不开启
+    private long mZslMemoryBudget = 0;//零延时拍照缓存的内存预算（字节）
+    private volatile ZslRingBuffer mZslBuffer;
     private CameraOptCallback mCameraOptCallback;
     private boolean isAutoFocus = true;
-    private Runnable mAutoFocusRunnable = new Runnable() {
+    //按清晰度与场景变化调度对焦，只在FOCUS_MODE_AUTO下启用
+    private final FocusScheduler mFocusScheduler = new FocusScheduler(new FocusScheduler.Host() {
+        @Override
+        public void triggerFocus() {
+            runOnCameraThread(mAutoFocusRunnable);
+        }
+    });
+    private long mFocusStartNanos = 0;//只在相机线程访问
+    private boolean isFocusPending = false;//已调用autoFocus、尚未回调，只在相机线程访问
+    private final Runnable mAutoFocusRunnable = new Runnable() {
         @Override
         public void run() {
-            if (isAutoFocus) {
-                mCamera.autoFocus(new Camera.AutoFocusCallback() {
-                    @Override
-                    public void onAutoFocus(boolean success, Camera camera) {
-                        if (success && mCamera != null) {
-                            mCamera.cancelAutoFocus();
-                            startAutoFocus();
-                        }
-                    }
-                });
+            triggerAutoFocus();
+        }
+    };
+    private final Camera.AutoFocusCallback mAutoFocusCallback = new Camera.AutoFocusCallback() {
+        @Override
+        public void onAutoFocus(boolean success, Camera camera) {
+            long nowNanos = System.nanoTime();
+            isFocusPending = false;
+            mMetrics.record(CameraMetrics.EVENT_FOCUS, (nowNanos - mFocusStartNanos) / 1000000);
+            mFocusScheduler.onFocusComplete(nowNanos);
+            if (mCamera != null && isContinuousFocus()) {
+                //连续对焦模式下手动对焦会锁定焦点，完成后恢复连续对焦
+                mCamera.cancelAutoFocus();
+            }
+        }
+    };
+    //没有注册预览回调时，定时取一帧给对焦调度采样
+    private final Runnable mFocusSampleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mCamera == null || !mFocusScheduler.isEnabled() || isInternalCallbackInstalled) {
+                return;
             }
+            requestSampleFrame(mCamera);
+            getCameraHandler().postDelayed(this, FOCUS_SAMPLE_INTERVAL);
         }
     };
-    private String mFlashMode = Camera.Parameters.FLASH_MODE_OFF;//默认取消闪光灯
+    private volatile boolean isInternalCallbackInstalled = false;//是否已注册mInternalPreviewCallback
+    private volatile String mFlashMode = Camera.Parameters.FLASH_MODE_OFF;//默认取消闪光灯
     private boolean isScaleEnable = true;//是否支持变焦缩放
 
     //视频录制相关
-    private boolean isRecording = false;
+    private volatile boolean isRecording = false;
     private MediaRecorder mMediaRecorder;
     private String mRecordFilePath;
+    private volatile MotionRecordingProcessor mMotionRecording;//运动触发录像，为空表示未开启
+    //录制准备状态：预览期间提前配置并prepare好录制器，开始录制只需要start()，只在相机线程访问
+    private boolean isRecordReadyEnable = false;
+    private volatile boolean isRecordReady = false;
+    private MediaRecorder mReadyRecorder;
+    private String mReadyFilePath;//准备时写入的临时文件，开始录制后才确定正式文件名
+    private String mRecordTargetPath;//从准备状态开始的录像，停止后重命名为此文件
+    private MediaRecorder mIdleRecorder;//reset()后留待下一段录像复用
+    private boolean isFocusSchedulerSuspended = false;//录制准备期间暂停了对焦调度，退出准备时恢复
+    private volatile long mRecorderArmCount = 0;//进入录制准备状态的次数
+    private volatile long mRecorderDisarmCount = 0;//因使用相机而退出录制准备状态的次数
+    private volatile CamcorderProfile mRecordProfile;//最近一次录像使用的配置
+    private boolean isArmRecorderScheduled = false;//mArmRecorderRunnable是否在等待执行
+    private final Runnable mArmRecorderRunnable = new Runnable() {
+        @Override
+        public void run() {
+            isArmRecorderScheduled = false;
+            armRecorder();
+        }
+    };
+
+    //分段录像相关，只在相机线程访问
+    private SegmentConfig mSegmentConfig;//为空表示不分段
+    private String mRecordFileBase;//本次录像的文件名前缀（不含序号与后缀）
+    private String mRecordFileSuffix;
+    private int mSegmentIndex = 0;
+    private String mNextSegmentPath;//已交给录制器的下一段文件
+    private final ArrayDeque<String> mSegmentRing = new ArrayDeque<>();//已完成的分段，超出保留数量时删除最旧的
+    private final MediaRecorder.OnInfoListener mSegmentInfoListener = new MediaRecorder.OnInfoListener() {
+        @Override
+        public void onInfo(MediaRecorder mr, int what, int extra) {
+            if (mr != mMediaRecorder || mSegmentConfig == null) {
+                return;
+            }
+            switch (what) {
+                case MediaRecorder.MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED:
+                    //录制器已切换到下一段并自行完成上一段的收尾
+                    String finished = mRecordFilePath;
+                    mRecordFilePath = mNextSegmentPath;
+                    mNextSegmentPath = null;
+                    onSegmentComplete(finished);
+                    queueNextSegment();
+                    break;
+                case MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING:
+                    if (mNextSegmentPath == null) {
+                        queueNextSegment();
+                    }
+                    break;
+                case MediaRecorder.MEDIA_RECORDER_INFO_MAX_DURATION_REACHED:
+                    //setNextOutputFile只对文件大小上限生效，到达时长上限时录制器已停止，丢弃排队的文件并换一个录制器继续
+                    discardNextSegment();
+                    handOffSegment();
+                    break;
+                case MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED:
+                    if (mNextSegmentPath == null) {
+                        //不支持切换输出文件，录制器已停止，换一个录制器继续
+                        handOffSegment();
+                    }
+                    break;
+            }
+        }
+    };
 
     //日志输入相关
     private boolean logEnable = true;
 
+    //线程相关
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private HandlerThread mCameraThread;
+    private Handler mCameraHandler;//相机线程，为空表示在调用线程直接操作相机
+
     private CameraHelper(Activity activity, SurfaceView surfaceView) {
         mActivityWeak = new WeakReference<>(activity);
+        mAppContext = activity.getApplicationContext();
         mSurfaceView = surfaceView;
         surfaceView.getHolder().addCallback(new SurfaceHolder.Callback() {
             @Override
@@ -123,7 +363,8 @@ public final class CameraHelper {
             @Override
             public void surfaceDestroyed(SurfaceHolder holder) {
                 mSurfaceHolder = null;
-                onStop();
+                //返回后Surface即被销毁，必须在此之前停止向它输出预览
+                stop(SURFACE_DESTROY_TIMEOUT);
             }
         });
         initGestureDetector(activity.getApplicationContext());
@@ -134,25 +375,20 @@ public final class CameraHelper {
             final ScaleGestureDetector scaleGestureDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.OnScaleGestureListener() {
                 @Override
                 public boolean onScale(ScaleGestureDetector detector) {
-                    float scaleFactor = detector.getScaleFactor();
-                    int maxZoomSize = getMaxZoomSize();
-                    int currentZoom = getCurrentZoom();
-                    float scale = scaleFactor - 1;
-                    int scaleZoom = currentZoom + (int) (maxZoomSize * scale);
-                    scaleZoom = scaleZoom < 0 ? 0 : scaleZoom;
-                    scaleZoom = scaleZoom > maxZoomSize ? maxZoomSize : scaleZoom;
-                    zoom(scaleZoom);
+                    //只更新目标倍率，每个屏幕帧最多提交一次缩放
+                    mZoomController.onScale(detector.getScaleFactor());
                     return true;
                 }
 
                 @Override
                 public boolean onScaleBegin(ScaleGestureDetector detector) {
+                    mZoomController.onScaleBegin();
                     return true;
                 }
 
                 @Override
                 public void onScaleEnd(ScaleGestureDetector detector) {
-
+                    mZoomController.onScaleEnd();
                 }
             });
             mSurfaceView.setOnTouchListener(new View.OnTouchListener() {
@@ -173,34 +409,148 @@ public final class CameraHelper {
     }
 
     /**
-     * {@link Activity#onStart()}方法调用
+     * 开启相机线程，此后所有相机操作都在该线程执行，预览回调也在该线程回调
      */
-    public void onStart() {
-        if (mSurfaceHolder == null) {
+    private void startCameraThread() {
+        mCameraThread = new HandlerThread("CameraThread");
+        mCameraThread.start();
+        mCameraHandler = new Handler(mCameraThread.getLooper());
+    }
+
+    /**
+     * 在相机线程执行，未开启相机线程时直接在当前线程执行
+     *
+     * @param runnable 相机操作
+     */
+    private void runOnCameraThread(Runnable runnable) {
+        if (mCameraHandler == null || Looper.myLooper() == mCameraHandler.getLooper()) {
+            runnable.run();
+        } else {
+            mCameraHandler.post(runnable);
+        }
+    }
+
+    /**
+     * 在相机线程执行并等待完成，未开启相机线程或已在相机线程时直接执行
+     *
+     * @param runnable  相机操作
+     * @param timeoutMs 最长等待时间（毫秒），超时后不再等待，操作仍会继续执行
+     */
+    private void runOnCameraThreadAndWait(final Runnable runnable, long timeoutMs) {
+        if (mCameraHandler == null || Looper.myLooper() == mCameraHandler.getLooper()) {
+            runnable.run();
             return;
         }
-        if (mCamera == null) {
-            if (openCamera(mFaceType)) {
-                startPreview();
+        final CountDownLatch latch = new CountDownLatch(1);
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } finally {
+                    latch.countDown();
+                }
             }
+        });
+        try {
+            if (!latch.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+                log("等待相机线程超时 timeout = " + timeoutMs + "ms");
+            }
+        } catch (InterruptedException ex) {
+            ex.printStackTrace();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 在主线程执行，用于把结果回调给{@link CameraOptCallback}
+     *
+     * @param runnable 回调操作
+     */
+    private void runOnMainThread(Runnable runnable) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            runnable.run();
         } else {
-            startPreview();
+            mMainHandler.post(runnable);
         }
     }
 
+    /**
+     * @return 自动聚焦等延时任务所使用的Handler
+     */
+    private Handler getCameraHandler() {
+        return mCameraHandler != null ? mCameraHandler : mMainHandler;
+    }
+
+    /**
+     * {@link Activity#onStart()}方法调用
+     */
+    public void onStart() {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mSurfaceHolder == null) {
+                    return;
+                }
+                if (mCamera == null) {
+                    if (openCamera(mFaceType)) {
+                        startPreview();
+                    }
+                } else {
+                    startPreview();
+                }
+            }
+        });
+    }
+
     /**
      * {@link Activity#onStop()}方法调用
      */
     public void onStop() {
-        releaseRecorder();
-        releaseCamera();
+        stop(0);
+    }
+
+    /**
+     * 停止录制并释放相机
+     *
+     * @param waitMs 大于0时等待相机线程释放完成，最多等待的时间（毫秒）
+     */
+    private void stop(long waitMs) {
+        //取消尚未执行或正在执行的预热开启
+        mOpenToken++;
+        mFirstFrameRequestNanos = 0;
+        Runnable release = new Runnable() {
+            @Override
+            public void run() {
+                releaseRecorder();
+                releaseCamera();
+            }
+        };
+        if (waitMs > 0) {
+            runOnCameraThreadAndWait(release, waitMs);
+        } else {
+            runOnCameraThread(release);
+        }
     }
 
     /**
      * {@link Activity#onDestroy()}方法调用
      */
     public void onDestroy() {
-        releaseCamera();
+        mOpenToken++;
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                releaseCamera();
+            }
+        });
+        mSavePipeline.shutdown();
+        mFrameDispatcher.shutdown();
+        if (mCameraThread != null) {
+            mCameraThread.quitSafely();
+            mCameraThread = null;
+            mCameraHandler = null;
+        }
         mActivityWeak = null;
         mPreviewCallback = null;
         mSurfaceView = null;
@@ -208,14 +558,125 @@ public final class CameraHelper {
         mCameraOptCallback = null;
     }
 
+    /**
+     * 预热：不等界面的Surface创建，直接在相机线程开启并配置相机，
+     * Surface创建后{@link #onStart()}只需绑定预览界面并开启预览
+     */
+    private void prewarm() {
+        if (!CameraUtil.hasCameraPermission(mAppContext)) {
+            //没有权限时仍走原流程，由surfaceCreated请求权限
+            log("没有相机权限，跳过预热");
+            return;
+        }
+        mFirstFrameRequestNanos = System.nanoTime();
+        final int token = mOpenToken;
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (token != mOpenToken || mCamera != null) {
+                    return;
+                }
+                if (openCamera(mFaceType) && token != mOpenToken) {
+                    //开启过程中界面已经停止
+                    releaseCamera();
+                    return;
+                }
+                log("预热开启相机完成 cost = " + (System.nanoTime() - mFirstFrameRequestNanos) / 1000000 + "ms");
+            }
+        });
+    }
+
+    /**
+     * 收到开启后的第一帧预览，在预览回调线程调用
+     */
+    private void onFirstPreviewFrame() {
+        long requestNanos = mFirstFrameRequestNanos;
+        mFirstFrameRequestNanos = 0;
+        if (requestNanos == 0) {
+            return;
+        }
+        final long elapsedMs = (System.nanoTime() - requestNanos) / 1000000;
+        final boolean switched = isSwitching;
+        final int faceType = mFaceType;
+        isSwitching = false;
+        mMetrics.record(switched ? CameraMetrics.EVENT_SWITCH : CameraMetrics.EVENT_FIRST_FRAME, elapsedMs);
+        if (switched) {
+            mSwitchLatencyMs = elapsedMs;
+            log("切换摄像头 switchLatency = " + elapsedMs + "ms");
+        } else {
+            mTimeToFirstFrameMs = elapsedMs;
+            log("第一帧预览 timeToFirstFrame = " + elapsedMs + "ms");
+        }
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mCameraOptCallback == null) {
+                    return;
+                }
+                if (switched) {
+                    mCameraOptCallback.onCameraSwitched(faceType, elapsedMs);
+                } else {
+                    mCameraOptCallback.onFirstPreviewFrame(elapsedMs);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return 最近一次开启相机到第一帧预览的耗时（毫秒），尚未收到时为-1
+     */
+    public long getTimeToFirstFrameMs() {
+        return mTimeToFirstFrameMs;
+    }
+
     /**
      * 切换前后摄像头
+     * <p>
+     * 关闭当前摄像头后立即开启另一个，使用预先计算好的配置，尺寸相同时复用预览缓冲区；
+     * 在build()时确定的线程执行，未开启相机线程时在调用线程执行。耗时通过{@link CameraOptCallback#onCameraSwitched(int, long)}回调
      */
     public void switchCamera() {
-        mFaceType = mFaceType == Camera.CameraInfo.CAMERA_FACING_BACK
+        final long requestNanos = System.nanoTime();
+        final int faceType = mFaceType == Camera.CameraInfo.CAMERA_FACING_BACK
                 ? Camera.CameraInfo.CAMERA_FACING_FRONT : Camera.CameraInfo.CAMERA_FACING_BACK;
-        onStop();
-        onStart();
+        mFaceType = faceType;
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mSurfaceHolder == null) {
+                    //尚未开始预览，下次onStart时直接开启目标摄像头
+                    return;
+                }
+                releaseRecorder();
+                releaseCamera();
+                //旧摄像头关闭后再开始计时等待第一帧，避免旧摄像头残留的帧被误统计
+                mFirstFrameRequestNanos = requestNanos;
+                isSwitching = true;
+                if (openCamera(faceType)) {
+                    startPreview();
+                } else {
+                    isSwitching = false;
+                    mFirstFrameRequestNanos = 0;
+                }
+            }
+        });
+    }
+
+    /**
+     * 性能统计，可通过{@link CameraMetrics#snapshot()}导出
+     * 预览帧间隔只在注册了预览回调（预览回调、缓冲池或零延时拍照）时统计
+     *
+     * @return 性能统计
+     */
+    public CameraMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * @return 最近一次切换摄像头的耗时（毫秒），尚未切换时为-1
+     */
+    public long getSwitchLatencyMs() {
+        return mSwitchLatencyMs;
     }
 
     /**
@@ -223,223 +684,1490 @@ public final class CameraHelper {
      */
     public void takePicture() {
         if (mCamera != null && CameraUtil.requestWriteStoragePermissionIfNeed(mActivityWeak.get())) {
-            mCamera.takePicture(null, null, new Camera.PictureCallback() {
+            runOnCameraThread(new Runnable() {
                 @Override
-                public void onPictureTaken(byte[] data, Camera camera) {
-                    if (mCamera != null) {
-                        mCamera.startPreview();
+                public void run() {
+                    if (mCamera == null) {
+                        return;
+                    }
+                    if (!mSavePipeline.acquire()) {
+                        notifyPictureRejected();
+                        return;
+                    }
+                    ensureCameraLocked();
+                    final long shutterNanos = System.nanoTime();
+                    try {
+                        isStillCapturePending = true;
+                        mCamera.takePicture(null, null, new Camera.PictureCallback() {
+                            @Override
+                            public void onPictureTaken(byte[] data, Camera camera) {
+                                isStillCapturePending = false;
+                                if (mCamera != null) {
+                                    mCamera.startPreview();
+                                }
+                                savePicture(data, new TimedSaveCallback(shutterNanos));
+                            }
+                        });
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                        isStillCapturePending = false;
+                        mSavePipeline.release();
                     }
-                    CameraUtil.savePic(mFaceType, directoryPath, data, mCompressFormat, mCameraOptCallback);
                 }
             });
         }
     }
 
+    private final CaptureSavePipeline.SaveCallback mPictureSaveCallback = new CaptureSavePipeline.SaveCallback() {
+        @Override
+        public void onSaved(String path, Bitmap bitmap) {
+            mCaptureStore.add(path, CaptureStore.TYPE_PICTURE);
+            if (mCameraOptCallback != null) {
+                mCameraOptCallback.onPictureComplete(path, bitmap);
+            }
+        }
+
+        @Override
+        public void onFailed(String path) {
+            log("图片保存失败 path = " + path);
+        }
+    };
+
     /**
-     * 手动聚焦
+     * 统计按下拍照到回调onPictureComplete的耗时
      */
-    public void focus() {
-        stopAutoFocus();
-        mAutoFocusRunnable.run();
-        startAutoFocus();
+    private final class TimedSaveCallback implements CaptureSavePipeline.SaveCallback {
+        private final long mStartNanos;
+
+        TimedSaveCallback(long startNanos) {
+            mStartNanos = startNanos;
+        }
+
+        @Override
+        public void onSaved(String path, Bitmap bitmap) {
+            mMetrics.recordSince(CameraMetrics.EVENT_CAPTURE, mStartNanos);
+            mPictureSaveCallback.onSaved(path, bitmap);
+        }
+
+        @Override
+        public void onFailed(String path) {
+            mPictureSaveCallback.onFailed(path);
+        }
     }
 
     /**
-     * @return 最大缩放值
+     * 把拍照数据交给保存流水线，调用前必须已经申请到名额
+     *
+     * @param data     相机返回的图像数据
+     * @param callback 保存结果回调
+     * @return 是否提交成功
      */
-    private int getMaxZoomSize() {
-        if (mCamera != null) {
-            Camera.Parameters parameters = mCamera.getParameters();
-            if (parameters.isZoomSupported()) {
-                return parameters.getMaxZoom();
+    private boolean savePicture(byte[] data, CaptureSavePipeline.SaveCallback callback) {
+        String path = data != null ? CameraUtil.createPicturePath(mCaptureStore, mCompressFormat) : null;
+        if (path == null) {
+            mSavePipeline.release();
+            return false;
+        }
+        mSavePipeline.submit(data, CameraUtil.getPictureDegree(mFaceType),
+                mFaceType == Camera.CameraInfo.CAMERA_FACING_FRONT,
+                path, mCompressFormat, isJpegPassthrough, callback);
+        return true;
+    }
+
+    /**
+     * 零延时拍照：从最近缓存的预览帧中取出最接近点击时刻的一帧保存，不触发对焦与快门
+     * 画质为预览分辨率，需要{@link Builder#setZslFrameCount(int)}开启，结果通过onPictureComplete回调
+     * 申请名额与复制预览帧在相机线程进行；未开启相机线程时在调用线程进行，名额用尽时直接拒绝而不阻塞
+     *
+     * @return 是否已提交拍照请求，被拒绝时回调onPictureRejected
+     */
+    public boolean takeZslPicture() {
+        final long tapTime = SystemClock.elapsedRealtime();
+        final long tapNanos = System.nanoTime();
+        if (mZslBuffer == null || !CameraUtil.requestWriteStoragePermissionIfNeed(mActivityWeak.get())) {
+            return false;
+        }
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                takeZslPicture(tapTime, tapNanos);
             }
+        });
+        return true;
+    }
+
+    /**
+     * 在相机线程保存最接近点击时刻的一帧
+     *
+     * @param tapTime  点击时刻（elapsedRealtime）
+     * @param tapNanos 点击时刻（nanoTime），用于统计拍照耗时
+     */
+    private void takeZslPicture(long tapTime, long tapNanos) {
+        ZslRingBuffer zslBuffer = mZslBuffer;
+        if (zslBuffer == null) {
+            return;
         }
-        return 0;
+        //主线程不能阻塞等待名额
+        boolean onMainThread = Looper.myLooper() == Looper.getMainLooper();
+        if (!(onMainThread ? mSavePipeline.tryAcquire() : mSavePipeline.acquire())) {
+            notifyPictureRejected();
+            return;
+        }
+        String path = CameraUtil.createPicturePath(mCaptureStore, mCompressFormat);
+        byte[] frame = path != null ? new byte[zslBuffer.getFrameSize()] : null;
+        long frameTime = frame != null ? zslBuffer.copyClosest(tapTime, frame) : -1;
+        if (frameTime < 0) {
+            mSavePipeline.release();
+            return;
+        }
+        log("零延时拍照 frameOffset = " + (frameTime - tapTime) + "ms");
+        mSavePipeline.submitNv21(frame, zslBuffer.getWidth(), zslBuffer.getHeight(),
+                mFrameRotation, isFrameMirror, path, mCompressFormat, isJpegPassthrough, new TimedSaveCallback(tapNanos));
     }
 
     /**
-     * @return 当前缩放级别
+     * 连拍：上一张数据返回后立即恢复预览并开始下一张，之前的照片在保存流水线中并行编码
+     * 全部保存完成后回调{@link CameraOptCallback#onBurstComplete(BurstResult)}，不再逐张回调onPictureComplete
+     *
+     * @param count      拍摄张数
+     * @param intervalMs 相邻两张的最小间隔，0表示相机允许后立即拍下一张
+     * @return 是否开始连拍，已有连拍进行中时返回false
      */
-    private int getCurrentZoom() {
-        if (mCamera != null) {
-            return mCamera.getParameters().getZoom();
+    public boolean takeBurst(final int count, final long intervalMs) {
+        if (count <= 0 || mCamera == null || !CameraUtil.requestWriteStoragePermissionIfNeed(mActivityWeak.get())) {
+            return false;
         }
-        return 0;
+        if (mBurstSession != null) {
+            return false;
+        }
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mBurstSession != null || mCamera == null) {
+                    return;
+                }
+                mBurstSession = new BurstSession(count, Math.max(0, intervalMs));
+                mBurstSession.captureNext();
+            }
+        });
+        return true;
     }
 
     /**
-     * @param value 缩放量
+     * @return 是否正在连拍
      */
-    private void zoom(int value) {
-        if (mCamera != null) {
-            Camera.Parameters parameters = mCamera.getParameters();
-            if (parameters.isZoomSupported()) {
-                int maxZoom = parameters.getMaxZoom();
-                value = value < 0 ? 0 : value;
-                value = value > maxZoom ? maxZoom : value;
-                parameters.setZoom(value);
-                try {
-                    mCamera.setParameters(parameters);
-                } catch (Exception ex) {
-                    ex.printStackTrace();
+    public boolean isBursting() {
+        return mBurstSession != null;
+    }
+
+    /**
+     * 一次连拍过程，只在相机线程访问
+     */
+    private final class BurstSession {
+        private final int mCount;
+        private final long mIntervalMs;
+        private final BurstResult mResult;
+        private int mNextIndex = 0;//下一张的序号
+        private int mPendingSaveCount = 0;//已提交、尚未保存完成的张数
+        private int mInFlightIndex = -1;//已调用takePicture、尚未返回数据的序号，-1表示没有
+        private long mLastRequestTime = 0;
+        private boolean isCaptureDone = false;
+
+        private final Runnable mCaptureRunnable = new Runnable() {
+            @Override
+            public void run() {
+                captureNext();
+            }
+        };
+
+        BurstSession(int count, long intervalMs) {
+            mCount = count;
+            mIntervalMs = intervalMs;
+            mResult = new BurstResult(count);
+        }
+
+        void captureNext() {
+            if (isCaptureDone) {
+                return;
+            }
+            if (mNextIndex >= mCount || mCamera == null) {
+                stopCapture();
+                return;
+            }
+            final int index = mNextIndex++;
+            if (!mSavePipeline.acquire()) {
+                notifyPictureRejected();
+                scheduleNext();
+                return;
+            }
+            //录制准备状态下相机处于解锁状态，连拍期间不会重新准备
+            ensureCameraLocked();
+            mLastRequestTime = SystemClock.elapsedRealtime();
+            mInFlightIndex = index;
+            try {
+                mCamera.takePicture(null, null, new Camera.PictureCallback() {
+                    @Override
+                    public void onPictureTaken(byte[] data, Camera camera) {
+                        if (mInFlightIndex != index) {
+                            return;
+                        }
+                        mInFlightIndex = -1;
+                        mResult.onCaptured(index, System.currentTimeMillis(), SystemClock.elapsedRealtime());
+                        if (mCamera != null) {
+                            mCamera.startPreview();
+                        }
+                        if (savePicture(data, new BurstSaveCallback(index))) {
+                            mPendingSaveCount++;
+                        }
+                        scheduleNext();
+                    }
+                });
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                stopCapture();
+            }
+        }
+
+        private void scheduleNext() {
+            long delay = mLastRequestTime + mIntervalMs - SystemClock.elapsedRealtime();
+            getCameraHandler().postDelayed(mCaptureRunnable, delay > 0 ? delay : 0);
+        }
+
+        /**
+         * 停止继续拍摄，已拍摄的照片继续保存，正在拍摄的一张记为失败并归还保存名额
+         */
+        void stopCapture() {
+            getCameraHandler().removeCallbacks(mCaptureRunnable);
+            if (mInFlightIndex >= 0) {
+                mResult.onFailed(mInFlightIndex);
+                mInFlightIndex = -1;
+                mSavePipeline.release();
+            }
+            isCaptureDone = true;
+            checkComplete();
+        }
+
+        void onSaveFinished(int index, String path, Bitmap bitmap) {
+            mResult.onSaved(index, path);
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+            mPendingSaveCount--;
+            checkComplete();
+        }
+
+        private void checkComplete() {
+            if (!isCaptureDone || mPendingSaveCount > 0 || mBurstSession != this) {
+                return;
+            }
+            mBurstSession = null;
+            log("连拍完成 captured = " + mResult.getCapturedCount()
+                    + " saved = " + mResult.getSavedCount()
+                    + " failed = " + mResult.getFailedCount()
+                    + " shotsPerSecond = " + mResult.getShotsPerSecond());
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCameraOptCallback != null) {
+                        mCameraOptCallback.onBurstComplete(mResult);
+                    }
                 }
+            });
+        }
+
+        /**
+         * 保存结果在主线程回调，转回相机线程更新连拍状态
+         */
+        private final class BurstSaveCallback implements CaptureSavePipeline.SaveCallback {
+            private final int mIndex;
+
+            BurstSaveCallback(int index) {
+                mIndex = index;
+            }
+
+            @Override
+            public void onSaved(final String path, final Bitmap bitmap) {
+                mCaptureStore.add(path, CaptureStore.TYPE_PICTURE);
+                runOnCameraThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onSaveFinished(mIndex, path, bitmap);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailed(String path) {
+                runOnCameraThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onSaveFinished(mIndex, null, null);
+                    }
+                });
+            }
+        }
+    }
+
+    private void notifyPictureRejected() {
+        final int pendingCount = mSavePipeline.getPendingCount();
+        final long inFlightBytes = mSavePipeline.getInFlightBytes();
+        log("待保存图片已达上限 pendingCount = " + pendingCount + " inFlightBytes = " + inFlightBytes);
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mCameraOptCallback != null) {
+                    mCameraOptCallback.onPictureRejected(pendingCount, inFlightBytes);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return 拍照保存流水线，可查询排队深度与占用内存
+     */
+    public CaptureSavePipeline getSavePipeline() {
+        return mSavePipeline;
+    }
+
+    /**
+     * 手动聚焦
+     */
+    public void focus() {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                triggerAutoFocus();
+            }
+        });
+    }
+
+    /**
+     * 归还预览缓冲区，仅在{@link Builder#setPreviewBufferCount(int)}开启缓冲池时有效
+     * 预览回调中拿到的data使用完毕后必须调用此方法，否则缓冲区耗尽后预览回调将会停止
+     *
+     * @param data 预览回调中拿到的数据
+     */
+    public void recyclePreviewBuffer(byte[] data) {
+        if (mPreviewBufferPool != null && !mFrameDispatcher.release(data)) {
+            mPreviewBufferPool.recycle(data);
+        }
+    }
+
+    /**
+     * 注册预览帧分析，每个FrameProcessor拥有独立的线程与有界队列，处理慢只会让自己丢帧
+     * 开启缓冲池时，缓冲区在预览回调与所有FrameProcessor都释放后才归还相机
+     *
+     * @param processor  预览帧分析
+     * @param dropPolicy 队列已满时的丢帧策略
+     * @param queueDepth 队列容量
+     * @return 注册信息，可读取处理数与丢帧数
+     */
+    public FrameConsumer addFrameProcessor(FrameProcessor processor, FrameConsumer.DropPolicy dropPolicy, int queueDepth) {
+        FrameConsumer consumer = mFrameDispatcher.find(processor);
+        if (consumer != null) {
+            return consumer;
+        }
+        consumer = mFrameDispatcher.add(processor, dropPolicy, queueDepth);
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                //未开启缓冲池且之前没有注册预览回调时补上
+                if (mCamera != null && mPreviewBufferPool == null) {
+                    mCamera.setPreviewCallback(mInternalPreviewCallback);
+                    isInternalCallbackInstalled = true;
+                }
+            }
+        });
+        return consumer;
+    }
+
+    /**
+     * 移除预览帧分析，队列中尚未处理的帧会被释放
+     *
+     * @param processor 预览帧分析
+     */
+    public void removeFrameProcessor(FrameProcessor processor) {
+        mFrameDispatcher.remove(processor);
+    }
+
+    /**
+     * @return 预览缓冲池耗尽次数（每次耗尽都意味着后续帧被相机丢弃，直到有缓冲区归还）
+     */
+    public long getPreviewBufferExhaustedCount() {
+        return mPreviewBufferPool != null ? mPreviewBufferPool.getExhaustedCount() : 0;
+    }
+
+    /**
+     * 预览回调中的帧为传感器方向，按此角度顺时针旋转后与屏幕方向一致
+     * 可交给{@link YuvTransform#transformNv21(byte[], int, int, byte[], int, boolean)}处理
+     *
+     * @return 预览帧转正所需的顺时针旋转角度
+     */
+    public int getPreviewFrameRotation() {
+        return mFrameRotation;
+    }
+
+    /**
+     * @return 预览帧旋转后是否需要水平镜像，才能与屏幕上的前置预览一致
+     */
+    public boolean isPreviewFrameMirror() {
+        return isFrameMirror;
+    }
+
+    /**
+     * @return 最大缩放级别
+     */
+    public int getMaxZoom() {
+        if (mCamera != null && isZoomSupported) {
+            return mMaxZoom;
+        }
+        return 0;
+    }
+
+    /**
+     * @return 当前缩放级别
+     */
+    public int getCurrentZoom() {
+        if (mCamera != null) {
+            return mZoom;
+        }
+        return 0;
+    }
+
+    /**
+     * 需要有预览回调（setPreviewCallback/缓冲池/零延时拍照）时才能统计
+     *
+     * @return 捏合缩放过程中预览帧间隔的方差（毫秒²）
+     */
+    public double getPinchFrameIntervalVariance() {
+        return mZoomController.getPinchFrameIntervalVariance();
+    }
+
+    /**
+     * @return 捏合缩放过程中预览帧间隔的平均值（毫秒）
+     */
+    public double getPinchFrameIntervalMean() {
+        return mZoomController.getPinchFrameIntervalMean();
+    }
+
+    /**
+     * 清空捏合缩放过程中的预览帧间隔统计
+     */
+    public void resetPinchFrameStats() {
+        mZoomController.resetFrameStats();
+    }
+
+    /**
+     * 开启闪光灯模式
+     * 相机线程模式下异步设置，结果以{@link #isFlashOn()}为准
+     */
+    public boolean flashOn() {
+        if (mCamera == null || !isSupportFlashMode(Camera.Parameters.FLASH_MODE_ON)) {
+            return false;
+        }
+        return edit().setFlashMode(Camera.Parameters.FLASH_MODE_ON).apply();
+    }
+
+    /**
+     * 关闭闪光灯模式
+     */
+    public void flashOff() {
+        if (mCamera != null) {
+            edit().setFlashMode(Camera.Parameters.FLASH_MODE_OFF).apply();
+        }
+    }
+
+    /**
+     * @return 闪光灯是否已开启
+     */
+    public boolean isFlashOn() {
+        return mCamera != null && TextUtils.equals(mCurrentFlashMode, Camera.Parameters.FLASH_MODE_ON);
+    }
+
+    /**
+     * 批量修改相机参数，所有修改在{@link Editor#apply()}时合并为一次setParameters
+     * <pre>
+     * cameraHelper.edit()
+     *         .setZoom(10)
+     *         .setFlashMode(Camera.Parameters.FLASH_MODE_TORCH)
+     *         .apply();
+     * </pre>
+     *
+     * @return 参数编辑器
+     */
+    public Editor edit() {
+        return new Editor();
+    }
+
+    /**
+     * 把修改合并进参数缓存，并一次性提交给相机，在相机线程执行
+     *
+     * @return 是否提交成功，失败时参数缓存会与相机重新同步
+     */
+    private boolean commitParameters(Integer zoom, String flashMode, String focusMode) {
+        if (mCamera == null || mParameters == null) {
+            return false;
+        }
+        ensureCameraLocked();
+        boolean changed = false;
+        if (zoom != null && isZoomSupported) {
+            int value = zoom < 0 ? 0 : zoom;
+            value = value > mMaxZoom ? mMaxZoom : value;
+            if (value != mParameters.getZoom()) {
+                mParameters.setZoom(value);
+                changed = true;
+            }
+        }
+        if (flashMode != null && isSupportFlashMode(flashMode)
+                && !TextUtils.equals(flashMode, mParameters.getFlashMode())) {
+            mParameters.setFlashMode(flashMode);
+            changed = true;
+        }
+        if (focusMode != null && isSupportFocus(focusMode)
+                && !TextUtils.equals(focusMode, mParameters.getFocusMode())) {
+            mParameters.setFocusMode(focusMode);
+            changed = true;
+        }
+        if (!changed) {
+            return true;
+        }
+        try {
+            mCamera.setParameters(mParameters);
+            if (flashMode != null) {
+                mFlashMode = flashMode;//切换摄像头后沿用
+            }
+            return true;
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            //提交失败，以相机中的参数为准
+            mParameters = mCamera.getParameters();
+            return false;
+        } finally {
+            syncParameterCache();
+        }
+    }
+
+    /**
+     * 刷新参数缓存中常用值的快照
+     */
+    private void syncParameterCache() {
+        Camera.Parameters parameters = mParameters;
+        if (parameters == null) {
+            return;
+        }
+        isZoomSupported = parameters.isZoomSupported();
+        mMaxZoom = isZoomSupported ? parameters.getMaxZoom() : 0;
+        mZoom = isZoomSupported ? parameters.getZoom() : 0;
+        mCurrentFlashMode = parameters.getFlashMode();
+        mFocusMode = parameters.getFocusMode();
+        int[] fpsRange = new int[2];
+        parameters.getPreviewFpsRange(fpsRange);
+        mPreviewFpsRange = fpsRange;
+    }
+
+    /**
+     * 按帧率策略选择预览帧率范围
+     *
+     * @return {最小值, 最大值}（帧率 * 1000），未设置策略或没有可选范围时返回null
+     */
+    private int[] selectPreviewFpsRange() {
+        CameraCapabilityIndex.Capability capability = getCapabilityIndex().get(mCameraId);
+        if (mFpsPolicy == null || capability == null) {
+            return null;
+        }
+        return FpsRangeSelector.selectPreviewRange(capability.fpsRanges, mFpsPolicy, mTargetFps);
+    }
+
+    /**
+     * 提交预览帧率范围，在相机线程执行
+     *
+     * @param fpsRange {最小值, 最大值}（帧率 * 1000）
+     */
+    private void commitFpsRange(int[] fpsRange) {
+        if (fpsRange == null || mCamera == null || mParameters == null) {
+            return;
+        }
+        int[] current = new int[2];
+        mParameters.getPreviewFpsRange(current);
+        if (current[0] == fpsRange[0] && current[1] == fpsRange[1]) {
+            return;
+        }
+        try {
+            mParameters.setPreviewFpsRange(fpsRange[0], fpsRange[1]);
+            mCamera.setParameters(mParameters);
+            log("预览帧率范围 = [" + fpsRange[0] + ", " + fpsRange[1] + "]");
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            //提交失败，以相机中的参数为准
+            mParameters = mCamera.getParameters();
+        } finally {
+            syncParameterCache();
+        }
+    }
+
+    /**
+     * 检查实际帧率是否在请求的范围内，在预览回调线程执行
+     */
+    private void checkDeliveredFps() {
+        int[] fpsRange = mPreviewFpsRange;
+        float deliveredFps = getDeliveredFps();
+        if (fpsRange == null || deliveredFps <= 0) {
+            return;
+        }
+        if (!FpsRangeSelector.isWithinRange(fpsRange, deliveredFps)) {
+            mFpsViolationCount++;
+            log("实际帧率不在请求范围内 deliveredFps = " + deliveredFps
+                    + " range = [" + fpsRange[0] + ", " + fpsRange[1] + "]");
+        }
+    }
+
+    /**
+     * @return 当前生效的预览帧率范围{最小值, 最大值}（帧率 * 1000），相机未开启时为null
+     */
+    public int[] getPreviewFpsRange() {
+        int[] fpsRange = mPreviewFpsRange;
+        return fpsRange != null ? fpsRange.clone() : null;
+    }
+
+    /**
+     * 实际帧率，按平滑后的预览帧间隔计算，需要注册预览回调（预览回调、缓冲池或零延时拍照）
+     *
+     * @return 实际帧率，尚未统计时为0
+     */
+    public float getDeliveredFps() {
+        long intervalUs = mMetrics.getExpectedFrameIntervalUs();
+        return intervalUs > 0 ? 1000000f / intervalUs : 0;
+    }
+
+    /**
+     * @return 设置帧率策略后，实际帧率不在请求范围内的检查次数
+     */
+    public long getFpsViolationCount() {
+        return mFpsViolationCount;
+    }
+
+    /**
+     * @return 当前对焦模式（来自参数缓存）
+     */
+    public String getFocusMode() {
+        return mFocusMode;
+    }
+
+    /**
+     * 相机参数编辑器，见{@link CameraHelper#edit()}
+     */
+    public final class Editor {
+        private Integer zoom;
+        private String flashMode;
+        private String focusMode;
+
+        private Editor() {
+        }
+
+        /**
+         * @param zoom 缩放级别，超出范围时取边界值
+         */
+        public Editor setZoom(int zoom) {
+            this.zoom = zoom;
+            return this;
+        }
+
+        /**
+         * @param flashMode 闪光灯模式，相机不支持时忽略
+         */
+        public Editor setFlashMode(String flashMode) {
+            this.flashMode = flashMode;
+            return this;
+        }
+
+        /**
+         * @param focusMode 对焦模式，相机不支持时忽略
+         */
+        public Editor setFocusMode(String focusMode) {
+            this.focusMode = focusMode;
+            return this;
+        }
+
+        /**
+         * 合并提交所有修改
+         *
+         * @return 是否提交成功；相机线程模式下异步提交，返回true仅表示已提交
+         */
+        public boolean apply() {
+            final Integer zoom = this.zoom;
+            final String flashMode = this.flashMode;
+            final String focusMode = this.focusMode;
+            if (mCameraHandler != null && Looper.myLooper() != mCameraHandler.getLooper()) {
+                runOnCameraThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        commitParameters(zoom, flashMode, focusMode);
+                    }
+                });
+                return mCamera != null;
+            }
+            return commitParameters(zoom, flashMode, focusMode);
+        }
+    }
+
+    /**
+     * @return 当前是否正在录制
+     */
+    public boolean isRecording() {
+        return isRecording;
+    }
+
+    /**
+     * 相机线程模式下，返回true仅表示录制请求已提交，录制结果以{@link #isRecording()}为准
+     *
+     * @return 开启屏幕录制
+     */
+    public boolean startRecorder() {
+        return startRecorder(null);
+    }
+
+    /**
+     * 开启分段录像：每段达到指定时长或大小后切换到新文件继续录制，
+     * 每完成一段回调{@link CameraOptCallback#onVideoSegmentComplete(String)}，
+     * 停止时最后一段同样回调，之后再回调{@link CameraOptCallback#onVideoRecordComplete(String)}
+     * <p>
+     * Android 8.0及以上按大小分段时由录制器无缝切换文件；按时长分段或更低版本在段与段之间换一个录制器，会有短暂的间隙
+     * 分段的收尾与切换在相机线程进行，未开启相机线程（{@link Builder#setCameraThreadEnable(boolean)}）时在主线程进行
+     *
+     * @param segmentDurationMs 每段最长时长（毫秒），0表示不限
+     * @param segmentSizeBytes  每段最大字节数，0表示不限
+     * @param retainCount       最多保留的分段数，超出时删除最旧的一段，0表示全部保留
+     * @return 是否已提交录制请求
+     */
+    public boolean startSegmentedRecorder(int segmentDurationMs, long segmentSizeBytes, int retainCount) {
+        if (segmentDurationMs <= 0 && segmentSizeBytes <= 0) {
+            return false;
+        }
+        return startRecorder(new SegmentConfig(segmentDurationMs, segmentSizeBytes, retainCount));
+    }
+
+    private boolean startRecorder(final SegmentConfig segments) {
+        if (mCamera == null) {
+            return false;
+        }
+        if (mSurfaceHolder == null) {
+            return false;
+        }
+        if (!CameraUtil.requestWriteStoragePermissionIfNeed(mActivityWeak.get())) {
+            return false;
+        }
+        if (!CameraUtil.requestRecordAudioPermissionIfNeed(mActivityWeak.get())) {
+            return false;
+        }
+        if (mCameraHandler != null) {
+            runOnCameraThread(new Runnable() {
+                @Override
+                public void run() {
+                    prepareAndStartRecorder(segments);
+                }
+            });
+            return true;
+        }
+        return prepareAndStartRecorder(segments);
+    }
+
+    /**
+     * 开启录制器，在相机线程执行；处于录制准备状态时只需要start()
+     *
+     * @param segments 分段配置，为空表示不分段；与当前配置相同表示继续录制下一段
+     * @return 是否开启成功
+     */
+    private boolean prepareAndStartRecorder(SegmentConfig segments) {
+        if (mCamera == null || mSurfaceHolder == null) {
+            return false;
+        }
+        long startNanos = System.nanoTime();
+        cancelArmRecorder();
+        if (segments != null) {
+            //准备好的录制器没有分段上限，重新配置
+            disarmRecorder();
+        }
+        if (mReadyRecorder != null) {
+            mMediaRecorder = mReadyRecorder;
+            mRecordFilePath = mReadyFilePath;
+            mRecordTargetPath = mCaptureStore.newPath(mRecordFileSuffix);
+            mReadyRecorder = null;
+            mReadyFilePath = null;
+            isRecordReady = false;
+            mSegmentConfig = null;
+        } else {
+            MediaRecorder recorder = obtainRecorder();
+            String path = configureRecorder(recorder, segments, false);
+            if (path == null) {
+                return false;
+            }
+            mMediaRecorder = recorder;
+            mRecordFilePath = path;
+        }
+        try {
+            applyRecordingParameters();
+            mMediaRecorder.start();
+            isRecording = true;
+            mMetrics.recordSince(CameraMetrics.EVENT_RECORDER_START, startNanos);
+            if (segments != null) {
+                queueNextSegment();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            releaseRecorder();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 按保存目录的写入速度选择录像配置，尚未测得写入速度时沿用QUALITY_HIGH并使用最合适的预览尺寸，码率按尺寸调整
+     */
+    private CamcorderProfile selectRecordProfile(CameraCapabilityIndex.Capability capability) {
+        StorageBenchmark benchmark = getStorageBenchmark();
+        float writeMBps = benchmark.getWriteMBps();
+        CamcorderProfile profile = RecordProfileSelector.select(mCameraId, writeMBps,
+                capability != null ? capability.previewSizes : null);
+        if (writeMBps <= 0) {
+            benchmark.measureAsync();
+            //PS:此处需要注意~~~profile中的videoFrameWidth和videoFrameHeight如果超出预览视图的宽高，就会录制失败!
+            //PS:此处需要注意~~~profile中的videoFrameWidth和videoFrameHeight如果超出预览视图的宽高，就会录制失败!
+            //PS:此处需要注意~~~profile中的videoFrameWidth和videoFrameHeight如果超出预览视图的宽高，就会录制失败!
+            int targetWidth = mSurfaceView.getHeight();
+            int targetHeight = mSurfaceView.getWidth();
+            int[] bestSize = getBestSize(CameraCapabilityIndex.SIZE_PREVIEW, targetWidth, targetHeight);
+            if (bestSize != null) {
+                //码率随尺寸调整，避免小尺寸沿用QUALITY_HIGH的码率
+                RecordProfileSelector.resize(profile, bestSize[0], bestSize[1]);
+            }
+        }
+        mRecordProfile = profile;
+        log("录像配置 " + profile.videoFrameWidth + "x" + profile.videoFrameHeight + "@" + profile.videoFrameRate
+                + " bitRate = " + profile.videoBitRate + " storage = " + writeMBps + "MB/s");
+        return profile;
+    }
+
+    /**
+     * @return 保存目录的写入速度测试，首次调用时读取缓存结果
+     */
+    private StorageBenchmark getStorageBenchmark() {
+        if (mStorageBenchmark == null) {
+            mStorageBenchmark = new StorageBenchmark(mAppContext, directoryPath);
+        }
+        return mStorageBenchmark;
+    }
+
+    /**
+     * @return 最近一次录像使用的配置（分辨率、码率、帧率），尚未录像或准备时为null
+     */
+    public CamcorderProfile getRecordProfile() {
+        return mRecordProfile;
+    }
+
+    /**
+     * 保存目录下的照片与录像索引，见{@link Builder#setCaptureQuota(long, int)}
+     *
+     * @return 存储管理
+     */
+    public CaptureStore getCaptureStore() {
+        return mCaptureStore;
+    }
+
+    /**
+     * @return 保存目录的顺序写入速度（MB/s），尚未测得时为-1
+     */
+    public float getStorageWriteMBps() {
+        StorageBenchmark benchmark = mStorageBenchmark;
+        return benchmark == null ? -1 : benchmark.getWriteMBps();
+    }
+
+    /**
+     * 配置并prepare录制器，成功后相机处于解锁状态，在相机线程执行
+     *
+     * 录像用的帧率范围与对焦模式在{@link #applyRecordingParameters()}中开始录制前才切换
+     *
+     * @param recorder 新建或reset()过的录制器
+     * @param segments 分段配置，为空表示不分段；与当前配置相同表示继续录制下一段
+     * @param arming   是否为录制准备，此时写入临时文件
+     * @return 录像文件路径，失败返回null，此时录制器已回收、相机已重新锁定
+     */
+    private String configureRecorder(MediaRecorder recorder, SegmentConfig segments, boolean arming) {
+        boolean nextSegment = segments != null && segments == mSegmentConfig;
+        CameraCapabilityIndex.Capability capability = getCapabilityIndex().get(mCameraId);
+        CamcorderProfile profile = selectRecordProfile(capability);
+        String path = null;
+        try {
+            //Step 1 :Unlock and set camera to MediaRecorder
+            mCamera.unlock();//必须解锁
+            recorder.setCamera(mCamera);
+
+            //Step 2 :Set sources
+            recorder.setAudioSource(MediaRecorder.AudioSource.CAMCORDER);
+            recorder.setVideoSource(MediaRecorder.VideoSource.CAMERA);
+
+            //Step 3 :Set a CamcorderProfile(requires API Level 8 or higher)
+            recorder.setProfile(profile);//此质量直接影响录制文件的总大小
+            recorder.setOrientationHint(mFaceType == Camera.CameraInfo.CAMERA_FACING_FRONT ? 180 : 0);//反录制镜像！！！
+
+            //Step 4 :Set output file
+            String suffix = "";
+            switch (profile.fileFormat) {
+                case MediaRecorder.OutputFormat.THREE_GPP:
+                    suffix = ".3gp";
+                    break;
+                case MediaRecorder.OutputFormat.MPEG_4:
+                    suffix = ".mp4";
+                    break;
+            }
+            if (!nextSegment) {
+                mSegmentConfig = segments;
+                mSegmentIndex = 0;
+                mSegmentRing.clear();
+                mRecordFileBase = mCaptureStore.newPath("");
+                if (mRecordFileBase == null) {
+                    throw new IOException("directory unavailable: " + directoryPath);
+                }
+                mRecordFileSuffix = suffix;
+            }
+            if (segments != null) {
+                path = createSegmentPath();
+            } else {
+                path = mRecordFileBase + suffix + (arming ? CaptureWriter.TEMP_SUFFIX : "");
+            }
+            recorder.setOutputFile(path);
+            if (segments != null) {
+                if (segments.durationMs > 0) {
+                    recorder.setMaxDuration(segments.durationMs);
+                }
+                if (segments.sizeBytes > 0) {
+                    recorder.setMaxFileSize(segments.sizeBytes);
+                }
+                recorder.setOnInfoListener(mSegmentInfoListener);
+            }
+
+            //Step 5 :Set the preview output
+            recorder.setPreviewDisplay(mSurfaceHolder.getSurface());
+
+            //Step 6 :Prepare configured MediaRecorder
+            recorder.prepare();
+            return path;
+        } catch (Exception e) {
+            e.printStackTrace();
+            recycleRecorder(recorder);
+            if (path != null) {
+                deleteFile(path);
+            }
+            relockCamera();
+            return null;
+        }
+    }
+
+    /**
+     * 停止录制
+     */
+    public void stopRecorder() {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                long startNanos = System.nanoTime();
+                boolean recording = mMediaRecorder != null;
+                releaseRecorder();
+                if (recording) {
+                    mMetrics.recordSince(CameraMetrics.EVENT_RECORDER_STOP, startNanos);
+                    if (mSegmentConfig != null) {
+                        onSegmentComplete(mRecordFilePath);
+                    } else {
+                        mCaptureStore.add(mRecordFilePath, CaptureStore.TYPE_VIDEO);
+                    }
+                }
+                mSegmentConfig = null;
+                final String recordFilePath = mRecordFilePath;
+                runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mCameraOptCallback != null) {
+                            mCameraOptCallback.onVideoRecordComplete(recordFilePath);
+                        }
+                    }
+                });
+                //为下一段录像重新准备
+                scheduleArmRecorder(0);
+            }
+        });
+    }
+
+    /**
+     * 开启运动触发录像：分析预览帧，画面出现运动时开始录制，安静超过指定时长后停止，
+     * 每段录像结束都会回调{@link CameraOptCallback#onVideoRecordComplete(String)}
+     *
+     * @param detector      运动检测，可预先设置灵敏度与检测区域
+     * @param quietPeriodMs 最后一次运动之后多久停止录像（毫秒）
+     * @return 是否开启
+     */
+    public boolean startMotionRecording(MotionDetector detector, long quietPeriodMs) {
+        if (detector == null) {
+            return false;
+        }
+        //录像可能在任意时刻自动开始，权限需要提前申请
+        if (!CameraUtil.requestWriteStoragePermissionIfNeed(mActivityWeak.get())) {
+            return false;
+        }
+        if (!CameraUtil.requestRecordAudioPermissionIfNeed(mActivityWeak.get())) {
+            return false;
+        }
+        stopMotionRecording();
+        detector.reset();
+        MotionRecordingProcessor processor = new MotionRecordingProcessor(detector, quietPeriodMs);
+        mMotionRecording = processor;
+        //只分析最新的一帧，检测跟不上时丢掉旧帧
+        addFrameProcessor(processor, FrameConsumer.DropPolicy.DROP_OLDEST, 1);
+        return true;
+    }
+
+    /**
+     * 关闭运动触发录像，正在录制的运动录像随之停止
+     */
+    public void stopMotionRecording() {
+        MotionRecordingProcessor processor = mMotionRecording;
+        if (processor == null) {
+            return;
+        }
+        mMotionRecording = null;
+        removeFrameProcessor(processor);
+        getCameraHandler().removeCallbacks(processor.mQuietCheckRunnable);
+        if (processor.mGate.isActive()) {
+            processor.mGate.reset();
+            stopRecorder();
+        }
+    }
+
+    /**
+     * @return 是否处于运动触发录像模式
+     */
+    public boolean isMotionRecording() {
+        return mMotionRecording != null;
+    }
+
+    /**
+     * 运动触发录像，在自己的分析线程检测，开始/停止录像切换到相机线程
+     */
+    private final class MotionRecordingProcessor implements FrameProcessor {
+        private static final int TRIGGER_FRAMES = 3;//连续3帧有运动才开始
+
+        private final MotionDetector mDetector;
+        private final MotionGate mGate;
+        private final long mQuietPeriodMs;
+        private volatile boolean isStartPending = false;
+        private final Runnable mStartRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (mMotionRecording != MotionRecordingProcessor.this || isRecording || !prepareAndStartRecorder(null)) {
+                    //已关闭、已经在手动录像或开启失败，下次运动再尝试
+                    mGate.reset();
+                } else {
+                    scheduleQuietCheck(mQuietPeriodMs);
+                }
+                isStartPending = false;
+            }
+        };
+        //录像时预览帧可能停止回调，在相机线程定时检查安静时长，不依赖帧到达
+        private final Runnable mQuietCheckRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (mMotionRecording != MotionRecordingProcessor.this || !mGate.isActive()) {
+                    return;
+                }
+                long nowMs = System.nanoTime() / 1000000;
+                if (mGate.onTick(nowMs) == MotionGate.ACTION_STOP) {
+                    log("no motion in quiet period, stop recording");
+                    stopRecorder();
+                    return;
+                }
+                scheduleQuietCheck(mGate.getStopDeadlineMs() - nowMs);
+            }
+        };
+
+        private MotionRecordingProcessor(MotionDetector detector, long quietPeriodMs) {
+            mDetector = detector;
+            mQuietPeriodMs = Math.max(0, quietPeriodMs);
+            mGate = new MotionGate(TRIGGER_FRAMES, quietPeriodMs);
+        }
+
+        private void scheduleQuietCheck(long delayMs) {
+            Handler handler = getCameraHandler();
+            handler.removeCallbacks(mQuietCheckRunnable);
+            handler.postDelayed(mQuietCheckRunnable, Math.max(0, delayMs));
+        }
+
+        @Override
+        public void onFrame(PreviewFrame frame) {
+            if (mMotionRecording != this) {
+                return;
+            }
+            if (mGate.isActive() && !isStartPending && !isRecording) {
+                //录像被外部停止（如退到后台），重新等待运动
+                mGate.reset();
+            }
+            boolean motion = mDetector.analyze(frame.getData(), frame.getWidth(), frame.getHeight());
+            switch (mGate.onFrame(motion, frame.getTimestampNanos() / 1000000)) {
+                case MotionGate.ACTION_START:
+                    log("motion detected, start recording");
+                    isStartPending = true;
+                    getCameraHandler().post(mStartRunnable);
+                    break;
+                case MotionGate.ACTION_STOP:
+                    log("motion stopped, stop recording");
+                    stopRecorder();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 释放录制器
+     */
+    private void releaseRecorder() {
+        if (mMediaRecorder == null) {
+            return;
+        }
+        if (mCamera == null) {
+            return;
+        }
+        if (mSurfaceHolder == null) {
+            return;
+        }
+        try {
+            mMediaRecorder.stop();
+        } catch (Exception ex) {
+            //录制器到达分段上限后已自行停止，或还没有录到数据
+            ex.printStackTrace();
+        } finally {
+            recycleRecorder(mMediaRecorder);
+            mMediaRecorder = null;
+            isRecording = false;
+            discardNextSegment();
+            renameReadyRecordFile();
+            relockCamera();
+        }
+    }
+
+    /**
+     * 从准备状态开始的录像写在准备时的临时文件中，停止后按开始录制的时间重命名
+     */
+    private void renameReadyRecordFile() {
+        String target = mRecordTargetPath;
+        mRecordTargetPath = null;
+        if (target == null || mRecordFilePath == null) {
+            return;
+        }
+        if (new File(mRecordFilePath).renameTo(new File(target))) {
+            mRecordFilePath = target;
+        } else {
+            log("rename record file failed: " + mRecordFilePath);
+        }
+    }
+
+    /**
+     * 开始录制前切换到适合录像的帧率范围与连续对焦，在相机线程执行
+     * 录制器prepare后相机处于解锁状态，临时取回相机修改参数；录制准备期间预览保持拍照的参数与对焦调度
+     */
+    private void applyRecordingParameters() {
+        CameraCapabilityIndex.Capability capability = getCapabilityIndex().get(mCameraId);
+        CamcorderProfile profile = mRecordProfile;
+        if (capability == null || profile == null) {
+            return;
+        }
+        boolean fpsRange = mFpsPolicy != null;
+        boolean videoFocus = isAutoFocus
+                && capability.focusModes.contains(Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO);
+        if (!fpsRange && !videoFocus) {
+            return;
+        }
+        try {
+            mCamera.lock();
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            return;
+        }
+        try {
+            if (fpsRange) {
+                //录像需要稳定的帧率
+                commitFpsRange(FpsRangeSelector.selectRecordingRange(capability.fpsRanges, profile.videoFrameRate));
+            }
+            if (videoFocus) {
+                //录像使用连续对焦，避免对焦扫描出现在视频里
+                stopAutoFocus();
+                commitParameters(null, null, Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO);
+            }
+        } finally {
+            mCamera.unlock();
+        }
+    }
+
+    /**
+     * 录制结束或放弃准备后重新锁定相机，恢复预览帧率范围与对焦模式
+     */
+    private void relockCamera() {
+        try {
+            mCamera.lock();
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+        commitFpsRange(selectPreviewFpsRange());
+        CameraCapabilityIndex.Capability capability = getCapabilityIndex().get(mCameraId);
+        if (isAutoFocus && capability != null) {
+            String focusMode = selectFocusMode(capability);
+            if (focusMode != null && !TextUtils.equals(focusMode, mFocusMode)) {
+                commitParameters(null, null, focusMode);
+                startAutoFocus();
+            }
+        }
+    }
+
+    /**
+     * @return 复用reset()过的录制器，没有时新建
+     */
+    private MediaRecorder obtainRecorder() {
+        MediaRecorder recorder = mIdleRecorder;
+        mIdleRecorder = null;
+        return recorder != null ? recorder : new MediaRecorder();
+    }
+
+    /**
+     * reset()后留待复用，已有空闲的录制器时释放
+     */
+    private void recycleRecorder(MediaRecorder recorder) {
+        try {
+            recorder.reset();
+            if (mIdleRecorder == null) {
+                mIdleRecorder = recorder;
+                return;
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+        recorder.release();
+    }
+
+    /**
+     * 预览期间提前配置并prepare录制器，进入录制准备状态，在相机线程执行
+     */
+    private void armRecorder() {
+        if (!isRecordReadyEnable || mReadyRecorder != null || mMediaRecorder != null
+                || mCamera == null || mSurfaceHolder == null) {
+            return;
+        }
+        //prepare需要录音与存储权限，这里不能弹出申请，没有权限时等到开始录制再申请
+        if (!CameraUtil.hasRecordPermission(mAppContext)) {
+            return;
+        }
+        if (getStorageBenchmark().isRunning() || isStillCapturePending || isFocusPending || mBurstSession != null
+                || mZoomController.isZooming()) {
+            //等写入速度测试、拍照、连拍、对焦或缩放完成，解锁相机会打断进行中的操作
+            scheduleArmRecorder(ARM_RECORDER_DELAY);
+            return;
+        }
+        MediaRecorder recorder = obtainRecorder();
+        String path = configureRecorder(recorder, null, true);
+        if (path == null) {
+            return;
+        }
+        mReadyRecorder = recorder;
+        mReadyFilePath = path;
+        isRecordReady = true;
+        mRecorderArmCount++;
+        if (mFocusScheduler.isEnabled()) {
+            //解锁状态下对焦会打断录制准备，准备期间不按画面变化对焦，手动对焦仍然有效
+            mFocusScheduler.setEnabled(false);
+            isFocusSchedulerSuspended = true;
+        }
+        log("录制器已准备 " + path);
+    }
+
+    /**
+     * 退出录制准备状态：录制器reset()留待复用，删除prepare时创建的空文件，重新锁定相机
+     */
+    private void disarmRecorder() {
+        if (mReadyRecorder == null) {
+            return;
+        }
+        recycleRecorder(mReadyRecorder);
+        mReadyRecorder = null;
+        isRecordReady = false;
+        deleteFile(mReadyFilePath);
+        mReadyFilePath = null;
+        if (mCamera != null) {
+            relockCamera();
+        }
+        if (isFocusSchedulerSuspended) {
+            isFocusSchedulerSuspended = false;
+            if (mCamera != null && !mFocusScheduler.isEnabled()) {
+                mFocusScheduler.setEnabled(true);
+                Handler handler = getCameraHandler();
+                handler.removeCallbacks(mFocusSampleRunnable);
+                handler.postDelayed(mFocusSampleRunnable, FOCUS_SAMPLE_INTERVAL);
             }
         }
     }
 
     /**
-     * 开启闪光灯模式
+     * 录制准备状态下相机处于解锁状态，不能修改参数、对焦或拍照，先退出准备状态，
+     * 相机空闲{@link #ARM_RECORDER_IDLE_DELAY}后再重新准备，连续的操作会不断推迟准备，避免反复prepare拖慢预览
      */
-    public boolean flashOn() {
-        if (mCamera != null) {
-            Camera.Parameters parameters = mCamera.getParameters();
-            if (isSupportFlashMode(Camera.Parameters.FLASH_MODE_ON)) {
-                parameters.setFlashMode(Camera.Parameters.FLASH_MODE_ON);
-                try {
-                    mCamera.setParameters(parameters);
-                } catch (Exception ex) {
-                    ex.printStackTrace();
-                    return false;
-                }
-                return true;
-            }
+    private void ensureCameraLocked() {
+        if (mReadyRecorder != null) {
+            disarmRecorder();
+            mRecorderDisarmCount++;
+            scheduleArmRecorder(ARM_RECORDER_IDLE_DELAY);
+        } else if (isArmRecorderScheduled) {
+            scheduleArmRecorder(ARM_RECORDER_IDLE_DELAY);
         }
-        return false;
+    }
+
+    private void scheduleArmRecorder(long delayMs) {
+        if (!isRecordReadyEnable) {
+            return;
+        }
+        Handler handler = getCameraHandler();
+        handler.removeCallbacks(mArmRecorderRunnable);
+        handler.postDelayed(mArmRecorderRunnable, delayMs);
+        isArmRecorderScheduled = true;
+    }
+
+    private void cancelArmRecorder() {
+        getCameraHandler().removeCallbacks(mArmRecorderRunnable);
+        isArmRecorderScheduled = false;
     }
 
     /**
-     * 关闭闪光灯模式
+     * @return 是否处于录制准备状态，此时{@link #startRecorder()}只需要start()
      */
-    public void flashOff() {
-        if (mCamera != null) {
-            Camera.Parameters parameters = mCamera.getParameters();
-            parameters.setFlashMode(Camera.Parameters.FLASH_MODE_OFF);
-            try {
-                mCamera.setParameters(parameters);
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
-        }
+    public boolean isRecordReady() {
+        return isRecordReady;
     }
 
     /**
-     * @return 闪光灯是否已开启
+     * @return 进入录制准备状态的次数
      */
-    public boolean isFlashOn() {
-        if (mCamera != null) {
-            String flashMode = mCamera.getParameters().getFlashMode();
-            return TextUtils.equals(flashMode, Camera.Parameters.FLASH_MODE_ON);
-        }
-        return false;
+    public long getRecorderArmCount() {
+        return mRecorderArmCount;
     }
 
     /**
-     * @return 当前是否正在录制
+     * 对焦、修改参数、拍照等需要锁定相机的操作会退出录制准备状态，次数接近{@link #getRecorderArmCount()}说明准备状态难以保持
+     *
+     * @return 因使用相机而退出录制准备状态的次数
      */
-    public boolean isRecording() {
-        return isRecording;
+    public long getRecorderDisarmCount() {
+        return mRecorderDisarmCount;
     }
 
     /**
-     * @return 开启屏幕录制
+     * 分段配置
      */
-    public boolean startRecorder() {
-        if (mCamera == null) {
-            return false;
-        }
-        if (mSurfaceHolder == null) {
-            return false;
-        }
-        if (!CameraUtil.requestWriteStoragePermissionIfNeed(mActivityWeak.get())) {
-            return false;
-        }
-        if (!CameraUtil.requestRecordAudioPermissionIfNeed(mActivityWeak.get())) {
-            return false;
-        }
-        //Step 1 :Unlock and set camera to MediaRecorder
-        mMediaRecorder = new MediaRecorder();
-        mCamera.unlock();//必须解锁
-        mMediaRecorder.setCamera(mCamera);
-
-        //Step 2 :Set sources
-        mMediaRecorder.setAudioSource(MediaRecorder.AudioSource.CAMCORDER);
-        mMediaRecorder.setVideoSource(MediaRecorder.VideoSource.CAMERA);
-
-        //Step 3 :Set a CamcorderProfile(requires API Level 8 or higher)
-        //PS:此处需要注意~~~profile中的videoFrameWidth和videoFrameHeight如果超出预览视图的宽高，就会录制失败!
-        //PS:此处需要注意~~~profile中的videoFrameWidth和videoFrameHeight如果超出预览视图的宽高，就会录制失败!
-        //PS:此处需要注意~~~profile中的videoFrameWidth和videoFrameHeight如果超出预览视图的宽高，就会录制失败!
-        CamcorderProfile profile = CamcorderProfile.get(CamcorderProfile.QUALITY_HIGH);
-        int targetWidth = mSurfaceView.getHeight();
-        int targetHeight = mSurfaceView.getWidth();
-        Camera.Size bestSize = getBestSize(targetWidth, targetHeight, mParameters.getSupportedPreviewSizes());
-        profile.videoFrameWidth = bestSize.width;
-        profile.videoFrameHeight = bestSize.height;
-        mMediaRecorder.setProfile(profile);//此质量直接影响录制文件的总大小
-        mMediaRecorder.setOrientationHint(mFaceType == Camera.CameraInfo.CAMERA_FACING_FRONT ? 180 : 0);//反录制镜像！！！
-
-        //Step 4 :Set output file
-        String suffix = "";
-        switch (profile.fileFormat) {
-            case MediaRecorder.OutputFormat.THREE_GPP:
-                suffix = ".3gp";
-                break;
-            case MediaRecorder.OutputFormat.MPEG_4:
-                suffix = ".mp4";
-                break;
+    private static final class SegmentConfig {
+        final int durationMs;
+        final long sizeBytes;
+        final int retainCount;
+
+        SegmentConfig(int durationMs, long sizeBytes, int retainCount) {
+            this.durationMs = durationMs;
+            this.sizeBytes = sizeBytes;
+            this.retainCount = retainCount;
         }
-        mRecordFilePath = directoryPath + "/" + CameraUtil.getDateFormatStr() + suffix;
-        mMediaRecorder.setOutputFile(mRecordFilePath);
+    }
 
-        //Step 5 :Set the preview output
-        mMediaRecorder.setPreviewDisplay(mSurfaceHolder.getSurface());
+    private String createSegmentPath() {
+        return String.format(Locale.US, "%s_%03d%s", mRecordFileBase, mSegmentIndex++, mRecordFileSuffix);
+    }
 
-        //Step 6 :Prepare configured MediaRecorder
+    /**
+     * 提前把下一段文件交给录制器，达到文件大小上限时由录制器无缝切换（Android 8.0及以上）
+     * 时长上限不支持切换，只按时长分段时不排队
+     */
+    private void queueNextSegment() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O || mMediaRecorder == null
+                || mSegmentConfig == null || mSegmentConfig.sizeBytes <= 0) {
+            return;
+        }
+        String path = createSegmentPath();
         try {
-            mMediaRecorder.prepare();
-            mMediaRecorder.start();
-            isRecording = true;
-        } catch (Exception e) {
-            e.printStackTrace();
-            releaseRecorder();
-            return false;
+            setNextOutputFile(mMediaRecorder, path);
+            mNextSegmentPath = path;
+        } catch (Exception ex) {
+            //切换文件失败时退回到更换录制器
+            ex.printStackTrace();
+            mNextSegmentPath = null;
+            deleteFile(path);
         }
-        return true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.O)
+    private static void setNextOutputFile(MediaRecorder mediaRecorder, String path) throws IOException {
+        mediaRecorder.setNextOutputFile(new File(path));
     }
 
     /**
-     * 停止录制
+     * 录制器到达上限后已停止，结束当前段并用新的录制器录制下一段
      */
-    public void stopRecorder() {
+    private void handOffSegment() {
+        SegmentConfig segments = mSegmentConfig;
+        String finished = mRecordFilePath;
         releaseRecorder();
-        if (mCameraOptCallback != null) {
-            mCameraOptCallback.onVideoRecordComplete(mRecordFilePath);
+        onSegmentComplete(finished);
+        if (!prepareAndStartRecorder(segments)) {
+            mSegmentConfig = null;
+            final String recordFilePath = finished;
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCameraOptCallback != null) {
+                        mCameraOptCallback.onVideoRecordComplete(recordFilePath);
+                    }
+                }
+            });
         }
     }
 
     /**
-     * 释放录制器
+     * 已交给录制器但没有用到的下一段文件，停止录制时删除
      */
-    private void releaseRecorder() {
-        if (mMediaRecorder == null) {
-            return;
+    private void discardNextSegment() {
+        if (mNextSegmentPath != null) {
+            deleteFile(mNextSegmentPath);
+            mNextSegmentPath = null;
         }
-        if (mCamera == null) {
+    }
+
+    /**
+     * 一段录像完成，放入保留队列并回调，超出保留数量时删除最旧的一段
+     *
+     * @param path 分段文件路径
+     */
+    private void onSegmentComplete(final String path) {
+        SegmentConfig segments = mSegmentConfig;
+        if (path == null || segments == null) {
             return;
         }
-        if (mSurfaceHolder == null) {
-            return;
+        mCaptureStore.add(path, CaptureStore.TYPE_VIDEO);
+        mSegmentRing.addLast(path);
+        while (segments.retainCount > 0 && mSegmentRing.size() > segments.retainCount) {
+            mCaptureStore.remove(mSegmentRing.removeFirst());
         }
-        try {
-            mMediaRecorder.stop();
-            mMediaRecorder.reset();
-            mMediaRecorder.release();
-        } catch (Exception ex) {
-            ex.printStackTrace();
-        } finally {
-            mMediaRecorder = null;
-            isRecording = false;
-            mCamera.lock();
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mCameraOptCallback != null) {
+                    mCameraOptCallback.onVideoSegmentComplete(path);
+                }
+            }
+        });
+    }
+
+    private void deleteFile(String path) {
+        File file = new File(path);
+        if (file.exists() && !file.delete()) {
+            log("delete file failed: " + path);
         }
     }
 
@@ -450,12 +2178,26 @@ public final class CameraHelper {
      * @return 是否开启成功
      */
     private boolean openCamera(int faceType) {
-        boolean isSupport = supportCameraFacing(faceType);
-        if (isSupport) {
+        if (mFirstFrameRequestNanos == 0) {
+            mFirstFrameRequestNanos = System.nanoTime();
+        }
+        int cameraId = getCapabilityIndex().findCameraId(faceType);
+        if (cameraId >= 0) {
+            long startNanos = System.nanoTime();
             try {
-                mCamera = Camera.open(faceType);
+                mCameraId = cameraId;
+                mCamera = Camera.open(cameraId);
                 initParameters(mCamera);
-                mCamera.setPreviewCallback(mPreviewCallback);
+                if (mParameters != null) {
+                    mZoomController.attach(mCamera, mParameters);
+                }
+                setupPreviewCallback(mCamera);
+                //预先计算另一个摄像头的配置，切换时不再重复协商
+                int otherFace = faceType == Camera.CameraInfo.CAMERA_FACING_BACK
+                        ? Camera.CameraInfo.CAMERA_FACING_FRONT : Camera.CameraInfo.CAMERA_FACING_BACK;
+                mNextConfig = createConfig(getCapabilityIndex().findCameraId(otherFace));
+                mMetrics.resetFrameCadence();
+                mMetrics.recordSince(CameraMetrics.EVENT_OPEN, startNanos);
                 return true;
             } catch (Exception ex) {
                 ex.printStackTrace();
@@ -465,20 +2207,90 @@ public final class CameraHelper {
     }
 
     /**
-     * 判断是否支持某个相机
+     * 注册预览回调，开启缓冲池时使用{@link Camera#setPreviewCallbackWithBuffer(Camera.PreviewCallback)}
      *
-     * @param faceType 需要支持的相机类型
-     * @return true表示支持
+     * @param camera 当前相机
      */
-    private boolean supportCameraFacing(int faceType) {
-        Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
-        for (int i = 0; i < Camera.getNumberOfCameras(); i++) {
-            Camera.getCameraInfo(i, cameraInfo);
-            if (cameraInfo.facing == faceType) {
-                return true;
+    private void setupPreviewCallback(Camera camera) {
+        Camera.Parameters parameters = mParameters != null ? mParameters : camera.getParameters();
+        Camera.Size previewSize = parameters.getPreviewSize();
+        int previewFormat = parameters.getPreviewFormat();
+        mPreviewWidth = previewSize.width;
+        mPreviewHeight = previewSize.height;
+        mPreviewFormat = previewFormat;
+        mFrameDispatcher.reset(mPreviewBufferPool != null);
+        setupZslBuffer(previewSize.width, previewSize.height, previewFormat);
+        if (mPreviewBufferPool == null) {
+            boolean needCallback = mPreviewCallback != null || mZslBuffer != null || mFrameDispatcher.hasConsumers();
+            camera.setPreviewCallback(needCallback ? mInternalPreviewCallback : null);
+            isInternalCallbackInstalled = needCallback;
+            if (!needCallback) {
+                camera.setPreviewCallbackWithBuffer(mFirstFrameCallback);
+                isFocusSampleQueued = false;
+                requestSampleFrame(camera);
             }
+            return;
         }
-        return false;
+        mPreviewBufferPool.attach(camera, previewSize.width, previewSize.height, previewFormat);
+        camera.setPreviewCallbackWithBuffer(mInternalPreviewCallback);
+        isInternalCallbackInstalled = true;
+        log("预览缓冲池   bufferSize = " + mPreviewBufferPool.getBufferSize());
+    }
+
+    /**
+     * 没有注册预览回调时取一帧：把复用的采样缓冲区交给相机，相机写满后不再回调，
+     * 不使用setOneShotPreviewCallback，避免每次采样都由相机分配一整帧的数组
+     *
+     * @param camera 当前相机
+     */
+    private void requestSampleFrame(Camera camera) {
+        if (isFocusSampleQueued) {
+            return;
+        }
+        int bufferSize = PreviewBufferPool.computeBufferSize(mPreviewWidth, mPreviewHeight, mPreviewFormat);
+        if (mFocusSampleBuffer == null || mFocusSampleBuffer.length != bufferSize) {
+            mFocusSampleBuffer = new byte[bufferSize];
+        }
+        camera.addCallbackBuffer(mFocusSampleBuffer);
+        isFocusSampleQueued = true;
+    }
+
+    /**
+     * 按预览尺寸创建零延时拍照的环形缓冲区，尺寸不变时复用
+     */
+    private void setupZslBuffer(int width, int height, int format) {
+        if (mZslFrameCount <= 0) {
+            return;
+        }
+        if (format != ImageFormat.NV21) {
+            log("零延时拍照仅支持NV21预览格式 format = " + format);
+            mZslBuffer = null;
+            return;
+        }
+        ZslRingBuffer zslBuffer = mZslBuffer;
+        if (zslBuffer != null && zslBuffer.getWidth() == width && zslBuffer.getHeight() == height) {
+            zslBuffer.clear();
+            return;
+        }
+        int frameSize = PreviewBufferPool.computeBufferSize(width, height, format);
+        int capacity = ZslRingBuffer.computeCapacity(mZslFrameCount, mZslMemoryBudget, frameSize);
+        if (capacity <= 0) {
+            log("零延时拍照内存预算不足一帧，不开启 budget = " + mZslMemoryBudget + " frameSize = " + frameSize);
+            mZslBuffer = null;
+            return;
+        }
+        mZslBuffer = new ZslRingBuffer(capacity, width, height, frameSize);
+        log("零延时拍照缓冲区   capacity = " + capacity + " frameSize = " + frameSize);
+    }
+
+    /**
+     * @return 相机能力索引，首次调用时从本地文件加载
+     */
+    private CameraCapabilityIndex getCapabilityIndex() {
+        if (mCapabilityIndex == null) {
+            mCapabilityIndex = CameraCapabilityIndex.load(mAppContext);
+        }
+        return mCapabilityIndex;
     }
 
     /**
@@ -487,81 +2299,174 @@ public final class CameraHelper {
     private void initParameters(Camera camera) {
         try {
             mParameters = camera.getParameters();
-
-            //获取与指定狂傲相等或最接近的尺寸
-            //设置预览尺寸
-            int targetWidth = mSurfaceView.getHeight();
-            int targetHeight = mSurfaceView.getWidth();
-            Camera.Size bestSize = getBestSize(targetWidth, targetHeight, mParameters.getSupportedPreviewSizes());
-            if (bestSize != null) {
-                mParameters.setPreviewSize(bestSize.width, bestSize.height);
+            //首次开启或系统升级后采集一次能力，之后的查询都走索引
+            getCapabilityIndex().update(mCameraId, mParameters);
+
+            //切换摄像头时优先使用预先计算好的配置
+            CameraConfig config = mNextConfig;
+            int[] targetSize = getPreviewTargetSize();
+            if (config == null || !config.matches(mCameraId, targetSize[0], targetSize[1], mFlashMode)) {
+                config = createConfig(mCameraId);
             }
-            //设置保存图片
-            targetWidth = displayWidth;
-            targetHeight = displayHeight;
-            Camera.Size bestPictureSize = getBestSize(targetWidth, targetHeight, mParameters.getSupportedPictureSizes());
-            mParameters.setPictureSize(bestPictureSize.width, bestPictureSize.height);
-            //对焦模式
-            if (isSupportFocus(Camera.Parameters.FOCUS_MODE_AUTO)) {
-                mParameters.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
+            mNextConfig = null;
+            if (config != null) {
+                //设置预览尺寸
+                if (config.previewSize != null) {
+                    mParameters.setPreviewSize(config.previewSize[0], config.previewSize[1]);
+                }
+                //设置保存图片
+                if (config.pictureSize != null) {
+                    mParameters.setPictureSize(config.pictureSize[0], config.pictureSize[1]);
+                }
+                //对焦模式
+                if (config.focusMode != null) {
+                    mParameters.setFocusMode(config.focusMode);
+                }
+                //闪光灯模式
+                if (config.flashSupported) {
+                    mParameters.setFlashMode(mFlashMode);
+                }
             }
-            //闪光灯模式
-            if (isSupportFlashMode(mFlashMode)) {
-                mParameters.setFlashMode(mFlashMode);
+            //帧率范围
+            int[] fpsRange = selectPreviewFpsRange();
+            if (fpsRange != null) {
+                mParameters.setPreviewFpsRange(fpsRange[0], fpsRange[1]);
+                log("预览帧率范围 = [" + fpsRange[0] + ", " + fpsRange[1] + "]");
             }
 
             camera.setParameters(mParameters);
         } catch (Exception ex) {
             ex.printStackTrace();
             toast("相机初始化失败！！！Exception = " + ex.toString());
+            //以相机中的参数为准
+            mParameters = camera.getParameters();
+        } finally {
+            syncParameterCache();
+        }
+    }
+
+    /**
+     * 选择拍照预览的对焦模式：开启自动对焦时优先连续对焦，否则使用FOCUS_MODE_AUTO由调度器触发
+     *
+     * @param capability 相机能力
+     * @return 对焦模式，都不支持时返回null
+     */
+    private String selectFocusMode(CameraCapabilityIndex.Capability capability) {
+        if (isAutoFocus && capability.focusModes.contains(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)) {
+            return Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE;
+        }
+        if (capability.focusModes.contains(Camera.Parameters.FOCUS_MODE_AUTO)) {
+            return Camera.Parameters.FOCUS_MODE_AUTO;
         }
+        return null;
+    }
+
+    /**
+     * @return 当前是否为连续对焦模式
+     */
+    private boolean isContinuousFocus() {
+        return TextUtils.equals(mFocusMode, Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)
+                || TextUtils.equals(mFocusMode, Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO);
     }
 
-    private void toast(String msg) {
-        if (mActivityWeak != null && mActivityWeak.get() != null) {
-            Toast.makeText(mActivityWeak.get(), msg, Toast.LENGTH_LONG).show();
+    /**
+     * 预览尺寸的目标大小，宽高以相机方向（横向）计
+     */
+    private int[] getPreviewTargetSize() {
+        int targetWidth = mSurfaceView != null ? mSurfaceView.getHeight() : 0;
+        int targetHeight = mSurfaceView != null ? mSurfaceView.getWidth() : 0;
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            //预热开启时界面可能还没有测量，按屏幕尺寸选择
+            targetWidth = displayWidth;
+            targetHeight = displayHeight;
         }
+        return new int[]{targetWidth, targetHeight};
     }
 
     /**
-     * 获取最佳尺寸
+     * 根据能力索引计算某个摄像头的配置
      *
-     * @param targetWidth  目标宽
-     * @param targetHeight 目标高
-     * @param sizeList     相机自身提供的尺寸集合
-     * @return 最佳展示尺寸
+     * @param cameraId 相机id
+     * @return 该摄像头尚未采集能力时返回null
+     */
+    private CameraConfig createConfig(int cameraId) {
+        CameraCapabilityIndex.Capability capability = getCapabilityIndex().get(cameraId);
+        if (capability == null || !capability.hasParameters) {
+            return null;
+        }
+        int[] targetSize = getPreviewTargetSize();
+        CameraConfig config = new CameraConfig(cameraId, targetSize[0], targetSize[1], mFlashMode);
+        //获取与指定宽高相等或最接近的尺寸
+        config.previewSize = getCapabilityIndex().getBestSize(cameraId,
+                CameraCapabilityIndex.SIZE_PREVIEW, targetSize[0], targetSize[1]);
+        config.pictureSize = getCapabilityIndex().getBestSize(cameraId,
+                CameraCapabilityIndex.SIZE_PICTURE, displayWidth, displayHeight);
+        config.focusMode = selectFocusMode(capability);
+        config.flashSupported = capability.flashModes.contains(mFlashMode);
+        if (config.previewSize != null) {
+            log("摄像头配置 cameraId = " + cameraId
+                    + " preview = " + config.previewSize[0] + "x" + config.previewSize[1]
+                    + (config.pictureSize != null ? " picture = " + config.pictureSize[0] + "x" + config.pictureSize[1] : ""));
+        }
+        return config;
+    }
+
+    /**
+     * 开启某个摄像头所需的配置，由能力索引预先计算
      */
-    private Camera.Size getBestSize(int targetWidth, int targetHeight, List<Camera.Size> sizeList) {
-        Camera.Size bestSize = null;
-        //目标大小的宽高比
-        float targetRatio = targetWidth * 1.0f / targetHeight;
-        float minDiff = targetRatio;
+    private static final class CameraConfig {
+        final int cameraId;
+        final int targetWidth;
+        final int targetHeight;
+        final String flashMode;
+        int[] previewSize;
+        int[] pictureSize;
+        String focusMode;
+        boolean flashSupported;
+
+        CameraConfig(int cameraId, int targetWidth, int targetHeight, String flashMode) {
+            this.cameraId = cameraId;
+            this.targetWidth = targetWidth;
+            this.targetHeight = targetHeight;
+            this.flashMode = flashMode;
+        }
 
-        for (Camera.Size size : sizeList) {
-            float supportRatio = size.width * 1.0f / size.height;
-            log("系统支持的尺寸  = " + supportRatio);
+        boolean matches(int cameraId, int targetWidth, int targetHeight, String flashMode) {
+            return this.cameraId == cameraId
+                    && this.targetWidth == targetWidth
+                    && this.targetHeight == targetHeight
+                    && TextUtils.equals(this.flashMode, flashMode);
         }
+    }
 
-        for (Camera.Size size : sizeList) {
-            if (size.width == targetWidth && size.height == targetHeight) {
-                bestSize = size;
-                break;
-            }
-            float supportRatio = size.width * 1.0f / size.height;
-            float tempDiff = Math.abs(supportRatio - targetRatio);
-            if (tempDiff < minDiff) {
-                minDiff = tempDiff;
-                bestSize = size;
+    private void toast(final String msg) {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mActivityWeak != null && mActivityWeak.get() != null) {
+                    Toast.makeText(mActivityWeak.get(), msg, Toast.LENGTH_LONG).show();
+                }
             }
-        }
+        });
+    }
 
+    /**
+     * 获取最佳尺寸，结果由能力索引按目标尺寸缓存
+     *
+     * @param kind         {@link CameraCapabilityIndex#SIZE_PREVIEW}或{@link CameraCapabilityIndex#SIZE_PICTURE}
+     * @param targetWidth  目标宽
+     * @param targetHeight 目标高
+     * @return 最佳展示尺寸{宽, 高}
+     */
+    private int[] getBestSize(int kind, int targetWidth, int targetHeight) {
+        int[] bestSize = getCapabilityIndex().getBestSize(mCameraId, kind, targetWidth, targetHeight);
         if (bestSize != null) {
             log("目标尺寸   targetWidth = " + targetWidth
                     + "  targetHeight = " + targetHeight
-                    + " ---> targetRatio = " + targetRatio);
-            log("最优尺寸   bestSize.width =  " + bestSize.width
-                    + " bestSize.height = " + bestSize.height
-                    + " ---> supportRatio = " + bestSize.width * 1.0f / bestSize.height);
+                    + " ---> targetRatio = " + targetWidth * 1.0f / targetHeight);
+            log("最优尺寸   bestSize.width =  " + bestSize[0]
+                    + " bestSize.height = " + bestSize[1]
+                    + " ---> supportRatio = " + bestSize[0] * 1.0f / bestSize[1]);
         }
         return bestSize;
     }
@@ -571,13 +2476,8 @@ public final class CameraHelper {
      * @return 是否支持
      */
     private boolean isSupportFocus(String focusMode) {
-        List<String> supportedFocusModes = mParameters.getSupportedFocusModes();
-        for (String supportedFocusMode : supportedFocusModes) {
-            if (TextUtils.equals(focusMode, supportedFocusMode)) {
-                return true;
-            }
-        }
-        return false;
+        CameraCapabilityIndex.Capability capability = getCapabilityIndex().get(mCameraId);
+        return capability != null && capability.focusModes.contains(focusMode);
     }
 
     /**
@@ -585,25 +2485,22 @@ public final class CameraHelper {
      * @return 是否支持
      */
     private boolean isSupportFlashMode(String flashMode) {
-        List<String> supportedFlashModes = mParameters.getSupportedFlashModes();
-        if (supportedFlashModes == null) {
-            return false;
-        }
-        for (String supportedFlashMode : supportedFlashModes) {
-            if (TextUtils.equals(flashMode, supportedFlashMode)) {
-                return true;
-            }
-        }
-        return false;
+        CameraCapabilityIndex.Capability capability = getCapabilityIndex().get(mCameraId);
+        return capability != null && capability.flashModes.contains(flashMode);
     }
 
     /**
      * 设置相机旋转角度
      */
     private void setCameraDisplayOrientation() {
-        Activity activity = mActivityWeak.get();
-        Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
-        Camera.getCameraInfo(mFaceType, cameraInfo);
+        Activity activity = mActivityWeak != null ? mActivityWeak.get() : null;
+        if (activity == null) {
+            return;
+        }
+        CameraCapabilityIndex.Capability cameraInfo = getCapabilityIndex().get(mCameraId);
+        if (cameraInfo == null) {
+            return;
+        }
         int rotation = activity.getWindowManager().getDefaultDisplay().getRotation();
 
         int screenDegree = 0;
@@ -624,9 +2521,13 @@ public final class CameraHelper {
         int displayOrientation;
         if (cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
             displayOrientation = (cameraInfo.orientation + screenDegree) % 360;
+            mFrameRotation = displayOrientation;
+            isFrameMirror = true;
             displayOrientation = (360 - displayOrientation) % 360;
         } else {
             displayOrientation = (cameraInfo.orientation - screenDegree + 360) % 360;
+            mFrameRotation = displayOrientation;
+            isFrameMirror = false;
         }
         if (mCamera != null) {
             mCamera.setDisplayOrientation(displayOrientation);
@@ -646,6 +2547,9 @@ public final class CameraHelper {
                 mCamera.startPreview();
                 //自动聚焦
                 startAutoFocus();
+                //没有缓存结果时在后台测试保存目录的写入速度，录像时据此选择配置
+                getStorageBenchmark().measureAsync();
+                scheduleArmRecorder(ARM_RECORDER_DELAY);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -653,35 +2557,99 @@ public final class CameraHelper {
     }
 
     /**
-     * 开始自动聚焦
+     * 开始自动聚焦：连续对焦模式交给相机处理，FOCUS_MODE_AUTO下先对焦一次，之后由调度器按画面变化触发
      */
     private void startAutoFocus() {
-        if (isAutoFocus) {
-            mSurfaceView.removeCallbacks(mAutoFocusRunnable);
-            mSurfaceView.postDelayed(mAutoFocusRunnable, 3000);
+        if (!isAutoFocus || mCamera == null || isContinuousFocus()
+                || !TextUtils.equals(mFocusMode, Camera.Parameters.FOCUS_MODE_AUTO)) {
+            return;
         }
+        mFocusScheduler.setEnabled(true);
+        triggerAutoFocus();
+        Handler handler = getCameraHandler();
+        handler.removeCallbacks(mFocusSampleRunnable);
+        handler.postDelayed(mFocusSampleRunnable, FOCUS_SAMPLE_INTERVAL);
     }
 
     /**
      * 停止自动聚焦
      */
     private void stopAutoFocus() {
+        mFocusScheduler.setEnabled(false);
+        Handler handler = getCameraHandler();
+        handler.removeCallbacks(mAutoFocusRunnable);
+        handler.removeCallbacks(mFocusSampleRunnable);
         if (mCamera != null) {
             mCamera.cancelAutoFocus();
         }
-        mSurfaceView.removeCallbacks(mAutoFocusRunnable);
+    }
+
+    /**
+     * 触发一次对焦，回调对象复用，在相机线程执行
+     */
+    private void triggerAutoFocus() {
+        if (mCamera == null) {
+            return;
+        }
+        ensureCameraLocked();
+        mFocusStartNanos = System.nanoTime();
+        mFocusScheduler.onFocusStart(mFocusStartNanos);
+        try {
+            isFocusPending = true;
+            mCamera.autoFocus(mAutoFocusCallback);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            isFocusPending = false;
+            mFocusScheduler.onFocusComplete(System.nanoTime());
+        }
+    }
+
+    /**
+     * @return 最近一分钟内的对焦次数（包括手动对焦）
+     */
+    public int getFocusSweepsPerMinute() {
+        return mFocusScheduler.getSweepsPerMinute(System.nanoTime());
     }
 
     /**
      * 释放相机资源
      */
     private void releaseCamera() {
+        Handler handler = getCameraHandler();
+        handler.removeCallbacks(mAutoFocusRunnable);
+        handler.removeCallbacks(mFocusSampleRunnable);
+        cancelArmRecorder();
+        disarmRecorder();
+        if (mIdleRecorder != null) {
+            mIdleRecorder.release();
+            mIdleRecorder = null;
+        }
+        mFocusScheduler.setEnabled(false);
+        isInternalCallbackInstalled = false;
+        isFocusSampleQueued = false;
+        if (mBurstSession != null) {
+            mBurstSession.stopCapture();
+        }
         if (mCamera != null) {
+            mZoomController.detach();
+            mCamera.setZoomChangeListener(null);
             mCamera.stopPreview();
             mCamera.setPreviewCallback(null);
+            if (mPreviewBufferPool != null) {
+                mPreviewBufferPool.detach();
+            }
+            if (mZslBuffer != null) {
+                mZslBuffer.clear();
+            }
             mCamera.release();
             mCamera = null;
         }
+        //相机释放后不会再回调，尚未返回数据的拍照归还保存名额
+        if (isStillCapturePending) {
+            isStillCapturePending = false;
+            mSavePipeline.release();
+        }
+        isFocusPending = false;
     }
 
     public final static class Builder {
@@ -691,11 +2659,30 @@ public final class CameraHelper {
         private int faceType = Camera.CameraInfo.CAMERA_FACING_BACK;
         private String directoryPath = "";//保存路径
         private Bitmap.CompressFormat compressFormat = Bitmap.CompressFormat.PNG;
+        private boolean jpegPassthrough = false;//JPEG格式下是否直写相机数据
         private CameraOptCallback cameraOptCallback;
         private boolean isAutoFocus = true;
         private boolean logEnable = true;
         private String flashMode = Camera.Parameters.FLASH_MODE_OFF;//默认取消闪光灯
         private boolean isScaleEnable = true;//是否支持变焦缩放
+        private int previewBufferCount = 0;//预览缓冲区个数，0表示不使用缓冲池
+        private boolean cameraThreadEnable = false;//是否在独立线程操作相机
+        private int saveDecodeThreads = 1;//保存流水线解码阶段线程数
+        private int saveDecodeCapacity = 2;//保存流水线解码阶段队列容量
+        private int saveWriteThreads = 1;//保存流水线写入阶段线程数
+        private int saveWriteCapacity = 2;//保存流水线写入阶段队列容量
+        private CaptureSavePipeline.Backpressure saveBackpressure = CaptureSavePipeline.Backpressure.REJECT;
+        private CaptureWriter.Durability captureDurability = CaptureWriter.Durability.NONE;
+        private int groupCommitCount = 8;
+        private int zslFrameCount = 0;//零延时拍照缓存的预览帧数，0表示不开启
+        private long zslMemoryBudget = 0;//零延时拍照缓存的内存预算（字节），0表示不限制
+        private long captureQuotaBytes = 0;//保存目录的字节数配额，0表示不限制
+        private int captureQuotaCount = 0;//保存目录的文件数配额，0表示不限制
+        private boolean prewarmEnable = false;//是否在build()时预热开启相机
+        private boolean recordReadyEnable = false;//是否在预览期间提前准备录制器
+        private CameraMetrics.Sink metricsSink;
+        private FpsPolicy fpsPolicy;//预览帧率策略，为空表示使用相机默认值
+        private int targetFps = 30;
 
         public final Builder setActivity(Activity activity) {
             this.activity = new WeakReference<>(activity);
@@ -707,6 +2694,78 @@ public final class CameraHelper {
             return this;
         }
 
+        /**
+         * 开启预览缓冲池，预览帧写入复用的缓冲区，不再每帧分配新数组
+         * 开启后，预览回调中拿到的data使用完毕必须调用{@link CameraHelper#recyclePreviewBuffer(byte[])}归还
+         *
+         * @param previewBufferCount 缓冲区个数，0表示不使用缓冲池
+         */
+        public final Builder setPreviewBufferCount(int previewBufferCount) {
+            this.previewBufferCount = previewBufferCount;
+            return this;
+        }
+
+        /**
+         * 开启相机线程，开启/配置/预览/拍照/录制等相机操作都在独立的HandlerThread中执行，
+         * 预览回调在该线程回调，{@link CameraOptCallback}仍在主线程回调
+         *
+         * @param cameraThreadEnable 是否在独立线程操作相机
+         */
+        public final Builder setCameraThreadEnable(boolean cameraThreadEnable) {
+            this.cameraThreadEnable = cameraThreadEnable;
+            return this;
+        }
+
+        /**
+         * 开启预热：build()时就在相机线程开启并配置相机，与界面布局、Surface创建同时进行，
+         * Surface可用后再绑定预览。开启预热会同时开启相机线程，未获得相机权限时不预热。
+         * 第一帧预览的耗时通过{@link CameraOptCallback#onFirstPreviewFrame(long)}回调
+         *
+         * @param prewarmEnable 是否预热开启相机
+         */
+        public final Builder setPrewarmEnable(boolean prewarmEnable) {
+            this.prewarmEnable = prewarmEnable;
+            return this;
+        }
+
+        /**
+         * 开启录制准备：预览期间提前配置并prepare录制器，{@link CameraHelper#startRecorder()}只需要start()，
+         * 停止录制在相机线程收尾后回调{@link CameraOptCallback#onVideoRecordComplete(String)}，并为下一段重新准备。
+         * 准备期间相机处于解锁状态，修改参数、缩放、对焦、拍照会先退出准备状态（reset录制器并重新锁定相机），
+         * 相机空闲{@code 3s}后才重新prepare，期间的每次操作都会继续推迟；准备期间暂停按清晰度触发的自动对焦调度。
+         * 频繁缩放或拍照仍会让录制器反复reset与prepare，这类场景不建议开启。
+         * 录像用的帧率范围与连续对焦在开始录制时才切换，准备期间预览保持拍照的参数。
+         * 开启录制准备会同时开启相机线程，没有录音与存储权限时不准备
+         *
+         * @param recordReadyEnable 是否提前准备录制器
+         */
+        public final Builder setRecordReadyEnable(boolean recordReadyEnable) {
+            this.recordReadyEnable = recordReadyEnable;
+            return this;
+        }
+
+        /**
+         * 性能统计接收方，开启、第一帧、切换、拍照、保存、录像等耗时都会转发给它
+         *
+         * @param metricsSink 统计接收方
+         */
+        public final Builder setMetricsSink(CameraMetrics.Sink metricsSink) {
+            this.metricsSink = metricsSink;
+            return this;
+        }
+
+        /**
+         * 预览帧率策略，从相机支持的帧率范围中选择；录像时切换为包含录像帧率的稳定范围，结束后恢复
+         *
+         * @param fpsPolicy 帧率策略，为null表示使用相机默认值
+         * @param targetFps 目标帧率，只在{@link FpsPolicy#TARGET}时使用
+         */
+        public final Builder setFpsPolicy(FpsPolicy fpsPolicy, int targetFps) {
+            this.fpsPolicy = fpsPolicy;
+            this.targetFps = targetFps;
+            return this;
+        }
+
         public final Builder setSurfaceView(SurfaceView surfaceView) {
             this.surfaceView = surfaceView;
             return this;
@@ -727,6 +2786,92 @@ public final class CameraHelper {
             return this;
         }
 
+        /**
+         * 开启JPEG直写，仅在{@link #setCompressFormat(Bitmap.CompressFormat)}为JPEG时生效
+         * 相机返回的JPEG数据直接写入文件，方向（前置摄像头含镜像）写入EXIF，不再解码、旋转与重新压缩，
+         * {@link CameraOptCallback#onPictureComplete(String, Bitmap)}回调的是文件写完后解码的缩小预览图
+         *
+         * @param jpegPassthrough 是否直写
+         */
+        public final Builder setJpegPassthrough(boolean jpegPassthrough) {
+            this.jpegPassthrough = jpegPassthrough;
+            return this;
+        }
+
+        /**
+         * 配置保存流水线的解码转正阶段
+         *
+         * @param threads  线程数
+         * @param capacity 队列容量，同时在流水线中的图片数不超过threads + capacity
+         */
+        public final Builder setSaveDecodeStage(int threads, int capacity) {
+            this.saveDecodeThreads = threads;
+            this.saveDecodeCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * 配置保存流水线的压缩写入阶段，队列满时解码阶段会等待
+         *
+         * @param threads  线程数
+         * @param capacity 队列容量
+         */
+        public final Builder setSaveWriteStage(int threads, int capacity) {
+            this.saveWriteThreads = threads;
+            this.saveWriteCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * @param backpressure 待保存图片达到上限时拒绝（默认）或阻塞拍照
+         */
+        public final Builder setSaveBackpressure(CaptureSavePipeline.Backpressure backpressure) {
+            this.saveBackpressure = backpressure;
+            return this;
+        }
+
+        /**
+         * 照片的落盘策略，写入速度与耗时见{@link CaptureSavePipeline#getWriter()}
+         *
+         * @param durability       不同步（默认）、每个文件同步或每N个文件同步一次
+         * @param groupCommitCount 组提交的文件数，只在{@link CaptureWriter.Durability#GROUP_COMMIT}时使用
+         */
+        public final Builder setCaptureDurability(CaptureWriter.Durability durability, int groupCommitCount) {
+            this.captureDurability = durability;
+            this.groupCommitCount = groupCommitCount;
+            return this;
+        }
+
+        /**
+         * 保存目录的配额，超出时在后台从最旧的照片或录像开始删除，见{@link CameraHelper#getCaptureStore()}
+         *
+         * @param maxBytes 总字节数上限，0表示不限制
+         * @param maxCount 文件数上限，0表示不限制
+         */
+        public final Builder setCaptureQuota(long maxBytes, int maxCount) {
+            this.captureQuotaBytes = maxBytes;
+            this.captureQuotaCount = maxCount;
+            return this;
+        }
+
+        /**
+         * 开启零延时拍照，见{@link CameraHelper#takeZslPicture()}
+         *
+         * @param zslFrameCount 缓存最近的预览帧数，0表示不开启
+         */
+        public final Builder setZslFrameCount(int zslFrameCount) {
+            this.zslFrameCount = zslFrameCount;
+            return this;
+        }
+
+        /**
+         * @param zslMemoryBudget 零延时拍照缓存的内存上限（字节），缓存帧数会按此减少，不足一帧时不开启，0表示不限制
+         */
+        public final Builder setZslMemoryBudget(long zslMemoryBudget) {
+            this.zslMemoryBudget = zslMemoryBudget;
+            return this;
+        }
+
         public final Builder setCameraOptCallback(CameraOptCallback cameraOptCallback) {
             this.cameraOptCallback = cameraOptCallback;
             return this;
@@ -764,16 +2909,36 @@ public final class CameraHelper {
             activity.getWindowManager().getDefaultDisplay().getSize(point);
             CameraHelper cameraHelper = new CameraHelper(activity, surfaceView);
             cameraHelper.mPreviewCallback = previewCallback;
+            if (previewBufferCount > 0) {
+                cameraHelper.mPreviewBufferPool = new PreviewBufferPool(previewBufferCount);
+            }
             cameraHelper.mFaceType = faceType;
             cameraHelper.directoryPath = directoryPath;
+            cameraHelper.mCaptureStore = new CaptureStore(directoryPath, captureQuotaBytes, captureQuotaCount);
             cameraHelper.displayWidth = point.y;
             cameraHelper.displayHeight = point.x;
             cameraHelper.mCompressFormat = compressFormat;
+            cameraHelper.isJpegPassthrough = jpegPassthrough;
+            cameraHelper.mZslFrameCount = zslFrameCount;
+            cameraHelper.mZslMemoryBudget = zslMemoryBudget;
+            cameraHelper.mSavePipeline = new CaptureSavePipeline(saveDecodeThreads, saveDecodeCapacity,
+                    saveWriteThreads, saveWriteCapacity, saveBackpressure, cameraHelper.mMetrics,
+                    new CaptureWriter(captureDurability, groupCommitCount, CaptureWriter.DEFAULT_BUFFER_BYTES));
+            cameraHelper.mMetrics.setSink(metricsSink);
+            cameraHelper.mFpsPolicy = fpsPolicy;
+            cameraHelper.mTargetFps = targetFps;
             cameraHelper.mCameraOptCallback = cameraOptCallback;
             cameraHelper.isAutoFocus = isAutoFocus;
             cameraHelper.logEnable = logEnable;
             cameraHelper.mFlashMode = flashMode;
             cameraHelper.isScaleEnable = isScaleEnable;
+            cameraHelper.isRecordReadyEnable = recordReadyEnable;
+            if (cameraThreadEnable || prewarmEnable || recordReadyEnable) {
+                cameraHelper.startCameraThread();
+            }
+            if (prewarmEnable) {
+                cameraHelper.prewarm();
+            }
             return cameraHelper;
         }
     }
@@ -0,0 +1,347 @@
+package org.liaohailong.cameralibrary.camera;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Describe as : 相机性能统计
+ * <p>
+ * 1，开启、第一帧、切换、拍照到回调、编码、写入、录像开始/停止、对焦等耗时按事件统计次数、总耗时、最大值与最近一次，
+ * 每次记录同时转发给{@link Sink}
+ * 2，预览帧间隔、抖动写入固定分桶的直方图，并按平滑后的帧间隔估算丢帧数，逐帧记录时不分配内存
+ * 3，{@link #snapshot()}导出紧凑的快照，可序列化为字节数组上报
+ */
+
+public final class CameraMetrics {
+
+    public static final int EVENT_OPEN = 0;//开启并配置相机
+    public static final int EVENT_FIRST_FRAME = 1;//开启到第一帧预览
+    public static final int EVENT_SWITCH = 2;//切换摄像头到新摄像头第一帧预览
+    public static final int EVENT_CAPTURE = 3;//按下拍照到拍照回调
+    public static final int EVENT_ENCODE = 4;//保存流水线解码/编码阶段
+    public static final int EVENT_WRITE = 5;//保存流水线写入阶段
+    public static final int EVENT_RECORDER_START = 6;//录像开始
+    public static final int EVENT_RECORDER_STOP = 7;//录像停止
+    public static final int EVENT_FOCUS = 8;//一次对焦扫描
+    public static final int EVENT_COUNT = 9;
+
+    //帧间隔分桶上限（毫秒），最后一个桶收集超出部分
+    private static final int[] INTERVAL_BOUNDS_MS = {8, 12, 17, 25, 34, 42, 50, 67, 100, 200};
+    //帧间隔抖动分桶上限（毫秒）
+    private static final int[] JITTER_BOUNDS_MS = {1, 2, 4, 8, 16, 33, 66};
+
+    /**
+     * 统计结果的接收方，可以对接自己的上报系统
+     * 回调线程不固定，实现需要线程安全且不能做耗时操作
+     */
+    public interface Sink {
+        /**
+         * @param event      事件，见EVENT_*常量
+         * @param durationMs 耗时（毫秒）
+         */
+        void onEvent(int event, long durationMs);
+    }
+
+    private volatile Sink mSink;
+
+    private final long[] mEventCount = new long[EVENT_COUNT];
+    private final long[] mEventTotalMs = new long[EVENT_COUNT];
+    private final long[] mEventMaxMs = new long[EVENT_COUNT];
+    private final long[] mEventLastMs = new long[EVENT_COUNT];
+
+    private final Histogram mIntervalHistogram = new Histogram(INTERVAL_BOUNDS_MS);
+    private final Histogram mJitterHistogram = new Histogram(JITTER_BOUNDS_MS);
+    private long mFrameCount = 0;
+    private long mDroppedFrames = 0;
+    private long mLastFrameNanos = 0;
+    private long mLastIntervalUs = 0;
+    private long mExpectedIntervalUs = 0;//平滑后的正常帧间隔
+    private int mLongIntervalStreak = 0;//连续超长间隔的帧数
+
+    CameraMetrics() {
+    }
+
+    /**
+     * @param sink 统计接收方，为null表示不转发
+     */
+    public void setSink(Sink sink) {
+        mSink = sink;
+    }
+
+    /**
+     * 记录一次耗时事件
+     *
+     * @param event      事件
+     * @param durationMs 耗时（毫秒）
+     */
+    void record(int event, long durationMs) {
+        synchronized (this) {
+            mEventCount[event]++;
+            mEventTotalMs[event] += durationMs;
+            mEventLastMs[event] = durationMs;
+            if (durationMs > mEventMaxMs[event]) {
+                mEventMaxMs[event] = durationMs;
+            }
+        }
+        Sink sink = mSink;
+        if (sink != null) {
+            sink.onEvent(event, durationMs);
+        }
+    }
+
+    /**
+     * 记录一次以{@link System#nanoTime()}为起点的耗时事件
+     */
+    void recordSince(int event, long startNanos) {
+        record(event, (System.nanoTime() - startNanos) / 1000000);
+    }
+
+    /**
+     * 预览帧到达，在预览回调线程调用
+     *
+     * @param timestampNanos 帧到达时间（System.nanoTime）
+     */
+    synchronized void onPreviewFrame(long timestampNanos) {
+        mFrameCount++;
+        long lastFrameNanos = mLastFrameNanos;
+        mLastFrameNanos = timestampNanos;
+        if (lastFrameNanos == 0) {
+            return;
+        }
+        long intervalUs = (timestampNanos - lastFrameNanos) / 1000;
+        mIntervalHistogram.record(intervalUs);
+        if (mLastIntervalUs > 0) {
+            mJitterHistogram.record(Math.abs(intervalUs - mLastIntervalUs));
+        }
+        mLastIntervalUs = intervalUs;
+
+        if (mExpectedIntervalUs == 0) {
+            mExpectedIntervalUs = intervalUs;
+        } else if (intervalUs * 2 > mExpectedIntervalUs * 3) {
+            //超过正常间隔的1.5倍，按倍数估算丢掉的帧数
+            mDroppedFrames += (intervalUs + mExpectedIntervalUs / 2) / mExpectedIntervalUs - 1;
+            if (++mLongIntervalStreak >= 8) {
+                //连续变慢说明帧率本身下降了（如暗光降帧），以新的间隔为准
+                mExpectedIntervalUs = intervalUs;
+                mLongIntervalStreak = 0;
+            }
+        } else {
+            //正常间隔参与平滑，权重1/16
+            mExpectedIntervalUs += (intervalUs - mExpectedIntervalUs) / 16;
+            mLongIntervalStreak = 0;
+        }
+    }
+
+    /**
+     * @return 平滑后的正常帧间隔（微秒），尚未统计时为0
+     */
+    synchronized long getExpectedFrameIntervalUs() {
+        return mExpectedIntervalUs;
+    }
+
+    /**
+     * 相机重新开启后帧间隔重新计算
+     */
+    synchronized void resetFrameCadence() {
+        mLastFrameNanos = 0;
+        mLastIntervalUs = 0;
+        mExpectedIntervalUs = 0;
+        mLongIntervalStreak = 0;
+    }
+
+    /**
+     * 清空所有统计
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            mEventCount[i] = 0;
+            mEventTotalMs[i] = 0;
+            mEventMaxMs[i] = 0;
+            mEventLastMs[i] = 0;
+        }
+        mIntervalHistogram.clear();
+        mJitterHistogram.clear();
+        mFrameCount = 0;
+        mDroppedFrames = 0;
+        resetFrameCadence();
+    }
+
+    /**
+     * @return 当前统计的快照
+     */
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(mEventCount.clone(), mEventTotalMs.clone(), mEventMaxMs.clone(), mEventLastMs.clone(),
+                mFrameCount, mDroppedFrames, mExpectedIntervalUs,
+                mIntervalHistogram.copyCounts(), mJitterHistogram.copyCounts());
+    }
+
+    /**
+     * 固定分桶直方图，记录时不分配内存
+     */
+    static final class Histogram {
+        private final long[] mBoundsUs;
+        private final long[] mCounts;
+
+        Histogram(int[] boundsMs) {
+            mBoundsUs = new long[boundsMs.length];
+            for (int i = 0; i < boundsMs.length; i++) {
+                mBoundsUs[i] = boundsMs[i] * 1000L;
+            }
+            mCounts = new long[boundsMs.length + 1];
+        }
+
+        /**
+         * @param valueUs 数值（微秒），落入第一个上限不小于它的桶
+         */
+        void record(long valueUs) {
+            int low = 0;
+            int high = mBoundsUs.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mBoundsUs[mid] < valueUs) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            mCounts[low]++;
+        }
+
+        void clear() {
+            for (int i = 0; i < mCounts.length; i++) {
+                mCounts[i] = 0;
+            }
+        }
+
+        long[] copyCounts() {
+            return mCounts.clone();
+        }
+    }
+
+    /**
+     * 统计快照，不再变化
+     */
+    public static final class Snapshot {
+        private static final int VERSION = 1;
+
+        private final long[] mEventCount;
+        private final long[] mEventTotalMs;
+        private final long[] mEventMaxMs;
+        private final long[] mEventLastMs;
+        private final long mFrameCount;
+        private final long mDroppedFrames;
+        private final long mExpectedIntervalUs;
+        private final long[] mIntervalCounts;
+        private final long[] mJitterCounts;
+
+        private Snapshot(long[] eventCount, long[] eventTotalMs, long[] eventMaxMs, long[] eventLastMs,
+                         long frameCount, long droppedFrames, long expectedIntervalUs,
+                         long[] intervalCounts, long[] jitterCounts) {
+            mEventCount = eventCount;
+            mEventTotalMs = eventTotalMs;
+            mEventMaxMs = eventMaxMs;
+            mEventLastMs = eventLastMs;
+            mFrameCount = frameCount;
+            mDroppedFrames = droppedFrames;
+            mExpectedIntervalUs = expectedIntervalUs;
+            mIntervalCounts = intervalCounts;
+            mJitterCounts = jitterCounts;
+        }
+
+        public long getEventCount(int event) {
+            return mEventCount[event];
+        }
+
+        /**
+         * @return 平均耗时（毫秒），没有记录时为0
+         */
+        public long getEventAverageMs(int event) {
+            return mEventCount[event] == 0 ? 0 : mEventTotalMs[event] / mEventCount[event];
+        }
+
+        public long getEventMaxMs(int event) {
+            return mEventMaxMs[event];
+        }
+
+        public long getEventLastMs(int event) {
+            return mEventLastMs[event];
+        }
+
+        public long getFrameCount() {
+            return mFrameCount;
+        }
+
+        /**
+         * @return 按帧间隔估算的丢帧数
+         */
+        public long getDroppedFrames() {
+            return mDroppedFrames;
+        }
+
+        /**
+         * @return 平滑后的正常帧间隔（微秒）
+         */
+        public long getExpectedFrameIntervalUs() {
+            return mExpectedIntervalUs;
+        }
+
+        /**
+         * @return 各帧间隔分桶的上限（毫秒），计数比上限多一个桶，最后一个为超出部分
+         */
+        public static int[] getFrameIntervalBoundsMs() {
+            return INTERVAL_BOUNDS_MS.clone();
+        }
+
+        public long[] getFrameIntervalCounts() {
+            return mIntervalCounts.clone();
+        }
+
+        /**
+         * @return 各抖动分桶的上限（毫秒），计数比上限多一个桶，最后一个为超出部分
+         */
+        public static int[] getJitterBoundsMs() {
+            return JITTER_BOUNDS_MS.clone();
+        }
+
+        public long[] getJitterCounts() {
+            return mJitterCounts.clone();
+        }
+
+        /**
+         * 序列化为紧凑的字节数组：版本号，各事件（次数、总耗时、最大值、最近一次），帧数，丢帧数，正常帧间隔，两个直方图
+         *
+         * @return 字节数组
+         */
+        public byte[] toByteArray() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream outputStream = new DataOutputStream(bytes);
+            try {
+                outputStream.writeByte(VERSION);
+                outputStream.writeByte(EVENT_COUNT);
+                for (int i = 0; i < EVENT_COUNT; i++) {
+                    outputStream.writeInt((int) mEventCount[i]);
+                    outputStream.writeInt((int) mEventTotalMs[i]);
+                    outputStream.writeInt((int) mEventMaxMs[i]);
+                    outputStream.writeInt((int) mEventLastMs[i]);
+                }
+                outputStream.writeInt((int) mFrameCount);
+                outputStream.writeInt((int) mDroppedFrames);
+                outputStream.writeInt((int) mExpectedIntervalUs);
+                writeCounts(outputStream, mIntervalCounts);
+                writeCounts(outputStream, mJitterCounts);
+                outputStream.flush();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            return bytes.toByteArray();
+        }
+
+        private static void writeCounts(DataOutputStream outputStream, long[] counts) throws IOException {
+            outputStream.writeByte(counts.length);
+            for (long count : counts) {
+                outputStream.writeInt((int) count);
+            }
+        }
+    }
+}
@@ -17,6 +17,44 @@ public interface CameraOptCallback {
      */
     void onPictureComplete(String path, Bitmap bitmap);
 
+    /**
+     * 待保存的图片达到上限，本次拍照被丢弃，见{@link CaptureSavePipeline.Backpressure#REJECT}
+     *
+     * @param pendingCount  尚未保存完成的图片数
+     * @param inFlightBytes 尚未保存完成的图像数据占用的字节数
+     */
+    void onPictureRejected(int pendingCount, long inFlightBytes);
+
+    /**
+     * 连拍回调，所有照片都保存完成（或失败）后回调一次
+     *
+     * @param result 每一张的路径、拍摄时间以及持续拍摄速度
+     */
+    void onBurstComplete(BurstResult result);
+
+    /**
+     * 相机开启后收到第一帧预览，用于衡量打开速度
+     *
+     * @param elapsedMs 从请求开启（预热模式下为build()）到第一帧预览的耗时（毫秒）
+     */
+    void onFirstPreviewFrame(long elapsedMs);
+
+    /**
+     * 切换摄像头完成，新摄像头收到第一帧预览时回调
+     *
+     * @param faceType  切换后的前置/后置
+     * @param elapsedMs 从调用{@link CameraHelper#switchCamera()}到新摄像头第一帧预览的耗时（毫秒）
+     */
+    void onCameraSwitched(int faceType, long elapsedMs);
+
+    /**
+     * 分段录像完成一段，见{@link CameraHelper#startSegmentedRecorder(int, long, int)}
+     * 超出保留数量的旧分段会被删除，需要长期保存时在此回调中复制或移动
+     *
+     * @param path 分段文件存储地址
+     */
+    void onVideoSegmentComplete(String path);
+
     /**
      * 录像回调
      *
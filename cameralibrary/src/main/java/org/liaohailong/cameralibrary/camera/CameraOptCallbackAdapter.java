@@ -13,6 +13,31 @@ public abstract class CameraOptCallbackAdapter implements CameraOptCallback {
 
     }
 
+    @Override
+    public void onPictureRejected(int pendingCount, long inFlightBytes) {
+
+    }
+
+    @Override
+    public void onBurstComplete(BurstResult result) {
+
+    }
+
+    @Override
+    public void onFirstPreviewFrame(long elapsedMs) {
+
+    }
+
+    @Override
+    public void onCameraSwitched(int faceType, long elapsedMs) {
+
+    }
+
+    @Override
+    public void onVideoSegmentComplete(String path) {
+
+    }
+
     @Override
     public void onVideoRecordComplete(String path) {
 
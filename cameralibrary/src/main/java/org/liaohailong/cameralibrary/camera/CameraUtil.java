@@ -1,31 +1,29 @@
 package org.liaohailong.cameralibrary.camera;
 
 import android.Manifest;
-import android.annotation.SuppressLint;
 import android.app.Activity;
+import android.content.Context;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.ImageFormat;
 import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
 import android.hardware.Camera;
-import android.os.Handler;
-import android.os.Looper;
+import android.media.ExifInterface;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.text.TextUtils;
-import android.util.Log;
 import android.widget.Toast;
 
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.text.SimpleDateFormat;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Describe as : 图片处理工具
@@ -39,101 +37,250 @@ public final class CameraUtil {
         throw new IllegalAccessException("no instance!");
     }
 
-    private static final ExecutorService sExecutorService = Executors.newSingleThreadExecutor();
-    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+    //直写模式下回调预览图的最长边
+    private static final int PREVIEW_MAX_SIZE = 1024;
+    //拍照保存过程中图片占用内存的峰值统计
+    private static long sLastCapturePeakBytes = 0;
+    private static long sMaxCapturePeakBytes = 0;
 
-    static void savePic(
-            final int faceType,
-            String directoryPath,
-            final byte[] data,
-            final Bitmap.CompressFormat format,
-            final CameraOptCallback cameraOptCallback) {
-        File saveFile = createDirectoryIfNotExist(directoryPath);
-        if (saveFile == null) {
-            return;
-        }
-        String suffix = "";
+    /**
+     * 生成图片保存路径
+     *
+     * @param store  存储管理
+     * @param format 保存格式
+     * @return 文件路径，目录不可用时返回null
+     */
+    static String createPicturePath(CaptureStore store, Bitmap.CompressFormat format) {
+        return store.newPath(getPictureSuffix(format));
+    }
+
+    /**
+     * @param format 保存格式
+     * @return 文件后缀
+     */
+    static String getPictureSuffix(Bitmap.CompressFormat format) {
         switch (format) {
             case PNG:
-                suffix = ".png";
-                break;
+                return ".png";
             case JPEG:
-                suffix = ".jpeg";
-                break;
+                return ".jpeg";
             case WEBP:
-                suffix = ".webp";
-                break;
+                return ".webp";
+            default:
+                return "";
         }
-        final String path = saveFile.getAbsolutePath() + "/" + getDateFormatStr() + suffix;
-        sExecutorService.execute(new Runnable() {
-            @Override
-            public void run() {
-                Bitmap rawBitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
-                final Bitmap result;
-                if (faceType == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-                    result = mirror(rotate(rawBitmap, 270f));
-                } else {
-                    result = rotate(rawBitmap, 90f);
-                }
-                File file = new File(path);
-                FileOutputStream fileOutputStream = null;
-                BufferedOutputStream bufferedOutputStream = null;
-                try {
-                    fileOutputStream = new FileOutputStream(file);
-                    bufferedOutputStream = new BufferedOutputStream(fileOutputStream);
-                    if (result.compress(format, 100, bufferedOutputStream)) {
-                        sHandler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                if (cameraOptCallback != null) {
-                                    cameraOptCallback.onPictureComplete(path, result);
-                                }
-                            }
-                        });
-                    }
-                } catch (Exception ex) {
-                    ex.printStackTrace();
-                } finally {
-                    closeStream(fileOutputStream);
-                    closeStream(bufferedOutputStream);
-                }
-            }
-        });
     }
 
-    private static File createDirectoryIfNotExist(String savePath) {
-        File file = new File(savePath);
-        if (!file.exists()) {
-            createDirectory(file);
+    /**
+     * @param faceType 前置/后置
+     * @return 拍照数据转正所需的顺时针旋转角度
+     */
+    static int getPictureDegree(int faceType) {
+        return faceType == Camera.CameraInfo.CAMERA_FACING_FRONT ? 270 : 90;
+    }
+
+    /**
+     * 解码并转正：旋转与镜像合并为一个Matrix，只分配一张输出图，原图用完立即回收
+     *
+     * @param data   相机返回的图像数据
+     * @param degree 顺时针旋转角度
+     * @param mirror 旋转后是否水平镜像
+     * @return 转正后的图片（ARGB_8888，不降低保存画质），解码失败返回null
+     */
+    static Bitmap decodeAndTransform(byte[] data, int degree, boolean mirror) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        //RGB_565会在渐变处出现色带，保存时不降低画质
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        //无需变换时解码结果直接作为输出，解码为可变图片，调用方可继续绘制或作为inBitmap复用
+        options.inMutable = isIdentity(degree, mirror);
+        Bitmap rawBitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (rawBitmap == null) {
+            return null;
+        }
+        long rawBytes = rawBitmap.getAllocationByteCount();
+        Bitmap result = transform(rawBitmap, degree, mirror);
+        long peakBytes = rawBytes;
+        if (result != rawBitmap) {
+            //原图与输出图同时存在的时刻即为峰值
+            peakBytes += result.getAllocationByteCount();
+            rawBitmap.recycle();
         }
-        if (file.isFile()) {
-            boolean delete = file.delete();
-            if (delete) {
-                createDirectory(file);
+        recordCapturePeakBytes(peakBytes);
+        return result;
+    }
+
+    /**
+     * @param rawBitmap 原图
+     * @param degree    顺时针旋转角度
+     * @param mirror    旋转后是否水平镜像
+     * @return 变换后的图片，无需变换时返回原图
+     */
+    private static Bitmap transform(Bitmap rawBitmap, float degree, boolean mirror) {
+        if (isIdentity(degree, mirror)) {
+            return rawBitmap;
+        }
+        Matrix matrix = new Matrix();
+        matrix.postRotate(degree);
+        if (mirror) {
+            matrix.postScale(-1, 1f);
+        }
+        return Bitmap.createBitmap(rawBitmap, 0, 0, rawBitmap.getWidth(), rawBitmap.getHeight(), matrix, true);
+    }
+
+    private static boolean isIdentity(float degree, boolean mirror) {
+        return degree % 360 == 0 && !mirror;
+    }
+
+    private static synchronized void recordCapturePeakBytes(long peakBytes) {
+        sLastCapturePeakBytes = peakBytes;
+        sMaxCapturePeakBytes = Math.max(sMaxCapturePeakBytes, peakBytes);
+    }
+
+    /**
+     * @return 最近一次拍照保存过程中图片占用内存的峰值（字节）
+     */
+    public static synchronized long getLastCapturePeakBytes() {
+        return sLastCapturePeakBytes;
+    }
+
+    /**
+     * @return 历次拍照保存过程中图片占用内存的最大峰值（字节）
+     */
+    public static synchronized long getMaxCapturePeakBytes() {
+        return sMaxCapturePeakBytes;
+    }
+
+    /**
+     * 压缩并写入文件
+     *
+     * @param writer 文件写入
+     * @param bitmap 转正后的图片
+     * @param format 保存格式
+     * @param path   文件路径
+     * @return 是否写入成功
+     */
+    static boolean writeBitmap(CaptureWriter writer, Bitmap bitmap, Bitmap.CompressFormat format, String path) {
+        CaptureWriter.Output output = null;
+        try {
+            output = writer.open(path);
+            if (!bitmap.compress(format, 100, output)) {
+                return false;
             }
+            output.commit();
+            return true;
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            return false;
+        } finally {
+            //没有提交时删除临时文件
+            closeStream(output);
         }
-        return file;
     }
 
-    private static void createDirectory(File file) {
-        boolean mkdirs = file.mkdirs();
-        Log.i(TAG, "createDirectoryIfNotExist ---> mkdirs = " + mkdirs
-                + "  savePath = " + file.getAbsolutePath());
+    /**
+     * 相机返回的JPEG数据直接写入文件，只补写EXIF方向信息，不做解码与重新压缩
+     *
+     * @param writer 文件写入
+     * @param data   相机返回的JPEG数据
+     * @param degree 顺时针旋转角度
+     * @param mirror 旋转后是否水平镜像
+     * @param path   文件路径
+     * @return 是否写入成功
+     */
+    static boolean writeJpeg(CaptureWriter writer, byte[] data, int degree, boolean mirror, String path) {
+        int orientation = JpegOrientation.fromRotation(degree, mirror);
+        //已有EXIF但缺少方向标签，先交给系统在暂存文件中补写，之后与其它照片一样先写临时文件再重命名
+        byte[] jpeg = JpegOrientation.canPatch(data) ? data : addOrientationTag(data, orientation, path);
+        CaptureWriter.Output output = null;
+        try {
+            output = writer.open(path);
+            JpegOrientation.write(jpeg, orientation, output);
+            output.commit();
+            return true;
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            return false;
+        } finally {
+            closeStream(output);
+        }
     }
 
+    /**
+     * 通过{@link ExifInterface}补写方向标签，在目标文件旁的暂存文件中进行，不触碰目标文件
+     *
+     * @return 补写后的JPEG数据，失败时返回原数据
+     */
+    private static byte[] addOrientationTag(byte[] data, int orientation, String path) {
+        File staging = new File(path + ".exif" + CaptureWriter.TEMP_SUFFIX);
+        FileOutputStream outputStream = null;
+        RandomAccessFile inputFile = null;
+        try {
+            outputStream = new FileOutputStream(staging);
+            outputStream.write(data);
+            outputStream.close();
+            outputStream = null;
+            ExifInterface exifInterface = new ExifInterface(staging.getAbsolutePath());
+            exifInterface.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(orientation));
+            exifInterface.saveAttributes();
+            inputFile = new RandomAccessFile(staging, "r");
+            byte[] patched = new byte[(int) inputFile.length()];
+            inputFile.readFully(patched);
+            return patched;
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            return data;
+        } finally {
+            closeStream(outputStream);
+            closeStream(inputFile);
+            if (staging.exists() && !staging.delete()) {
+                staging.deleteOnExit();
+            }
+        }
+    }
 
-    private static Bitmap mirror(Bitmap rawBitmap) {
-        Matrix matrix = new Matrix();
-        matrix.postScale(-1, 1f);
-        return Bitmap.createBitmap(rawBitmap, 0, 0, rawBitmap.getWidth(), rawBitmap.getHeight(), matrix, true);
+    /**
+     * 预览帧编码为JPEG
+     *
+     * @param nv21   NV21数据
+     * @param width  宽
+     * @param height 高
+     * @return JPEG数据，编码失败返回null
+     */
+    static byte[] nv21ToJpeg(byte[] nv21, int width, int height) {
+        YuvImage yuvImage = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(width * height / 2);
+        if (!yuvImage.compressToJpeg(new Rect(0, 0, width, height), 100, outputStream)) {
+            return null;
+        }
+        return outputStream.toByteArray();
     }
 
-    private static Bitmap rotate(Bitmap rawBitmap, float degree) {
-        Matrix matrix = new Matrix();
-        matrix.postRotate(degree);
-        return Bitmap.createBitmap(rawBitmap, 0, 0, rawBitmap.getWidth(), rawBitmap.getHeight(), matrix, true);
+    /**
+     * 按采样率解码一张缩小的预览图，并转到正确方向
+     */
+    static Bitmap decodePreview(byte[] data, float degree, boolean mirror) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        int sampleSize = 1;
+        int maxSide = Math.max(options.outWidth, options.outHeight);
+        while (maxSide / (sampleSize * 2) >= PREVIEW_MAX_SIZE) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap rawBitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (rawBitmap == null) {
+            return null;
+        }
+        Bitmap result = transform(rawBitmap, degree, mirror);
+        if (result != rawBitmap) {
+            rawBitmap.recycle();
+        }
+        return result;
     }
 
+
     private static void closeStream(Closeable closeable) {
         try {
             if (closeable != null) {
@@ -144,10 +291,16 @@ public final class CameraUtil {
         }
     }
 
-    static String getDateFormatStr() {
-        Date date = new Date();
-        @SuppressLint("SimpleDateFormat") SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd#HH:mm:ss");
-        return simpleDateFormat.format(date);
+    static boolean hasCameraPermission(Context context) {
+        return ContextCompat.checkSelfPermission(context, Manifest.permission.CAMERA)
+                == PackageManager.PERMISSION_GRANTED;
+    }
+
+    static boolean hasRecordPermission(Context context) {
+        return ContextCompat.checkSelfPermission(context, Manifest.permission.RECORD_AUDIO)
+                == PackageManager.PERMISSION_GRANTED
+                && ContextCompat.checkSelfPermission(context, Manifest.permission.WRITE_EXTERNAL_STORAGE)
+                == PackageManager.PERMISSION_GRANTED;
     }
 
     static boolean requestCameraPermissionIfNeed(Activity activity) {
@@ -0,0 +1,460 @@
+package org.liaohailong.cameralibrary.camera;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Describe as : 拍照保存流水线
+ * <p>
+ * 解码转正 -> 压缩写入 两个阶段，各自拥有独立的线程数与有界队列：
+ * 1，提交前先申请名额，名额用尽时按{@link Backpressure}拒绝或阻塞，避免大块图像数据堆积导致OOM
+ * 2，解码阶段向写入阶段交接时，写入队列满则阻塞解码线程，形成逐级背压
+ * 3，JPEG直写不经过解码阶段，直接进入写入阶段
+ * 4，预览帧（ZSL）在解码阶段直接在YUV域转正并编码为JPEG，之后与拍照数据走相同的流程
+ * 5，两个阶段的耗时分别记入{@link CameraMetrics#EVENT_ENCODE}与{@link CameraMetrics#EVENT_WRITE}
+ * 6，写入阶段通过{@link CaptureWriter}先写临时文件再重命名，落盘策略由其决定；
+ * 组提交时照片在同一组同步、重命名后才回调保存成功，期间继续占用名额；流水线空闲时不再等凑满一组，立即同步
+ */
+
+public final class CaptureSavePipeline {
+
+    /**
+     * 待保存图片达到上限时的处理策略
+     */
+    public enum Backpressure {
+        /**
+         * 直接丢弃本次拍照，并回调{@link CameraOptCallback#onPictureRejected(int, long)}
+         */
+        REJECT,
+        /**
+         * 阻塞拍照调用线程，直到有图片保存完成（开启相机线程时阻塞的是相机线程）
+         */
+        BLOCK
+    }
+
+    /**
+     * 保存结果回调，在主线程回调
+     */
+    interface SaveCallback {
+        void onSaved(String path, Bitmap bitmap);
+
+        void onFailed(String path);
+    }
+
+    private final Backpressure mBackpressure;
+    private final CameraMetrics mMetrics;
+    private final CaptureWriter mWriter;
+    private final Semaphore mPermits;
+    private final ThreadPoolExecutor mDecodeExecutor;
+    private final ThreadPoolExecutor mWriteExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final AtomicInteger mPendingCount = new AtomicInteger();
+    private final AtomicLong mInFlightBytes = new AtomicLong();
+    private final AtomicLong mRejectedCount = new AtomicLong();
+    //组提交时已写完、等待同步后重命名的照片，按目标路径索引
+    private final ConcurrentHashMap<String, AwaitingSync> mAwaitingSync = new ConcurrentHashMap<>();
+
+    /**
+     * 等待组提交的照片，重命名后回调
+     */
+    private static final class AwaitingSync {
+        final long bytes;
+        final Bitmap bitmap;
+        final SaveCallback callback;
+
+        AwaitingSync(long bytes, Bitmap bitmap, SaveCallback callback) {
+            this.bytes = bytes;
+            this.bitmap = bitmap;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * @param decodeThreads  解码阶段线程数
+     * @param decodeCapacity 解码阶段队列容量
+     * @param writeThreads   写入阶段线程数
+     * @param writeCapacity  写入阶段队列容量
+     * @param backpressure   名额用尽时的处理策略
+     * @param metrics        耗时统计
+     * @param writer         文件写入
+     */
+    CaptureSavePipeline(int decodeThreads, int decodeCapacity,
+                        int writeThreads, int writeCapacity,
+                        Backpressure backpressure, CameraMetrics metrics, CaptureWriter writer) {
+        mMetrics = metrics;
+        mWriter = writer;
+        decodeThreads = Math.max(1, decodeThreads);
+        decodeCapacity = Math.max(1, decodeCapacity);
+        writeThreads = Math.max(1, writeThreads);
+        writeCapacity = Math.max(1, writeCapacity);
+        mBackpressure = backpressure == null ? Backpressure.REJECT : backpressure;
+        //同时在流水线中的图片数不超过解码阶段的容量
+        mPermits = new Semaphore(decodeThreads + decodeCapacity);
+        mDecodeExecutor = createExecutor("CaptureDecode", decodeThreads, decodeCapacity);
+        mWriteExecutor = createExecutor("CaptureWrite", writeThreads, writeCapacity);
+        mWriter.setCommitListener(new CaptureWriter.CommitListener() {
+            @Override
+            public void onCommitted(String path, boolean success) {
+                AwaitingSync awaiting = mAwaitingSync.remove(path);
+                if (awaiting != null) {
+                    finish(awaiting.bytes, path, awaiting.bitmap, success, awaiting.callback);
+                }
+            }
+        });
+    }
+
+    private ThreadPoolExecutor createExecutor(final String name, int threads, int capacity) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity),
+                new ThreadFactory() {
+                    private final AtomicInteger index = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, name + "-" + index.getAndIncrement());
+                    }
+                },
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        //队列已满，阻塞提交线程等待空位
+                        if (executor.isShutdown()) {
+                            drop(r);
+                            return;
+                        }
+                        try {
+                            executor.getQueue().put(r);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            drop(r);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * 流水线中一张图片的一个阶段，没能执行时（已关闭或等待时被中断）归还名额并回调失败
+     */
+    private abstract class SaveTask implements Runnable {
+        private final String mPath;
+        private final long mBytes;//当前阶段计入mInFlightBytes的字节数
+        private final Bitmap mBitmap;
+        private final SaveCallback mCallback;
+
+        SaveTask(String path, long bytes, Bitmap bitmap, SaveCallback callback) {
+            mPath = path;
+            mBytes = bytes;
+            mBitmap = bitmap;
+            mCallback = callback;
+        }
+
+        void onDropped() {
+            if (mBitmap != null) {
+                mBitmap.recycle();
+            }
+            finish(mBytes, mPath, null, false, mCallback);
+        }
+    }
+
+    private void drop(Runnable runnable) {
+        if (runnable instanceof SaveTask) {
+            ((SaveTask) runnable).onDropped();
+        }
+    }
+
+    /**
+     * 申请一个保存名额，拍照之前调用
+     *
+     * @return false表示已达上限，本次拍照被拒绝
+     */
+    boolean acquire() {
+        if (mBackpressure == Backpressure.BLOCK) {
+            mPermits.acquireUninterruptibly();
+            return true;
+        }
+        if (mPermits.tryAcquire()) {
+            return true;
+        }
+        mRejectedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * 不阻塞地申请一个保存名额，在不能阻塞的线程（如主线程）调用，不受{@link Backpressure}影响
+     *
+     * @return false表示已达上限，本次拍照被拒绝
+     */
+    boolean tryAcquire() {
+        if (mPermits.tryAcquire()) {
+            return true;
+        }
+        mRejectedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * 归还名额，拍照失败、没有拿到数据时调用
+     */
+    void release() {
+        mPermits.release();
+    }
+
+    /**
+     * 提交保存，调用前必须已经{@link #acquire()}
+     *
+     * @param data            相机返回的JPEG数据
+     * @param degree          转正所需的顺时针旋转角度
+     * @param mirror          旋转后是否水平镜像
+     * @param path            文件路径
+     * @param format          保存格式
+     * @param jpegPassthrough JPEG格式下是否直写相机数据
+     * @param callback        保存结果回调
+     */
+    void submit(final byte[] data, final int degree, final boolean mirror, final String path,
+                final Bitmap.CompressFormat format, final boolean jpegPassthrough,
+                final SaveCallback callback) {
+        mPendingCount.incrementAndGet();
+        mInFlightBytes.addAndGet(data.length);
+        if (jpegPassthrough && format == Bitmap.CompressFormat.JPEG) {
+            mWriteExecutor.execute(new SaveTask(path, data.length, null, callback) {
+                @Override
+                public void run() {
+                    writeJpeg(data, data.length, degree, mirror, path, callback);
+                }
+            });
+            return;
+        }
+        mDecodeExecutor.execute(new SaveTask(path, data.length, null, callback) {
+            @Override
+            public void run() {
+                decodeAndWrite(data, data.length, degree, mirror, path, format, callback);
+            }
+        });
+    }
+
+    /**
+     * 提交一帧NV21预览帧保存，调用前必须已经{@link #acquire()}
+     *
+     * @param nv21            预览帧，提交后不能再修改
+     * @param width           预览宽
+     * @param height          预览高
+     * @param degree          转正所需的顺时针旋转角度
+     * @param mirror          旋转后是否水平镜像
+     * @param path            文件路径
+     * @param format          保存格式
+     * @param jpegPassthrough JPEG格式下是否直写编码结果
+     * @param callback        保存结果回调
+     */
+    void submitNv21(final byte[] nv21, final int width, final int height,
+                    final int degree, final boolean mirror, final String path,
+                    final Bitmap.CompressFormat format, final boolean jpegPassthrough,
+                    final SaveCallback callback) {
+        mPendingCount.incrementAndGet();
+        mInFlightBytes.addAndGet(nv21.length);
+        mDecodeExecutor.execute(new SaveTask(path, nv21.length, null, callback) {
+            @Override
+            public void run() {
+                //在YUV域一次完成旋转与镜像，编码出的JPEG已是正向
+                long startNanos = System.nanoTime();
+                byte[] upright = new byte[nv21.length];
+                YuvTransform.transformNv21(nv21, width, height, upright, degree, mirror);
+                byte[] jpeg = CameraUtil.nv21ToJpeg(upright,
+                        YuvTransform.getOutputWidth(width, height, degree),
+                        YuvTransform.getOutputHeight(width, height, degree));
+                mMetrics.recordSince(CameraMetrics.EVENT_ENCODE, startNanos);
+                if (jpeg == null) {
+                    finish(nv21.length, path, null, false, callback);
+                    return;
+                }
+                final long jpegBytes = jpeg.length;
+                mInFlightBytes.addAndGet(jpegBytes - nv21.length);
+                if (jpegPassthrough && format == Bitmap.CompressFormat.JPEG) {
+                    final byte[] data = jpeg;
+                    mWriteExecutor.execute(new SaveTask(path, jpegBytes, null, callback) {
+                        @Override
+                        public void run() {
+                            writeJpeg(data, jpegBytes, 0, false, path, callback);
+                        }
+                    });
+                } else {
+                    decodeAndWrite(jpeg, jpegBytes, 0, false, path, format, callback);
+                }
+            }
+        });
+    }
+
+    /**
+     * 写入阶段：JPEG直写
+     */
+    private void writeJpeg(byte[] data, long bytes, int degree, boolean mirror, String path, SaveCallback callback) {
+        //组提交时写入后可能立即随整组重命名并回调，预览图需要先准备好；其它情况写入后再解码，不拖慢落盘
+        boolean groupCommit = isGroupCommit();
+        Bitmap preview = groupCommit ? CameraUtil.decodePreview(data, degree, mirror) : null;
+        long startNanos = System.nanoTime();
+        beginWrite(path, bytes, preview, callback);
+        boolean success = CameraUtil.writeJpeg(mWriter, data, degree, mirror, path);
+        mMetrics.recordSince(CameraMetrics.EVENT_WRITE, startNanos);
+        if (!groupCommit && success) {
+            preview = CameraUtil.decodePreview(data, degree, mirror);
+        }
+        endWrite(path, bytes, preview, success, callback);
+    }
+
+    /**
+     * 解码阶段：解码并转正，之后交给写入阶段
+     */
+    private void decodeAndWrite(byte[] data, long bytes, int degree, boolean mirror, final String path,
+                                final Bitmap.CompressFormat format, final SaveCallback callback) {
+        long startNanos = System.nanoTime();
+        final Bitmap bitmap = CameraUtil.decodeAndTransform(data, degree, mirror);
+        mMetrics.recordSince(CameraMetrics.EVENT_ENCODE, startNanos);
+        if (bitmap == null) {
+            finish(bytes, path, null, false, callback);
+            return;
+        }
+        //原始数据已不再需要，改为统计图片占用的内存
+        final long bitmapBytes = bitmap.getAllocationByteCount();
+        mInFlightBytes.addAndGet(bitmapBytes - bytes);
+        mWriteExecutor.execute(new SaveTask(path, bitmapBytes, bitmap, callback) {
+            @Override
+            public void run() {
+                long startNanos = System.nanoTime();
+                beginWrite(path, bitmapBytes, bitmap, callback);
+                boolean success = CameraUtil.writeBitmap(mWriter, bitmap, format, path);
+                mMetrics.recordSince(CameraMetrics.EVENT_WRITE, startNanos);
+                endWrite(path, bitmapBytes, bitmap, success, callback);
+            }
+        });
+    }
+
+    private boolean isGroupCommit() {
+        return mWriter.getDurability() == CaptureWriter.Durability.GROUP_COMMIT;
+    }
+
+    /**
+     * 组提交时先登记，写入过程中整组同步也能找到回调
+     */
+    private void beginWrite(String path, long bytes, Bitmap bitmap, SaveCallback callback) {
+        if (isGroupCommit()) {
+            mAwaitingSync.put(new File(path).getPath(), new AwaitingSync(bytes, bitmap, callback));
+        }
+    }
+
+    /**
+     * 写入结束：组提交成功时等同步重命名后再回调，其它情况立即回调
+     */
+    private void endWrite(String path, long bytes, Bitmap bitmap, boolean success, SaveCallback callback) {
+        if (!isGroupCommit()) {
+            finish(bytes, path, bitmap, success, callback);
+            return;
+        }
+        if (!success && mAwaitingSync.remove(new File(path).getPath()) != null) {
+            finish(bytes, path, bitmap, false, callback);
+        }
+        if (mPendingCount.get() <= mAwaitingSync.size()) {
+            //流水线中只剩等待同步的照片，不再等凑满一组
+            mWriter.sync();
+        }
+    }
+
+    private void finish(long bytes, final String path, final Bitmap bitmap, final boolean success,
+                        final SaveCallback callback) {
+        mInFlightBytes.addAndGet(-bytes);
+        mPendingCount.decrementAndGet();
+        mPermits.release();
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (callback == null) {
+                    return;
+                }
+                if (success) {
+                    callback.onSaved(path, bitmap);
+                } else {
+                    callback.onFailed(path);
+                }
+            }
+        });
+    }
+
+    /**
+     * 停止接收新的任务，已提交的任务会继续执行完，之后同步等待组提交的文件
+     */
+    void shutdown() {
+        mDecodeExecutor.shutdown();
+        //解码阶段的任务还会向写入阶段交接，在后台等它们完成后再关闭写入阶段，不阻塞调用线程
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mDecodeExecutor.awaitTermination(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                mWriteExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mWriter.sync();
+                    }
+                });
+                mWriteExecutor.shutdown();
+            }
+        }, "CaptureShutdown");
+        thread.start();
+    }
+
+    /**
+     * @return 文件写入，可读取写入耗时与速度
+     */
+    public CaptureWriter getWriter() {
+        return mWriter;
+    }
+
+    /**
+     * @return 流水线中尚未保存完成的图片数
+     */
+    public int getPendingCount() {
+        return mPendingCount.get();
+    }
+
+    /**
+     * @return 解码阶段排队中的图片数
+     */
+    public int getDecodeQueueDepth() {
+        return mDecodeExecutor.getQueue().size();
+    }
+
+    /**
+     * @return 写入阶段排队中的图片数
+     */
+    public int getWriteQueueDepth() {
+        return mWriteExecutor.getQueue().size();
+    }
+
+    /**
+     * @return 流水线中图像数据（原始数据或解码后的图片）占用的字节数
+     */
+    public long getInFlightBytes() {
+        return mInFlightBytes.get();
+    }
+
+    /**
+     * @return 因达到上限被拒绝的拍照次数
+     */
+    public long getRejectedCount() {
+        return mRejectedCount.get();
+    }
+}
@@ -0,0 +1,503 @@
+package org.liaohailong.cameralibrary.camera;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Describe as : 照片与录像的存储管理
+ * <p>
+ * 1，文件按日期分到子目录（yyyy-MM-dd），文件名为毫秒级时间，同一毫秒内顺延，保证单调递增不重名
+ * 2，时间格式化复用一个Calendar，不再每次创建SimpleDateFormat
+ * 3，保存完成的文件追加记录到索引文件（路径、大小、时间、类型），列出文件不需要扫描目录，删除记录过多时压缩索引
+ * 4，超出字节数或文件数配额时，在后台线程从最旧的文件开始删除；刚保存的文件不会被删除，单个文件就超出配额时只记录一次超额
+ * <p>
+ * 索引读写与删除都在一个后台线程顺序执行，空闲时线程自动退出
+ */
+
+public final class CaptureStore {
+    public static final int TYPE_PICTURE = 0;
+    public static final int TYPE_VIDEO = 1;
+
+    private static final String TAG = "CaptureStore";
+
+    static final String INDEX_FILE_NAME = ".capture_index";
+    private static final String RECORD_ADD = "A";
+    private static final String RECORD_DELETE = "D";
+    private static final long IDLE_TIMEOUT_MS = 10 * 1000;
+
+    /**
+     * 一条存储记录
+     */
+    public static final class Entry {
+        private final String mPath;
+        private final long mSize;
+        private final long mTimestamp;
+        private final int mType;
+
+        Entry(String path, long size, long timestamp, int type) {
+            mPath = path;
+            mSize = size;
+            mTimestamp = timestamp;
+            mType = type;
+        }
+
+        /**
+         * @return 文件绝对路径
+         */
+        public String getPath() {
+            return mPath;
+        }
+
+        public long getSize() {
+            return mSize;
+        }
+
+        /**
+         * @return 保存完成的时间（System.currentTimeMillis）
+         */
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        /**
+         * @return {@link #TYPE_PICTURE}或{@link #TYPE_VIDEO}
+         */
+        public int getType() {
+            return mType;
+        }
+    }
+
+    private final File mRoot;
+    private final File mIndexFile;
+    private final long mMaxBytes;
+    private final int mMaxCount;
+    private final ThreadPoolExecutor mExecutor;//空闲一段时间后线程自动退出，不需要关闭
+
+    //命名相关，newPath时加锁
+    private final Calendar mCalendar = Calendar.getInstance();
+    private final StringBuilder mNameBuilder = new StringBuilder(32);
+    private long mLastStamp = 0;
+    private long mShardDayStart = -1;
+    private long mShardDayEnd = -1;
+    private File mShardDirectory;
+
+    //索引内容，按保存顺序排列，最旧的在前
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>();
+    private long mTotalBytes = 0;
+    private int mDeleteRecords = 0;//索引中的删除记录数，用于判断是否需要压缩
+    private long mEvictedCount = 0;
+    private long mOverflowCount = 0;//刚保存的文件单独就超出配额的次数
+
+    /**
+     * @param directoryPath 存储根目录
+     * @param maxBytes      字节数配额，0表示不限
+     * @param maxCount      文件数配额，0表示不限
+     */
+    public CaptureStore(String directoryPath, long maxBytes, int maxCount) {
+        mRoot = new File(directoryPath);
+        mIndexFile = new File(mRoot, INDEX_FILE_NAME);
+        mMaxBytes = Math.max(0, maxBytes);
+        mMaxCount = Math.max(0, maxCount);
+        mExecutor = new ThreadPoolExecutor(1, 1, IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "CaptureStore");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadIndex();
+                evictIfNeeded(null);
+            }
+        });
+    }
+
+    /**
+     * 生成新文件的路径，同时创建当天的子目录
+     *
+     * @param suffix 后缀，如".jpeg"，可以为空字符串
+     * @return 文件绝对路径，目录不可用时返回null
+     */
+    public synchronized String newPath(String suffix) {
+        long stamp = Math.max(System.currentTimeMillis(), mLastStamp + 1);
+        File directory = getShardDirectory(stamp);
+        if (directory == null) {
+            return null;
+        }
+        while (true) {
+            mLastStamp = stamp;
+            mCalendar.setTimeInMillis(stamp);
+            mNameBuilder.setLength(0);
+            appendDigits(mNameBuilder, mCalendar.get(Calendar.YEAR), 4);
+            appendDigits(mNameBuilder, mCalendar.get(Calendar.MONTH) + 1, 2);
+            appendDigits(mNameBuilder, mCalendar.get(Calendar.DAY_OF_MONTH), 2);
+            mNameBuilder.append('_');
+            appendDigits(mNameBuilder, mCalendar.get(Calendar.HOUR_OF_DAY), 2);
+            appendDigits(mNameBuilder, mCalendar.get(Calendar.MINUTE), 2);
+            appendDigits(mNameBuilder, mCalendar.get(Calendar.SECOND), 2);
+            mNameBuilder.append('_');
+            appendDigits(mNameBuilder, mCalendar.get(Calendar.MILLISECOND), 3);
+            mNameBuilder.append(suffix);
+            File file = new File(directory, mNameBuilder.toString());
+            //进程重启后时钟回拨时才可能与已有文件重名，顺延到下一毫秒
+            if (!file.exists() && !new File(file.getPath() + CaptureWriter.TEMP_SUFFIX).exists()) {
+                return file.getAbsolutePath();
+            }
+            stamp++;
+        }
+    }
+
+    /**
+     * @return 时间所在日期的子目录，跨天时重新创建
+     */
+    private File getShardDirectory(long stamp) {
+        if (stamp >= mShardDayStart && stamp < mShardDayEnd && mShardDirectory != null) {
+            return mShardDirectory;
+        }
+        mCalendar.setTimeInMillis(stamp);
+        mCalendar.set(Calendar.HOUR_OF_DAY, 0);
+        mCalendar.set(Calendar.MINUTE, 0);
+        mCalendar.set(Calendar.SECOND, 0);
+        mCalendar.set(Calendar.MILLISECOND, 0);
+        mShardDayStart = mCalendar.getTimeInMillis();
+        mNameBuilder.setLength(0);
+        appendDigits(mNameBuilder, mCalendar.get(Calendar.YEAR), 4);
+        mNameBuilder.append('-');
+        appendDigits(mNameBuilder, mCalendar.get(Calendar.MONTH) + 1, 2);
+        mNameBuilder.append('-');
+        appendDigits(mNameBuilder, mCalendar.get(Calendar.DAY_OF_MONTH), 2);
+        mCalendar.add(Calendar.DAY_OF_MONTH, 1);
+        mShardDayEnd = mCalendar.getTimeInMillis();
+        File directory = new File(mRoot, mNameBuilder.toString());
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            mShardDirectory = null;
+            mShardDayStart = -1;
+            return null;
+        }
+        mShardDirectory = directory;
+        return directory;
+    }
+
+    private static void appendDigits(StringBuilder builder, int value, int width) {
+        int digits = 1;
+        for (int limit = 10; value >= limit && digits < 10; limit *= 10) {
+            digits++;
+        }
+        for (int i = digits; i < width; i++) {
+            builder.append('0');
+        }
+        builder.append(value);
+    }
+
+    /**
+     * 文件保存完成，写入索引，超出配额时删除最旧的文件
+     *
+     * @param path 文件路径
+     * @param type {@link #TYPE_PICTURE}或{@link #TYPE_VIDEO}
+     */
+    public void add(final String path, final int type) {
+        if (path == null) {
+            return;
+        }
+        final long timestamp = System.currentTimeMillis();
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                File file = new File(path);
+                if (!file.isFile()) {
+                    return;
+                }
+                Entry entry = new Entry(file.getAbsolutePath(), file.length(), timestamp, type);
+                synchronized (mEntries) {
+                    Entry previous = mEntries.remove(entry.mPath);
+                    if (previous != null) {
+                        mTotalBytes -= previous.mSize;
+                    }
+                    mEntries.put(entry.mPath, entry);
+                    mTotalBytes += entry.mSize;
+                }
+                appendRecord(RECORD_ADD, entry);
+                evictIfNeeded(entry);
+            }
+        });
+    }
+
+    /**
+     * 删除文件并移出索引
+     *
+     * @param path 文件路径
+     */
+    public void remove(final String path) {
+        if (path == null) {
+            return;
+        }
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                Entry entry;
+                synchronized (mEntries) {
+                    entry = mEntries.get(new File(path).getAbsolutePath());
+                }
+                if (entry != null) {
+                    delete(entry);
+                } else {
+                    deleteFile(new File(path));
+                }
+            }
+        });
+    }
+
+    /**
+     * @return 索引中的全部文件，最旧的在前；刚创建时索引可能尚未加载完成
+     */
+    public List<Entry> list() {
+        synchronized (mEntries) {
+            return new ArrayList<>(mEntries.values());
+        }
+    }
+
+    /**
+     * @return 索引中文件的总字节数
+     */
+    public long getTotalBytes() {
+        synchronized (mEntries) {
+            return mTotalBytes;
+        }
+    }
+
+    public int getCount() {
+        synchronized (mEntries) {
+            return mEntries.size();
+        }
+    }
+
+    /**
+     * @return 刚保存的文件单独就超出配额（如一段很长的录像）的次数，这类文件会保留
+     */
+    public long getOverflowCount() {
+        synchronized (mEntries) {
+            return mOverflowCount;
+        }
+    }
+
+    /**
+     * @return 因超出配额删除的文件数
+     */
+    public long getEvictedCount() {
+        synchronized (mEntries) {
+            return mEvictedCount;
+        }
+    }
+
+    private void execute(Runnable runnable) {
+        mExecutor.execute(runnable);
+    }
+
+    /**
+     * 超出配额时从最旧的文件开始删除，在后台线程执行
+     *
+     * @param keep 刚保存的文件，已经回调给使用方，不会被删除；可以为空
+     */
+    private void evictIfNeeded(Entry keep) {
+        while (true) {
+            Entry oldest;
+            synchronized (mEntries) {
+                boolean overBytes = mMaxBytes > 0 && mTotalBytes > mMaxBytes;
+                boolean overCount = mMaxCount > 0 && mEntries.size() > mMaxCount;
+                if ((!overBytes && !overCount) || mEntries.isEmpty()) {
+                    return;
+                }
+                oldest = mEntries.values().iterator().next();
+                if (oldest == keep) {
+                    //只剩刚保存的文件，它单独就超出配额
+                    mOverflowCount++;
+                    Log.i(TAG, "capture exceeds quota, keep it path = " + keep.mPath
+                            + " size = " + keep.mSize + " maxBytes = " + mMaxBytes);
+                    return;
+                }
+                mEvictedCount++;
+            }
+            delete(oldest);
+        }
+    }
+
+    private void delete(Entry entry) {
+        deleteFile(new File(entry.mPath));
+        synchronized (mEntries) {
+            if (mEntries.remove(entry.mPath) != null) {
+                mTotalBytes -= entry.mSize;
+            }
+        }
+        appendRecord(RECORD_DELETE, entry);
+        mDeleteRecords++;
+        compactIfNeeded();
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * 读取索引文件，重放新增与删除记录；文件已被外部删除的记录直接丢弃
+     */
+    private void loadIndex() {
+        if (!mIndexFile.isFile()) {
+            return;
+        }
+        LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+        int deleteRecords = 0;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(mIndexFile));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Entry entry = parseRecord(line);
+                if (entry == null) {
+                    //崩溃时最后一行可能不完整
+                    continue;
+                }
+                if (line.startsWith(RECORD_DELETE)) {
+                    entries.remove(entry.mPath);
+                    deleteRecords++;
+                } else {
+                    entries.remove(entry.mPath);
+                    entries.put(entry.mPath, entry);
+                }
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        } finally {
+            closeQuietly(reader);
+        }
+        int missing = 0;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (!new File(iterator.next().mPath).isFile()) {
+                iterator.remove();
+                missing++;
+            }
+        }
+        synchronized (mEntries) {
+            mEntries.clear();
+            mEntries.putAll(entries);
+            mTotalBytes = 0;
+            for (Entry entry : entries.values()) {
+                mTotalBytes += entry.mSize;
+            }
+        }
+        mDeleteRecords = deleteRecords + missing;
+        compactIfNeeded();
+    }
+
+    /**
+     * 记录格式：类型标记\t时间\t文件类型\t大小\t相对路径
+     */
+    private Entry parseRecord(String line) {
+        String[] fields = line.split("\t");
+        if (fields.length != 5 || !(RECORD_ADD.equals(fields[0]) || RECORD_DELETE.equals(fields[0]))) {
+            return null;
+        }
+        try {
+            return new Entry(new File(mRoot, fields[4]).getAbsolutePath(),
+                    Long.parseLong(fields[3]), Long.parseLong(fields[1]), Integer.parseInt(fields[2]));
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private String formatRecord(String record, Entry entry) {
+        return record + '\t' + entry.mTimestamp + '\t' + entry.mType + '\t' + entry.mSize + '\t'
+                + relativePath(entry.mPath) + '\n';
+    }
+
+    private String relativePath(String path) {
+        String root = mRoot.getAbsolutePath() + File.separator;
+        return path.startsWith(root) ? path.substring(root.length()) : path;
+    }
+
+    private void appendRecord(String record, Entry entry) {
+        if (!mRoot.isDirectory() && !mRoot.mkdirs()) {
+            return;
+        }
+        //每条记录单独打开追加，进程被杀时不丢索引，也不需要关闭
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(mIndexFile, true), "UTF-8");
+            writer.write(formatRecord(record, entry));
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    /**
+     * 删除记录多于有效记录时重写索引：先写临时文件再重命名
+     */
+    private void compactIfNeeded() {
+        int count;
+        synchronized (mEntries) {
+            count = mEntries.size();
+        }
+        if (mDeleteRecords <= Math.max(64, count)) {
+            return;
+        }
+        List<Entry> entries = list();
+        File temp = new File(mIndexFile.getPath() + CaptureWriter.TEMP_SUFFIX);
+        Writer writer = null;
+        boolean success = false;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+            for (Entry entry : entries) {
+                writer.write(formatRecord(RECORD_ADD, entry));
+            }
+            writer.flush();
+            success = true;
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        } finally {
+            closeQuietly(writer);
+        }
+        if (success && temp.renameTo(mIndexFile)) {
+            mDeleteRecords = 0;
+        } else {
+            deleteFile(temp);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+}
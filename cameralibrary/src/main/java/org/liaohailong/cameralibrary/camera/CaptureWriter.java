@@ -0,0 +1,435 @@
+package org.liaohailong.cameralibrary.camera;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Describe as : 拍照文件写入
+ * <p>
+ * 1，通过{@link FileChannel}写入，数据先攒进复用的大块直接内存缓冲区，写满后整块写出，不再经过8KB的BufferedOutputStream
+ * 2，先写同目录下的临时文件，同步后再重命名为目标文件，崩溃时目标文件名下不会出现写了一半的图片
+ * 3，落盘策略见{@link Durability}，越可靠越慢；文件重命名为目标文件后通过{@link CommitListener}通知
+ * 4，统计每个文件的写入耗时与整体写入速度
+ * <p>
+ * 只依赖JDK，可以在JVM上测试；多个写入线程可以共用一个实例
+ */
+
+public final class CaptureWriter {
+
+    /**
+     * 落盘策略
+     */
+    public enum Durability {
+        /**
+         * 不主动同步，交给系统回写，最快；断电时最近的文件可能不完整
+         */
+        NONE,
+        /**
+         * 每个文件重命名之前同步数据（fdatasync），重命名后的文件一定是完整的
+         */
+        FDATASYNC,
+        /**
+         * 每N个文件同步一次，同步后整组一起重命名；断电时最多丢失最近N个文件，但不会留下不完整的目标文件
+         */
+        GROUP_COMMIT
+    }
+
+    /**
+     * 文件重命名为目标文件（或重命名失败）时回调，在执行重命名的线程回调
+     */
+    interface CommitListener {
+        void onCommitted(String path, boolean success);
+    }
+
+    /**
+     * 已写完、等待组提交同步后重命名的文件
+     */
+    private static final class PendingFile {
+        final File target;
+        final File temp;
+        final FileChannel channel;
+        final long bytes;
+
+        PendingFile(File target, File temp, FileChannel channel, long bytes) {
+            this.target = target;
+            this.temp = temp;
+            this.channel = channel;
+            this.bytes = bytes;
+        }
+    }
+
+    static final String TEMP_SUFFIX = ".tmp";
+    public static final int DEFAULT_BUFFER_BYTES = 512 * 1024;
+
+    private final Durability mDurability;
+    private final int mGroupCommitCount;
+    private final int mBufferBytes;
+    private final ArrayDeque<ByteBuffer> mBuffers = new ArrayDeque<>();//空闲的缓冲区，数量不超过同时写入的线程数
+    private final ArrayList<PendingFile> mUnsynced = new ArrayList<>();//等待组提交的文件，仍是临时文件名
+    private volatile CommitListener mCommitListener;
+
+    //统计
+    private long mFileCount = 0;
+    private long mFailedCount = 0;
+    private long mTotalBytes = 0;
+    private long mTotalNanos = 0;
+    private long mMaxNanos = 0;
+    private long mLastNanos = 0;
+    private long mSyncCount = 0;
+
+    /**
+     * @param durability       落盘策略
+     * @param groupCommitCount 组提交的文件数，只在{@link Durability#GROUP_COMMIT}时使用
+     * @param bufferBytes      缓冲区大小
+     */
+    public CaptureWriter(Durability durability, int groupCommitCount, int bufferBytes) {
+        mDurability = durability == null ? Durability.NONE : durability;
+        mGroupCommitCount = Math.max(1, groupCommitCount);
+        mBufferBytes = Math.max(4096, bufferBytes);
+    }
+
+    public Durability getDurability() {
+        return mDurability;
+    }
+
+    /**
+     * @param listener 文件出现在目标路径时的通知，组提交时在同步之后才会通知
+     */
+    void setCommitListener(CommitListener listener) {
+        mCommitListener = listener;
+    }
+
+    /**
+     * 打开一个待写入的文件，写完后必须调用{@link Output#commit()}或{@link Output#abort()}
+     *
+     * @param path 目标文件路径
+     * @return 写入流
+     * @throws IOException 临时文件创建失败
+     */
+    public Output open(String path) throws IOException {
+        File target = new File(path);
+        File temp = new File(path + TEMP_SUFFIX);
+        FileChannel channel = new FileOutputStream(temp).getChannel();
+        return new Output(target, temp, channel, acquireBuffer());
+    }
+
+    /**
+     * 写入一整块数据
+     *
+     * @param path   目标文件路径
+     * @param data   数据
+     * @param offset 起始位置
+     * @param length 长度
+     * @return 是否写入成功；组提交时文件在同一组同步后才出现在目标路径
+     */
+    public boolean write(String path, byte[] data, int offset, int length) {
+        Output output = null;
+        try {
+            output = open(path);
+            output.write(data, offset, length);
+            output.commit();
+            return true;
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return false;
+        } finally {
+            if (output != null) {
+                output.close();
+            }
+        }
+    }
+
+    /**
+     * 立即同步所有等待组提交的文件并重命名为目标文件，停止拍照或退出时调用
+     */
+    public void sync() {
+        ArrayList<PendingFile> files;
+        synchronized (mUnsynced) {
+            if (mUnsynced.isEmpty()) {
+                return;
+            }
+            files = new ArrayList<>(mUnsynced);
+            mUnsynced.clear();
+        }
+        for (PendingFile file : files) {
+            boolean success = false;
+            try {
+                file.channel.force(false);
+                success = true;
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            } finally {
+                closeChannel(file.channel);
+            }
+            //数据落盘之后再重命名，目标文件名下一定是完整的文件
+            success = success && file.temp.renameTo(file.target);
+            if (!success) {
+                deleteFile(file.temp);
+                onGroupFileFailed(file.bytes);
+            }
+            notifyCommitted(file.target, success);
+        }
+        synchronized (this) {
+            mSyncCount++;
+        }
+    }
+
+    private ByteBuffer acquireBuffer() {
+        synchronized (mBuffers) {
+            ByteBuffer buffer = mBuffers.poll();
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(mBufferBytes);
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        synchronized (mBuffers) {
+            mBuffers.push(buffer);
+        }
+    }
+
+    /**
+     * 组提交：文件保持打开并沿用临时文件名，同一组写满后一起同步、重命名
+     */
+    private void enqueueGroup(PendingFile file) {
+        boolean full;
+        synchronized (mUnsynced) {
+            mUnsynced.add(file);
+            full = mUnsynced.size() >= mGroupCommitCount;
+        }
+        if (full) {
+            sync();
+        }
+    }
+
+    private void notifyCommitted(File target, boolean success) {
+        CommitListener listener = mCommitListener;
+        if (listener != null) {
+            listener.onCommitted(target.getPath(), success);
+        }
+    }
+
+    /**
+     * 组提交的文件同步或重命名失败，从成功统计中移到失败统计
+     */
+    private synchronized void onGroupFileFailed(long bytes) {
+        mFileCount--;
+        mTotalBytes -= bytes;
+        mFailedCount++;
+    }
+
+    private synchronized void record(long bytes, long nanos, boolean success) {
+        if (!success) {
+            mFailedCount++;
+            return;
+        }
+        mFileCount++;
+        mTotalBytes += bytes;
+        mTotalNanos += nanos;
+        mLastNanos = nanos;
+        if (nanos > mMaxNanos) {
+            mMaxNanos = nanos;
+        }
+    }
+
+    private static void closeChannel(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * @return 写入成功的文件数，包括等待组提交的文件
+     */
+    public synchronized long getFileCount() {
+        return mFileCount;
+    }
+
+    /**
+     * @return 写入失败或放弃的文件数
+     */
+    public synchronized long getFailedCount() {
+        return mFailedCount;
+    }
+
+    /**
+     * @return 写入成功的总字节数
+     */
+    public synchronized long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * @return 每个文件从打开到重命名完成的平均耗时（微秒）
+     */
+    public synchronized long getAverageLatencyUs() {
+        return mFileCount == 0 ? 0 : mTotalNanos / mFileCount / 1000;
+    }
+
+    /**
+     * @return 单个文件的最大写入耗时（微秒）
+     */
+    public synchronized long getMaxLatencyUs() {
+        return mMaxNanos / 1000;
+    }
+
+    /**
+     * @return 最近一个文件的写入耗时（微秒）
+     */
+    public synchronized long getLastLatencyUs() {
+        return mLastNanos / 1000;
+    }
+
+    /**
+     * @return 写入速度（字节/秒），按写入耗时计算，不含排队时间
+     */
+    public synchronized long getBytesPerSecond() {
+        return mTotalNanos == 0 ? 0 : (long) (mTotalBytes * 1e9 / mTotalNanos);
+    }
+
+    /**
+     * @return 组提交的同步次数
+     */
+    public synchronized long getSyncCount() {
+        return mSyncCount;
+    }
+
+    /**
+     * 写入流，数据写入临时文件，{@link #commit()}后重命名为目标文件
+     */
+    public final class Output extends OutputStream {
+        private final File mTarget;
+        private final File mTemp;
+        private final FileChannel mChannel;
+        private final long mStartNanos = System.nanoTime();
+        private ByteBuffer mBuffer;
+        private long mBytes = 0;
+        private boolean isFinished = false;
+
+        private Output(File target, File temp, FileChannel channel, ByteBuffer buffer) {
+            mTarget = target;
+            mTemp = temp;
+            mChannel = channel;
+            mBuffer = buffer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+            if (!mBuffer.hasRemaining()) {
+                drain();
+            }
+            mBuffer.put((byte) b);
+            mBytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            mBytes += len;
+            while (len > 0) {
+                if (!mBuffer.hasRemaining()) {
+                    drain();
+                }
+                int count = Math.min(len, mBuffer.remaining());
+                mBuffer.put(b, off, count);
+                off += count;
+                len -= count;
+            }
+        }
+
+        private void drain() throws IOException {
+            mBuffer.flip();
+            while (mBuffer.hasRemaining()) {
+                mChannel.write(mBuffer);
+            }
+            mBuffer.clear();
+        }
+
+        private void ensureOpen() throws IOException {
+            if (isFinished) {
+                throw new IOException("output already finished: " + mTarget);
+            }
+        }
+
+        /**
+         * 写出剩余数据，按落盘策略同步后重命名为目标文件；
+         * 组提交时保留临时文件名，等同一组同步后再重命名
+         *
+         * @throws IOException 写入或重命名失败，此时临时文件已删除
+         */
+        public void commit() throws IOException {
+            ensureOpen();
+            boolean success = false;
+            boolean grouped = false;
+            try {
+                drain();
+                if (mDurability == Durability.GROUP_COMMIT) {
+                    grouped = true;
+                } else {
+                    if (mDurability == Durability.FDATASYNC) {
+                        mChannel.force(false);
+                    }
+                    if (!mTemp.renameTo(mTarget)) {
+                        throw new IOException("rename failed: " + mTemp + " to " + mTarget);
+                    }
+                }
+                success = true;
+            } finally {
+                finish(success, !grouped || !success);
+            }
+            if (grouped) {
+                enqueueGroup(new PendingFile(mTarget, mTemp, mChannel, mBytes));
+            } else {
+                notifyCommitted(mTarget, true);
+            }
+        }
+
+        /**
+         * 放弃写入，删除临时文件
+         */
+        public void abort() {
+            if (!isFinished) {
+                finish(false, true);
+            }
+        }
+
+        /**
+         * 没有提交时等同于{@link #abort()}
+         */
+        @Override
+        public void close() {
+            abort();
+        }
+
+        private void finish(boolean success, boolean closeChannel) {
+            isFinished = true;
+            if (closeChannel) {
+                closeChannel(mChannel);
+            }
+            if (!success) {
+                deleteFile(mTemp);
+            }
+            releaseBuffer(mBuffer);
+            mBuffer = null;
+            record(mBytes, System.nanoTime() - mStartNanos, success);
+        }
+    }
+}
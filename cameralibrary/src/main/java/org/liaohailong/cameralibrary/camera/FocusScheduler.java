@@ -0,0 +1,232 @@
+package org.liaohailong.cameralibrary.camera;
+
+/**
+ * Describe as : 按画面清晰度与场景变化调度对焦，取代固定间隔的自动对焦
+ * <p>
+ * 1，在预览帧的Y平面上稀疏采样，计算清晰度（相邻像素差之和）与分块平均亮度
+ * 2，对焦完成后记录一次参考值，之后清晰度明显下降或场景变化超过阈值，且画面已稳定时才触发对焦
+ * 3，连续多次采样满足条件才触发，两次对焦之间有最小间隔，避免反复拉风箱
+ * 4，记录最近的对焦时间，用于统计每分钟对焦次数
+ * <p>
+ * 只在使用{@link android.hardware.Camera.Parameters#FOCUS_MODE_AUTO}时启用，连续对焦模式由相机自行处理
+ */
+
+final class FocusScheduler {
+
+    interface Host {
+        /**
+         * 需要对焦，在预览回调线程调用
+         */
+        void triggerFocus();
+    }
+
+    private static final int SAMPLE_COLUMNS = 32;
+    private static final int SAMPLE_ROWS = 24;
+    private static final int CELL_COLUMNS = 4;
+    private static final int CELL_ROWS = 4;
+    private static final long SAMPLE_INTERVAL_NANOS = 100L * 1000000;//两次采样的最小间隔
+    private static final long MIN_SWEEP_INTERVAL_NANOS = 1000L * 1000000;//两次对焦的最小间隔
+    private static final long MINUTE_NANOS = 60L * 1000 * 1000000;
+    private static final int SHARPNESS_DROP_PERCENT = 30;//清晰度下降超过参考值的30%
+    private static final int SCENE_CHANGE_THRESHOLD = 12;//分块平均亮度与参考值的平均差
+    private static final int STABLE_THRESHOLD = 4;//相邻两次采样的平均差低于此值视为画面稳定
+    private static final int CONFIRM_SAMPLES = 3;//连续满足条件的采样次数
+
+    private final Host mHost;
+    private boolean isEnabled = false;
+    private boolean isFocusing = false;
+
+    //采样位置，预览尺寸变化时重建
+    private int mWidth = -1;
+    private int mHeight = -1;
+    private final int[] mSampleOffsets = new int[SAMPLE_COLUMNS * SAMPLE_ROWS];
+    private final int[] mSampleCells = new int[SAMPLE_COLUMNS * SAMPLE_ROWS];
+    private final int[] mCellCounts = new int[CELL_COLUMNS * CELL_ROWS];
+
+    private final int[] mCells = new int[CELL_COLUMNS * CELL_ROWS];
+    private final int[] mPreviousCells = new int[CELL_COLUMNS * CELL_ROWS];
+    private final int[] mReferenceCells = new int[CELL_COLUMNS * CELL_ROWS];
+    private boolean hasPrevious = false;
+    private boolean hasReference = false;
+    private int mSharpness = 0;
+    private int mReferenceSharpness = 0;
+    private int mPendingSamples = 0;
+    private long mLastSampleNanos = 0;
+    private long mLastSweepEndNanos = 0;
+
+    //最近的对焦开始时间，环形保存
+    private final long[] mSweepTimes = new long[64];
+    private int mSweepIndex = 0;
+    private long mSweepCount = 0;
+
+    FocusScheduler(Host host) {
+        mHost = host;
+    }
+
+    synchronized void setEnabled(boolean enabled) {
+        isEnabled = enabled;
+        isFocusing = false;
+        hasReference = false;
+        hasPrevious = false;
+        mPendingSamples = 0;
+    }
+
+    synchronized boolean isEnabled() {
+        return isEnabled;
+    }
+
+    /**
+     * 预览帧到达，Y平面在数据开头
+     *
+     * @param yuv            预览帧
+     * @param width          预览宽
+     * @param height         预览高
+     * @param timestampNanos 帧到达时间（System.nanoTime）
+     */
+    void onPreviewFrame(byte[] yuv, int width, int height, long timestampNanos) {
+        boolean trigger;
+        synchronized (this) {
+            if (!isEnabled || isFocusing || timestampNanos - mLastSampleNanos < SAMPLE_INTERVAL_NANOS) {
+                return;
+            }
+            if (width < 2 || height < 2 || yuv == null || yuv.length < width * height) {
+                return;
+            }
+            mLastSampleNanos = timestampNanos;
+            sample(yuv, width, height);
+            trigger = evaluate(timestampNanos);
+        }
+        if (trigger) {
+            mHost.triggerFocus();
+        }
+    }
+
+    private void sample(byte[] yuv, int width, int height) {
+        if (width != mWidth || height != mHeight) {
+            prepare(width, height);
+        }
+        for (int i = 0; i < mCells.length; i++) {
+            mCells[i] = 0;
+        }
+        int sharpness = 0;
+        for (int i = 0; i < mSampleOffsets.length; i++) {
+            int offset = mSampleOffsets[i];
+            int value = yuv[offset] & 0xff;
+            sharpness += Math.abs(value - (yuv[offset + 1] & 0xff));
+            sharpness += Math.abs(value - (yuv[offset + width] & 0xff));
+            mCells[mSampleCells[i]] += value;
+        }
+        for (int i = 0; i < mCells.length; i++) {
+            mCells[i] /= mCellCounts[i];
+        }
+        mSharpness = sharpness;
+    }
+
+    private void prepare(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        for (int i = 0; i < mCellCounts.length; i++) {
+            mCellCounts[i] = 0;
+        }
+        for (int row = 0; row < SAMPLE_ROWS; row++) {
+            //采样点均匀分布在画面内，留出右侧与下方一个像素计算相邻差
+            int y = (int) ((row * 2L + 1) * (height - 1) / (SAMPLE_ROWS * 2));
+            int cellRow = row * CELL_ROWS / SAMPLE_ROWS;
+            for (int column = 0; column < SAMPLE_COLUMNS; column++) {
+                int x = (int) ((column * 2L + 1) * (width - 1) / (SAMPLE_COLUMNS * 2));
+                int index = row * SAMPLE_COLUMNS + column;
+                int cell = cellRow * CELL_COLUMNS + column * CELL_COLUMNS / SAMPLE_COLUMNS;
+                mSampleOffsets[index] = y * width + x;
+                mSampleCells[index] = cell;
+                mCellCounts[cell]++;
+            }
+        }
+        hasPrevious = false;
+        hasReference = false;
+    }
+
+    /**
+     * @return 是否需要对焦
+     */
+    private boolean evaluate(long timestampNanos) {
+        boolean stable = hasPrevious && difference(mCells, mPreviousCells) < STABLE_THRESHOLD;
+        System.arraycopy(mCells, 0, mPreviousCells, 0, mCells.length);
+        hasPrevious = true;
+        if (!hasReference) {
+            //对焦完成后的第一次采样作为参考
+            System.arraycopy(mCells, 0, mReferenceCells, 0, mCells.length);
+            mReferenceSharpness = mSharpness;
+            hasReference = true;
+            return false;
+        }
+        boolean sharpnessDropped = mSharpness * 100L < mReferenceSharpness * (100L - SHARPNESS_DROP_PERCENT);
+        boolean sceneChanged = difference(mCells, mReferenceCells) > SCENE_CHANGE_THRESHOLD;
+        if (!sharpnessDropped && !sceneChanged) {
+            mPendingSamples = 0;
+            if (mSharpness > mReferenceSharpness) {
+                //画面比参考时更清晰，以更清晰的为准
+                mReferenceSharpness = mSharpness;
+            }
+            return false;
+        }
+        //画面还在运动时不对焦，等稳定后再对
+        if (!stable || ++mPendingSamples < CONFIRM_SAMPLES
+                || timestampNanos - mLastSweepEndNanos < MIN_SWEEP_INTERVAL_NANOS) {
+            return false;
+        }
+        //由宿主触发对焦时调用onFocusStart记录，这里先停止继续触发
+        isFocusing = true;
+        mPendingSamples = 0;
+        return true;
+    }
+
+    private static int difference(int[] a, int[] b) {
+        int sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += Math.abs(a[i] - b[i]);
+        }
+        return sum / a.length;
+    }
+
+    /**
+     * 开始一次对焦（包括手动对焦）
+     */
+    synchronized void onFocusStart(long timestampNanos) {
+        isFocusing = true;
+        mPendingSamples = 0;
+        mSweepTimes[mSweepIndex] = timestampNanos;
+        mSweepIndex = (mSweepIndex + 1) % mSweepTimes.length;
+        mSweepCount++;
+    }
+
+    /**
+     * 对焦完成，下一次采样重新记录参考值
+     */
+    synchronized void onFocusComplete(long timestampNanos) {
+        isFocusing = false;
+        hasReference = false;
+        mLastSweepEndNanos = timestampNanos;
+    }
+
+    /**
+     * @param nowNanos 当前时间（System.nanoTime）
+     * @return 最近一分钟内的对焦次数
+     */
+    synchronized int getSweepsPerMinute(long nowNanos) {
+        int count = 0;
+        int size = (int) Math.min(mSweepCount, mSweepTimes.length);
+        for (int i = 0; i < size; i++) {
+            if (nowNanos - mSweepTimes[i] <= MINUTE_NANOS) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return 累计对焦次数
+     */
+    synchronized long getSweepCount() {
+        return mSweepCount;
+    }
+}
@@ -0,0 +1,137 @@
+package org.liaohailong.cameralibrary.camera;
+
+/**
+ * Describe as : 按{@link CameraHelper.FpsPolicy}从相机支持的帧率范围中选择预览/录像帧率
+ * <p>
+ * 帧率范围以最小最大值交替排列，单位为帧率 * 1000，与{@link android.hardware.Camera.Parameters#getSupportedPreviewFpsRange()}一致
+ */
+
+final class FpsRangeSelector {
+    private static final int POWER_SAVING_MIN_FPS = 15000;//省电模式下最高帧率不低于15帧，避免预览卡顿
+
+    private FpsRangeSelector() throws IllegalAccessException {
+        throw new IllegalAccessException("no instance!");
+    }
+
+    /**
+     * 选择预览帧率范围
+     *
+     * @param ranges    支持的帧率范围
+     * @param policy    帧率策略
+     * @param targetFps 目标帧率，只在{@link CameraHelper.FpsPolicy#TARGET}时使用
+     * @return {最小值, 最大值}，没有可选范围时返回null
+     */
+    static int[] selectPreviewRange(int[] ranges, CameraHelper.FpsPolicy policy, int targetFps) {
+        if (ranges == null || ranges.length < 2 || policy == null) {
+            return null;
+        }
+        switch (policy) {
+            case MAX_THROUGHPUT:
+                return selectMaxThroughput(ranges);
+            case POWER_SAVING:
+                return selectPowerSaving(ranges);
+            case TARGET:
+                return selectTarget(ranges, targetFps * 1000);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 选择录像帧率范围：录像需要稳定的帧率，优先固定为目标帧率的范围
+     *
+     * @param ranges    支持的帧率范围
+     * @param targetFps 录像帧率
+     * @return {最小值, 最大值}，没有可选范围时返回null
+     */
+    static int[] selectRecordingRange(int[] ranges, int targetFps) {
+        if (ranges == null || ranges.length < 2) {
+            return null;
+        }
+        int target = targetFps * 1000;
+        int best = -1;
+        for (int i = 0; i + 1 < ranges.length; i += 2) {
+            if (ranges[i + 1] < target || ranges[i] > target) {
+                continue;
+            }
+            //包含目标帧率的范围中，最小值越高帧率越稳定
+            if (best < 0 || ranges[i] > ranges[best]
+                    || (ranges[i] == ranges[best] && ranges[i + 1] < ranges[best + 1])) {
+                best = i;
+            }
+        }
+        if (best < 0) {
+            return selectTarget(ranges, target);
+        }
+        return new int[]{ranges[best], ranges[best + 1]};
+    }
+
+    /**
+     * 最高帧率中最小值最高的范围（优先固定帧率）
+     */
+    private static int[] selectMaxThroughput(int[] ranges) {
+        int best = 0;
+        for (int i = 2; i + 1 < ranges.length; i += 2) {
+            if (ranges[i + 1] > ranges[best + 1]
+                    || (ranges[i + 1] == ranges[best + 1] && ranges[i] > ranges[best])) {
+                best = i;
+            }
+        }
+        return new int[]{ranges[best], ranges[best + 1]};
+    }
+
+    /**
+     * 最高帧率不低于15帧中最高帧率最低、最小值最低的范围，允许暗光下降帧
+     */
+    private static int[] selectPowerSaving(int[] ranges) {
+        int best = -1;
+        for (int i = 0; i + 1 < ranges.length; i += 2) {
+            if (ranges[i + 1] < POWER_SAVING_MIN_FPS) {
+                continue;
+            }
+            if (best < 0 || ranges[i + 1] < ranges[best + 1]
+                    || (ranges[i + 1] == ranges[best + 1] && ranges[i] < ranges[best])) {
+                best = i;
+            }
+        }
+        if (best < 0) {
+            //都低于15帧时选最高的
+            return selectMaxThroughput(ranges);
+        }
+        return new int[]{ranges[best], ranges[best + 1]};
+    }
+
+    /**
+     * 包含目标帧率中最窄的范围，没有时选最高帧率最接近目标的范围
+     */
+    private static int[] selectTarget(int[] ranges, int target) {
+        int best = -1;
+        int bestScore = Integer.MAX_VALUE;
+        for (int i = 0; i + 1 < ranges.length; i += 2) {
+            int score;
+            if (ranges[i] <= target && target <= ranges[i + 1]) {
+                score = ranges[i + 1] - ranges[i];
+            } else {
+                //不包含目标帧率的范围排在所有包含的之后
+                score = 1000000 + Math.abs(ranges[i + 1] - target);
+            }
+            if (score < bestScore) {
+                bestScore = score;
+                best = i;
+            }
+        }
+        return new int[]{ranges[best], ranges[best + 1]};
+    }
+
+    /**
+     * 实际帧率是否在请求的范围内，允许10%的误差
+     *
+     * @param range        请求的范围
+     * @param deliveredFps 实际帧率
+     * @return 是否符合
+     */
+    static boolean isWithinRange(int[] range, float deliveredFps) {
+        float deliveredMilli = deliveredFps * 1000;
+        return deliveredMilli >= range[0] * 0.9f && deliveredMilli <= range[1] * 1.1f;
+    }
+}
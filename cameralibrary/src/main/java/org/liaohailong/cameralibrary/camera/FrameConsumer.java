@@ -0,0 +1,161 @@
+package org.liaohailong.cameralibrary.camera;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Describe as : 一个{@link FrameProcessor}的注册信息，拥有独立的线程与有界队列
+ * <p>
+ * 队列满时按{@link DropPolicy}丢帧，处理数与丢帧数可通过getter读取
+ */
+
+public final class FrameConsumer {
+
+    /**
+     * 队列已满时的丢帧策略
+     */
+    public enum DropPolicy {
+        /**
+         * 丢弃队列中最旧的帧，保留最新的帧，适合只关心当前画面的分析（如扫码）
+         */
+        DROP_OLDEST,
+        /**
+         * 丢弃新到达的帧，队列中的帧按顺序处理
+         */
+        DROP_LATEST
+    }
+
+    private final FrameProcessor mProcessor;
+    private final DropPolicy mDropPolicy;
+    private final int mCapacity;
+    private final ExecutorService mExecutor;
+    private final ArrayDeque<PreviewFrame> mQueue;//受自身锁保护
+    private boolean isScheduled = false;
+    private boolean isShutdown = false;
+
+    private volatile long mProcessedCount = 0;//只在处理线程写入
+    private volatile long mDroppedCount = 0;//持有队列锁写入
+
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    FrameConsumer(FrameProcessor processor, DropPolicy dropPolicy, int capacity) {
+        mProcessor = processor;
+        mDropPolicy = dropPolicy == null ? DropPolicy.DROP_OLDEST : dropPolicy;
+        mCapacity = Math.max(1, capacity);
+        mQueue = new ArrayDeque<>(mCapacity);
+        final String name = "FrameProcessor-" + processor.getClass().getSimpleName();
+        mExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, name);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * 提交一帧，在预览回调线程调用
+     *
+     * @param frame 预览帧，接收时增加一次引用
+     */
+    void offer(PreviewFrame frame) {
+        PreviewFrame dropped = null;
+        synchronized (mQueue) {
+            if (isShutdown) {
+                return;
+            }
+            if (mQueue.size() >= mCapacity) {
+                mDroppedCount++;
+                if (mDropPolicy == DropPolicy.DROP_LATEST) {
+                    return;
+                }
+                dropped = mQueue.poll();
+            }
+            frame.retain();
+            mQueue.add(frame);
+            if (!isScheduled) {
+                isScheduled = true;
+                mExecutor.execute(mDrainRunnable);
+            }
+        }
+        if (dropped != null) {
+            dropped.release();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            PreviewFrame frame;
+            synchronized (mQueue) {
+                frame = mQueue.poll();
+                if (frame == null) {
+                    isScheduled = false;
+                    return;
+                }
+            }
+            try {
+                mProcessor.onFrame(frame);
+                mProcessedCount++;
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            } finally {
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * 停止处理，释放队列中的帧
+     */
+    void shutdown() {
+        ArrayDeque<PreviewFrame> pending;
+        synchronized (mQueue) {
+            isShutdown = true;
+            pending = new ArrayDeque<>(mQueue);
+            mQueue.clear();
+        }
+        for (PreviewFrame frame : pending) {
+            frame.release();
+        }
+        mExecutor.shutdown();
+    }
+
+    FrameProcessor getProcessor() {
+        return mProcessor;
+    }
+
+    /**
+     * @return 已处理的帧数
+     */
+    public long getProcessedCount() {
+        return mProcessedCount;
+    }
+
+    /**
+     * @return 因队列已满丢弃的帧数
+     */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * @return 队列中等待处理的帧数
+     */
+    public int getQueueDepth() {
+        synchronized (mQueue) {
+            return mQueue.size();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.liaohailong.cameralibrary.camera;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Describe as : 把预览帧分发给所有{@link FrameConsumer}
+ * <p>
+ * 1，每帧包装为带引用计数的{@link PreviewFrame}，每个接收的消费者持有一次引用，
+ * 预览回调持有一次引用（由{@link CameraHelper#recyclePreviewBuffer(byte[])}释放）
+ * 2，引用全部释放后缓冲区才交给{@link Recycler}归还相机
+ * 3，开启缓冲池时每个缓冲区对应的PreviewFrame会被复用，分发过程中不分配内存
+ */
+
+final class FrameDispatcher {
+
+    interface Recycler {
+        /**
+         * 缓冲区不再被任何人持有，在最后一个释放者的线程回调
+         */
+        void recycle(byte[] buffer);
+    }
+
+    private final Recycler mRecycler;
+    private final CopyOnWriteArrayList<FrameConsumer> mConsumers = new CopyOnWriteArrayList<>();
+    private final IdentityHashMap<byte[], PreviewFrame> mFrames = new IdentityHashMap<>();//缓冲区对应的复用帧
+    private final IdentityHashMap<byte[], PreviewFrame> mActiveFrames = new IdentityHashMap<>();//尚未全部释放的帧
+    private boolean isReuseFrames = false;//开启缓冲池时复用PreviewFrame
+    private int mGeneration = 0;
+
+    FrameDispatcher(Recycler recycler) {
+        mRecycler = recycler;
+    }
+
+    FrameConsumer add(FrameProcessor processor, FrameConsumer.DropPolicy dropPolicy, int capacity) {
+        FrameConsumer consumer = new FrameConsumer(processor, dropPolicy, capacity);
+        mConsumers.add(consumer);
+        return consumer;
+    }
+
+    boolean remove(FrameProcessor processor) {
+        for (FrameConsumer consumer : mConsumers) {
+            if (consumer.getProcessor() == processor) {
+                mConsumers.remove(consumer);
+                consumer.shutdown();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    FrameConsumer find(FrameProcessor processor) {
+        for (FrameConsumer consumer : mConsumers) {
+            if (consumer.getProcessor() == processor) {
+                return consumer;
+            }
+        }
+        return null;
+    }
+
+    boolean hasConsumers() {
+        return !mConsumers.isEmpty();
+    }
+
+    /**
+     * 相机重新开启，之前分发出去的帧释放后不再归还
+     *
+     * @param reuseFrames 是否开启了缓冲池
+     */
+    synchronized void reset(boolean reuseFrames) {
+        mGeneration++;
+        mFrames.clear();
+        mActiveFrames.clear();
+        isReuseFrames = reuseFrames;
+    }
+
+    /**
+     * 分发一帧，在预览回调线程调用
+     *
+     * @param callerHolds 为true时调用方持有一次引用，之后通过{@link #release(byte[])}释放
+     */
+    void dispatch(byte[] data, int width, int height, int format, long timestampNanos, boolean callerHolds) {
+        PreviewFrame frame;
+        synchronized (this) {
+            frame = isReuseFrames ? mFrames.get(data) : null;
+            if (frame == null) {
+                frame = new PreviewFrame(this, data);
+                if (isReuseFrames) {
+                    mFrames.put(data, frame);
+                }
+            }
+            //先持有一次引用，避免消费者处理完时提前归还
+            frame.reset(width, height, format, timestampNanos, mGeneration);
+            mActiveFrames.put(data, frame);
+        }
+        for (FrameConsumer consumer : mConsumers) {
+            consumer.offer(frame);
+        }
+        if (!callerHolds) {
+            frame.release();
+        }
+    }
+
+    /**
+     * 释放调用方持有的引用
+     *
+     * @param data 帧数据
+     * @return false表示该缓冲区没有在分发中，由调用方自行归还
+     */
+    boolean release(byte[] data) {
+        PreviewFrame frame;
+        synchronized (this) {
+            frame = mActiveFrames.get(data);
+        }
+        if (frame == null) {
+            return false;
+        }
+        frame.release();
+        return true;
+    }
+
+    void onFrameReleased(PreviewFrame frame) {
+        synchronized (this) {
+            if (frame.getGeneration() != mGeneration) {
+                return;
+            }
+            mActiveFrames.remove(frame.getData());
+        }
+        mRecycler.recycle(frame.getData());
+    }
+
+    /**
+     * 停止所有消费者
+     */
+    void shutdown() {
+        for (FrameConsumer consumer : mConsumers) {
+            consumer.shutdown();
+        }
+        mConsumers.clear();
+    }
+}
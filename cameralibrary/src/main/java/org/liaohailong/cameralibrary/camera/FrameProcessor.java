@@ -0,0 +1,17 @@
+package org.liaohailong.cameralibrary.camera;
+
+/**
+ * Describe as : 预览帧分析，见{@link CameraHelper#addFrameProcessor(FrameProcessor, FrameConsumer.DropPolicy, int)}
+ * <p>
+ * 每个FrameProcessor在自己的线程中处理预览帧，慢的处理只会让自己丢帧，不影响预览与其他FrameProcessor
+ */
+
+public interface FrameProcessor {
+    /**
+     * 处理一帧，在该FrameProcessor自己的线程回调
+     * 返回后帧数据可能被相机复用，需要在返回后继续使用时先调用{@link PreviewFrame#retain()}，用完后{@link PreviewFrame#release()}
+     *
+     * @param frame 预览帧
+     */
+    void onFrame(PreviewFrame frame);
+}
@@ -0,0 +1,210 @@
+package org.liaohailong.cameralibrary.camera;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Describe as : 相机JPEG数据直写时设置EXIF方向信息
+ * <p>
+ * 已有EXIF方向标签时原地修改2个字节；没有EXIF时在文件头插入只含方向标签的最小APP1段。
+ * 整个过程不解码、不复制图像数据。
+ */
+
+final class JpegOrientation {
+
+    private JpegOrientation() throws IllegalAccessException {
+        throw new IllegalAccessException("no instance!");
+    }
+
+    //EXIF方向取值，与android.media.ExifInterface.ORIENTATION_*一致
+    static final int ORIENTATION_NORMAL = 1;
+    static final int ORIENTATION_FLIP_HORIZONTAL = 2;
+    static final int ORIENTATION_ROTATE_180 = 3;
+    static final int ORIENTATION_FLIP_VERTICAL = 4;
+    static final int ORIENTATION_TRANSPOSE = 5;
+    static final int ORIENTATION_ROTATE_90 = 6;
+    static final int ORIENTATION_TRANSVERSE = 7;
+    static final int ORIENTATION_ROTATE_270 = 8;
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_APP0 = 0xE0;
+    private static final int MARKER_APP1 = 0xE1;
+
+    private static final int LOCATION_VALUE = 0;//原地修改已有的方向标签
+    private static final int LOCATION_INSERT = 1;//插入只含方向标签的APP1段
+
+    /**
+     * @param degree 顺时针旋转角度
+     * @param mirror 旋转后是否水平镜像
+     * @return EXIF方向取值
+     */
+    static int fromRotation(int degree, boolean mirror) {
+        switch ((degree % 360 + 360) % 360) {
+            case 90:
+                return mirror ? ORIENTATION_TRANSPOSE : ORIENTATION_ROTATE_90;
+            case 180:
+                return mirror ? ORIENTATION_FLIP_VERTICAL : ORIENTATION_ROTATE_180;
+            case 270:
+                return mirror ? ORIENTATION_TRANSVERSE : ORIENTATION_ROTATE_270;
+            default:
+                return mirror ? ORIENTATION_FLIP_HORIZONTAL : ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * @param jpeg 相机返回的JPEG数据
+     * @return 是否可以由{@link #write(byte[], int, OutputStream)}直接写入方向；
+     * false表示已有EXIF但不含方向标签（或不是JPEG），需要调用方先另行补写
+     */
+    static boolean canPatch(byte[] jpeg) {
+        return locate(jpeg) != null;
+    }
+
+    /**
+     * 写出带方向信息的JPEG
+     *
+     * @param jpeg        相机返回的JPEG数据
+     * @param orientation EXIF方向取值
+     * @param out         输出流
+     * @return false表示无法写入方向（见{@link #canPatch(byte[])}），数据已原样写出
+     * @throws IOException 写出失败
+     */
+    static boolean write(byte[] jpeg, int orientation, OutputStream out) throws IOException {
+        int[] location = locate(jpeg);
+        if (location == null) {
+            out.write(jpeg);
+            return false;
+        }
+        int offset = location[1];
+        if (location[0] == LOCATION_VALUE) {
+            boolean littleEndian = location[2] != 0;
+            out.write(jpeg, 0, offset);
+            if (littleEndian) {
+                out.write(orientation & 0xff);
+                out.write((orientation >> 8) & 0xff);
+            } else {
+                out.write((orientation >> 8) & 0xff);
+                out.write(orientation & 0xff);
+            }
+            out.write(jpeg, offset + 2, jpeg.length - offset - 2);
+            return true;
+        }
+        out.write(jpeg, 0, offset);
+        out.write(createExifSegment(orientation));
+        out.write(jpeg, offset, jpeg.length - offset);
+        return true;
+    }
+
+    /**
+     * 查找写入方向的位置
+     *
+     * @return {@link #LOCATION_VALUE}时为{类型, 方向取值位置, 是否小端}，{@link #LOCATION_INSERT}时为{类型, APP1插入位置, 0}；
+     * 无法写入时返回null
+     */
+    private static int[] locate(byte[] jpeg) {
+        if (jpeg.length < 4 || (jpeg[0] & 0xff) != 0xFF || (jpeg[1] & 0xff) != MARKER_SOI) {
+            return null;
+        }
+        int insertOffset = 2;//没有EXIF时APP1插入的位置
+        int offset = 2;
+        while (offset + 4 <= jpeg.length) {
+            if ((jpeg[offset] & 0xff) != 0xFF) {
+                break;
+            }
+            int marker = jpeg[offset + 1] & 0xff;
+            if (marker == 0xFF) {
+                offset++;//填充字节
+                continue;
+            }
+            if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                break;
+            }
+            int length = readUInt16(jpeg, offset + 2, false);
+            if (length < 2 || offset + 2 + length > jpeg.length) {
+                break;
+            }
+            if (marker == MARKER_APP1 && isExifHeader(jpeg, offset + 4, length - 2)) {
+                int valueOffset = findOrientationValue(jpeg, offset + 10, offset + 2 + length);
+                if (valueOffset < 0) {
+                    return null;
+                }
+                return new int[]{LOCATION_VALUE, valueOffset, jpeg[offset + 10] == 'I' ? 1 : 0};
+            }
+            if (marker == MARKER_APP0 && offset == 2) {
+                //JFIF的APP0必须紧跟SOI
+                insertOffset = offset + 2 + length;
+            }
+            offset += 2 + length;
+        }
+        return new int[]{LOCATION_INSERT, insertOffset, 0};
+    }
+
+    private static boolean isExifHeader(byte[] data, int offset, int length) {
+        return length >= 6 + 8
+                && data[offset] == 'E' && data[offset + 1] == 'x' && data[offset + 2] == 'i' && data[offset + 3] == 'f'
+                && data[offset + 4] == 0 && data[offset + 5] == 0;
+    }
+
+    /**
+     * @param data      JPEG数据
+     * @param tiffStart TIFF头起始位置
+     * @param end       APP1段结束位置
+     * @return IFD0中方向标签取值所在位置，未找到返回-1
+     */
+    private static int findOrientationValue(byte[] data, int tiffStart, int end) {
+        boolean littleEndian;
+        if (data[tiffStart] == 'I' && data[tiffStart + 1] == 'I') {
+            littleEndian = true;
+        } else if (data[tiffStart] == 'M' && data[tiffStart + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return -1;
+        }
+        long ifdOffset = readUInt32(data, tiffStart + 4, littleEndian);
+        if (ifdOffset < 8 || tiffStart + ifdOffset + 2 > end) {
+            return -1;
+        }
+        int ifdStart = (int) (tiffStart + ifdOffset);
+        int count = readUInt16(data, ifdStart, littleEndian);
+        for (int i = 0; i < count; i++) {
+            int entry = ifdStart + 2 + i * 12;
+            if (entry + 12 > end) {
+                return -1;
+            }
+            if (readUInt16(data, entry, littleEndian) == TAG_ORIENTATION) {
+                //类型SHORT，数量1，取值位于值字段的前2个字节
+                return entry + 8;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return 只含方向标签的最小EXIF APP1段
+     */
+    private static byte[] createExifSegment(int orientation) {
+        return new byte[]{
+                (byte) 0xFF, (byte) MARKER_APP1, 0, 34,//段长度（含长度字段本身）
+                'E', 'x', 'i', 'f', 0, 0,
+                'M', 'M', 0, 0x2A, 0, 0, 0, 8,//大端TIFF头，IFD0紧随其后
+                0, 1,//IFD0条目数
+                0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,//Orientation SHORT 1
+                0, 0, 0, 0//没有下一个IFD
+        };
+    }
+
+    private static int readUInt16(byte[] data, int offset, boolean littleEndian) {
+        int b0 = data[offset] & 0xff;
+        int b1 = data[offset + 1] & 0xff;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static long readUInt32(byte[] data, int offset, boolean littleEndian) {
+        long high = readUInt16(data, littleEndian ? offset + 2 : offset, littleEndian);
+        long low = readUInt16(data, littleEndian ? offset : offset + 2, littleEndian);
+        return (high << 16) | low;
+    }
+}
@@ -0,0 +1,273 @@
+package org.liaohailong.cameralibrary.camera;
+
+/**
+ * Describe as : 缩小的亮度分析流
+ * <p>
+ * 1，把NV21/I420的Y平面按区域平均（box filter）缩小到目标尺寸，写入复用的缓冲区
+ * 2，同时统计平均亮度、256级直方图、分块亮度网格、清晰度（相邻像素差）以及与上一帧的差异（场景变化）
+ * 3，全部为整数运算，源尺寸不变时每帧不分配内存，不依赖Android，可在JVM上测试性能
+ * <p>
+ * 作为{@link FrameProcessor}注册到{@link CameraHelper#addFrameProcessor(FrameProcessor, FrameConsumer.DropPolicy, int)}，
+ * 每帧分析完成后回调{@link Listener}，结果只在回调期间有效
+ */
+
+public final class LumaAnalyzer implements FrameProcessor {
+
+    /**
+     * 分析结果回调，在分析线程回调
+     */
+    public interface Listener {
+        void onLumaAnalyzed(LumaAnalyzer analyzer, long timestampNanos);
+    }
+
+    private final int mTargetWidth;
+    private final int mTargetHeight;
+    private final int mGridColumns;
+    private final int mGridRows;
+    private final Listener mListener;
+
+    private byte[] mLuma;//缩小后的亮度
+    private byte[] mPreviousLuma;//上一帧缩小后的亮度
+    private boolean hasPrevious = false;
+    private final int[] mHistogram = new int[256];
+    private final int[] mGrid;//分块平均亮度
+    private final int[] mGridSums;
+    private final int[] mGridCounts;
+    private int mMeanLuma = 0;
+    private int mSharpness = 0;
+    private int mSceneChange = 0;
+
+    //源尺寸相关的预计算，尺寸变化时重建
+    private int mSourceWidth = -1;
+    private int mSourceHeight = -1;
+    private int mOutputWidth;
+    private int mOutputHeight;
+    private int[] mColumnIndex;//源列对应的输出列
+    private int[] mColumnBlock;//每个输出列覆盖的源列数
+    private int[] mRowStart;//每个输出行起始的源行，长度为输出高 + 1
+    private int[] mColumnSums;//一个输出行内各列的累加
+    private int[] mGridColumn;//输出列对应的网格列
+    private int[] mGridRow;//输出行对应的网格行
+
+    /**
+     * @param targetWidth  缩小后的宽，源图更小时不放大
+     * @param targetHeight 缩小后的高
+     * @param gridColumns  亮度网格列数
+     * @param gridRows     亮度网格行数
+     * @param listener     分析结果回调，只调用{@link #analyze(byte[], int, int)}时可以为null
+     */
+    public LumaAnalyzer(int targetWidth, int targetHeight, int gridColumns, int gridRows, Listener listener) {
+        mTargetWidth = Math.max(1, targetWidth);
+        mTargetHeight = Math.max(1, targetHeight);
+        mGridColumns = Math.max(1, gridColumns);
+        mGridRows = Math.max(1, gridRows);
+        mListener = listener;
+        mGrid = new int[mGridColumns * mGridRows];
+        mGridSums = new int[mGrid.length];
+        mGridCounts = new int[mGrid.length];
+    }
+
+    @Override
+    public void onFrame(PreviewFrame frame) {
+        analyze(frame.getData(), frame.getWidth(), frame.getHeight());
+        if (mListener != null) {
+            mListener.onLumaAnalyzed(this, frame.getTimestampNanos());
+        }
+    }
+
+    /**
+     * 分析一帧，Y平面在数据开头（NV21、NV12、I420均适用）
+     *
+     * @param yuv    帧数据
+     * @param width  帧宽
+     * @param height 帧高
+     */
+    public void analyze(byte[] yuv, int width, int height) {
+        if (width != mSourceWidth || height != mSourceHeight) {
+            prepare(width, height);
+        }
+        downsample(yuv, width);
+        computeStatistics();
+    }
+
+    /**
+     * 源尺寸变化时预计算每个输出像素覆盖的源区域
+     */
+    private void prepare(int width, int height) {
+        mSourceWidth = width;
+        mSourceHeight = height;
+        mOutputWidth = Math.min(mTargetWidth, width);
+        mOutputHeight = Math.min(mTargetHeight, height);
+
+        mColumnIndex = new int[width];
+        mColumnBlock = new int[mOutputWidth];
+        for (int ox = 0; ox < mOutputWidth; ox++) {
+            int start = (int) ((long) ox * width / mOutputWidth);
+            int end = (int) ((long) (ox + 1) * width / mOutputWidth);
+            mColumnBlock[ox] = end - start;
+            for (int x = start; x < end; x++) {
+                mColumnIndex[x] = ox;
+            }
+        }
+        mRowStart = new int[mOutputHeight + 1];
+        for (int oy = 0; oy <= mOutputHeight; oy++) {
+            mRowStart[oy] = (int) ((long) oy * height / mOutputHeight);
+        }
+        mColumnSums = new int[mOutputWidth];
+        mGridColumn = new int[mOutputWidth];
+        for (int ox = 0; ox < mOutputWidth; ox++) {
+            mGridColumn[ox] = ox * mGridColumns / mOutputWidth;
+        }
+        mGridRow = new int[mOutputHeight];
+        for (int oy = 0; oy < mOutputHeight; oy++) {
+            mGridRow[oy] = oy * mGridRows / mOutputHeight;
+        }
+        mLuma = new byte[mOutputWidth * mOutputHeight];
+        mPreviousLuma = new byte[mLuma.length];
+        hasPrevious = false;
+    }
+
+    /**
+     * 按区域平均缩小Y平面，当前帧写入mLuma，上一帧保留在mPreviousLuma
+     */
+    private void downsample(byte[] yuv, int width) {
+        byte[] previous = mLuma;
+        mLuma = mPreviousLuma;
+        mPreviousLuma = previous;
+
+        int[] columnSums = mColumnSums;
+        int[] columnIndex = mColumnIndex;
+        for (int oy = 0; oy < mOutputHeight; oy++) {
+            for (int ox = 0; ox < mOutputWidth; ox++) {
+                columnSums[ox] = 0;
+            }
+            int rowStart = mRowStart[oy];
+            int rowEnd = mRowStart[oy + 1];
+            for (int y = rowStart; y < rowEnd; y++) {
+                int offset = y * width;
+                for (int x = 0; x < width; x++) {
+                    columnSums[columnIndex[x]] += yuv[offset + x] & 0xff;
+                }
+            }
+            int rows = rowEnd - rowStart;
+            int outOffset = oy * mOutputWidth;
+            for (int ox = 0; ox < mOutputWidth; ox++) {
+                int count = mColumnBlock[ox] * rows;
+                //四舍五入
+                mLuma[outOffset + ox] = (byte) ((columnSums[ox] + (count >> 1)) / count);
+            }
+        }
+    }
+
+    private void computeStatistics() {
+        int[] histogram = mHistogram;
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = 0;
+        }
+        for (int i = 0; i < mGrid.length; i++) {
+            mGridSums[i] = 0;
+            mGridCounts[i] = 0;
+        }
+        long sum = 0;
+        long gradient = 0;
+        long difference = 0;
+        int width = mOutputWidth;
+        int height = mOutputHeight;
+        for (int oy = 0; oy < height; oy++) {
+            int offset = oy * width;
+            int gridOffset = mGridRow[oy] * mGridColumns;
+            for (int ox = 0; ox < width; ox++) {
+                int index = offset + ox;
+                int value = mLuma[index] & 0xff;
+                sum += value;
+                histogram[value]++;
+                int cell = gridOffset + mGridColumn[ox];
+                mGridSums[cell] += value;
+                mGridCounts[cell]++;
+                if (ox + 1 < width) {
+                    gradient += Math.abs(value - (mLuma[index + 1] & 0xff));
+                }
+                if (oy + 1 < height) {
+                    gradient += Math.abs(value - (mLuma[index + width] & 0xff));
+                }
+                if (hasPrevious) {
+                    difference += Math.abs(value - (mPreviousLuma[index] & 0xff));
+                }
+            }
+        }
+        int pixels = width * height;
+        mMeanLuma = (int) (sum / pixels);
+        mSharpness = (int) (gradient * 256 / pixels);
+        mSceneChange = hasPrevious ? (int) (difference * 256 / pixels) : 0;
+        hasPrevious = true;
+        for (int i = 0; i < mGrid.length; i++) {
+            mGrid[i] = mGridCounts[i] == 0 ? 0 : mGridSums[i] / mGridCounts[i];
+        }
+    }
+
+    /**
+     * @return 缩小后的亮度，长度为{@link #getOutputWidth()} * {@link #getOutputHeight()}，下一帧会被覆盖
+     */
+    public byte[] getLuma() {
+        return mLuma;
+    }
+
+    public int getOutputWidth() {
+        return mOutputWidth;
+    }
+
+    public int getOutputHeight() {
+        return mOutputHeight;
+    }
+
+    /**
+     * @return 平均亮度，0 ~ 255
+     */
+    public int getMeanLuma() {
+        return mMeanLuma;
+    }
+
+    /**
+     * @return 256级亮度直方图，下一帧会被覆盖
+     */
+    public int[] getHistogram() {
+        return mHistogram;
+    }
+
+    /**
+     * @return 分块平均亮度，按行排列，长度为网格列数 * 行数，下一帧会被覆盖
+     */
+    public int[] getGrid() {
+        return mGrid;
+    }
+
+    public int getGridColumns() {
+        return mGridColumns;
+    }
+
+    public int getGridRows() {
+        return mGridRows;
+    }
+
+    /**
+     * @return 清晰度：相邻像素平均差 * 256，越大越清晰
+     */
+    public int getSharpness() {
+        return mSharpness;
+    }
+
+    /**
+     * @return 与上一帧的平均差 * 256，用于判断场景变化，第一帧为0
+     */
+    public int getSceneChange() {
+        return mSceneChange;
+    }
+
+    /**
+     * @return 分析时使用的全部数组，源尺寸不变时应始终是同一批实例（当前帧与上一帧的亮度会互换）
+     */
+    Object[] getWorkArrays() {
+        return new Object[]{mLuma, mPreviousLuma, mHistogram, mGrid, mGridSums, mGridCounts,
+                mColumnIndex, mColumnBlock, mRowStart, mColumnSums, mGridColumn, mGridRow};
+    }
+}
@@ -0,0 +1,191 @@
+package org.liaohailong.cameralibrary.camera;
+
+/**
+ * Describe as : 分块帧差运动检测
+ * <p>
+ * 1，把Y平面划分为网格，每块隔点采样求平均亮度
+ * 2，每块维护一个缓慢跟随的背景亮度，当前帧与背景的差超过阈值记为变化块
+ * 3，区域掩码内变化块的比例达到阈值即判定为运动
+ * 4，灵敏度（0 ~ 100）同时决定亮度差阈值与面积阈值，越高越容易判定为运动
+ * <p>
+ * 全部为整数运算，预览尺寸不变时每帧不分配内存，不依赖Android，可以在全帧率下运行并在JVM上测试
+ */
+
+public final class MotionDetector {
+    private static final int SAMPLE_STEP = 4;//块内每隔4个像素采样
+    private static final int BACKGROUND_SHIFT = 3;//背景跟随速度 1/8
+    private static final int FIXED_SHIFT = 4;//背景亮度的定点小数位
+
+    private final int mColumns;
+    private final int mRows;
+    private final boolean[] mRegionMask;//为true的块参与检测
+    private int mMaskedBlockCount;
+    private int mSensitivity;
+    private int mLumaThreshold;
+    private int mAreaThreshold;//变化块数 * 1000 / 参与检测的块数
+
+    //预览尺寸相关，尺寸变化时重建
+    private int mWidth = -1;
+    private int mHeight = -1;
+    private int[] mBlockLeft;
+    private int[] mBlockRight;
+    private int[] mBlockTop;
+    private int[] mBlockBottom;
+
+    private final int[] mBlockMeans;
+    private final int[] mBackground;//定点数
+    private boolean hasBackground = false;
+    private int mChangedBlocks = 0;
+    private int mMotionLevel = 0;
+
+    /**
+     * @param columns     网格列数
+     * @param rows        网格行数
+     * @param sensitivity 灵敏度，0 ~ 100
+     */
+    public MotionDetector(int columns, int rows, int sensitivity) {
+        mColumns = Math.max(1, columns);
+        mRows = Math.max(1, rows);
+        mRegionMask = new boolean[mColumns * mRows];
+        mBlockMeans = new int[mRegionMask.length];
+        mBackground = new int[mRegionMask.length];
+        setRegionMask(null);
+        setSensitivity(sensitivity);
+    }
+
+    /**
+     * @param sensitivity 灵敏度，0 ~ 100，越高越容易判定为运动
+     */
+    public synchronized void setSensitivity(int sensitivity) {
+        mSensitivity = Math.max(0, Math.min(100, sensitivity));
+        //灵敏度0：亮度差40、面积20%；灵敏度100：亮度差6、面积0.5%
+        mLumaThreshold = 40 - mSensitivity * 34 / 100;
+        mAreaThreshold = 200 - mSensitivity * 195 / 100;
+    }
+
+    public synchronized int getSensitivity() {
+        return mSensitivity;
+    }
+
+    /**
+     * 设置检测区域
+     *
+     * @param mask 按行排列的网格掩码，长度为列数 * 行数，为true的块参与检测；为null表示全部参与
+     */
+    public synchronized void setRegionMask(boolean[] mask) {
+        if (mask != null && mask.length != mRegionMask.length) {
+            throw new IllegalArgumentException("mask length must be " + mRegionMask.length);
+        }
+        mMaskedBlockCount = 0;
+        for (int i = 0; i < mRegionMask.length; i++) {
+            mRegionMask[i] = mask == null || mask[i];
+            if (mRegionMask[i]) {
+                mMaskedBlockCount++;
+            }
+        }
+    }
+
+    /**
+     * 检测一帧，Y平面在数据开头（NV21、NV12、I420均适用）
+     *
+     * @param yuv    帧数据
+     * @param width  帧宽
+     * @param height 帧高
+     * @return 是否有运动
+     */
+    public synchronized boolean analyze(byte[] yuv, int width, int height) {
+        if (width != mWidth || height != mHeight) {
+            prepare(width, height);
+        }
+        for (int block = 0; block < mBlockMeans.length; block++) {
+            if (!mRegionMask[block]) {
+                continue;
+            }
+            int sum = 0;
+            int count = 0;
+            for (int y = mBlockTop[block]; y < mBlockBottom[block]; y += SAMPLE_STEP) {
+                int offset = y * width;
+                for (int x = mBlockLeft[block]; x < mBlockRight[block]; x += SAMPLE_STEP) {
+                    sum += yuv[offset + x] & 0xff;
+                    count++;
+                }
+            }
+            mBlockMeans[block] = count == 0 ? 0 : sum / count;
+        }
+        if (!hasBackground) {
+            for (int block = 0; block < mBackground.length; block++) {
+                mBackground[block] = mBlockMeans[block] << FIXED_SHIFT;
+            }
+            hasBackground = true;
+            mChangedBlocks = 0;
+            mMotionLevel = 0;
+            return false;
+        }
+        int changed = 0;
+        for (int block = 0; block < mBlockMeans.length; block++) {
+            if (!mRegionMask[block]) {
+                continue;
+            }
+            int mean = mBlockMeans[block] << FIXED_SHIFT;
+            int diff = mean - mBackground[block];
+            if (Math.abs(diff) > mLumaThreshold << FIXED_SHIFT) {
+                changed++;
+            }
+            //背景缓慢跟随，光线渐变不会被当作运动
+            mBackground[block] += diff >> BACKGROUND_SHIFT;
+        }
+        mChangedBlocks = changed;
+        mMotionLevel = mMaskedBlockCount == 0 ? 0 : changed * 1000 / mMaskedBlockCount;
+        return changed > 0 && mMotionLevel >= mAreaThreshold;
+    }
+
+    private void prepare(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        int blocks = mColumns * mRows;
+        mBlockLeft = new int[blocks];
+        mBlockRight = new int[blocks];
+        mBlockTop = new int[blocks];
+        mBlockBottom = new int[blocks];
+        for (int row = 0; row < mRows; row++) {
+            for (int column = 0; column < mColumns; column++) {
+                int block = row * mColumns + column;
+                mBlockLeft[block] = column * width / mColumns;
+                mBlockRight[block] = (column + 1) * width / mColumns;
+                mBlockTop[block] = row * height / mRows;
+                mBlockBottom[block] = (row + 1) * height / mRows;
+            }
+        }
+        hasBackground = false;
+    }
+
+    /**
+     * 丢弃背景，下一帧重新建立
+     */
+    public synchronized void reset() {
+        hasBackground = false;
+        mChangedBlocks = 0;
+        mMotionLevel = 0;
+    }
+
+    /**
+     * @return 最近一帧变化的块数
+     */
+    public synchronized int getChangedBlockCount() {
+        return mChangedBlocks;
+    }
+
+    /**
+     * @return 最近一帧变化块占检测区域的比例 * 1000
+     */
+    public synchronized int getMotionLevel() {
+        return mMotionLevel;
+    }
+
+    /**
+     * @return 分析时使用的全部数组，尺寸不变时应始终是同一批实例
+     */
+    synchronized int[][] getWorkArrays() {
+        return new int[][]{mBlockMeans, mBackground, mBlockLeft, mBlockRight, mBlockTop, mBlockBottom};
+    }
+}
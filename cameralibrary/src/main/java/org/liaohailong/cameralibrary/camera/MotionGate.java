@@ -0,0 +1,93 @@
+package org.liaohailong.cameralibrary.camera;
+
+/**
+ * Describe as : 运动触发录像的开关状态
+ * <p>
+ * 1，连续若干帧检测到运动才开始，避免单帧噪声触发录像
+ * 2，最后一次运动之后安静超过指定时长才停止，运动期间的短暂停顿不会切断录像
+ * 3，停止既由新帧触发，也由{@link #onTick(long)}定时检查，预览帧停滞时不会一直录下去
+ */
+
+final class MotionGate {
+    static final int ACTION_NONE = 0;
+    static final int ACTION_START = 1;//开始录像
+    static final int ACTION_STOP = 2;//停止录像
+
+    private final int mTriggerFrames;
+    private final long mQuietPeriodMs;
+
+    private boolean isActive = false;
+    private int mMotionFrames = 0;
+    private long mLastMotionMs = 0;
+
+    /**
+     * @param triggerFrames 连续检测到运动多少帧后开始
+     * @param quietPeriodMs 安静多久后停止（毫秒）
+     */
+    MotionGate(int triggerFrames, long quietPeriodMs) {
+        mTriggerFrames = Math.max(1, triggerFrames);
+        mQuietPeriodMs = Math.max(0, quietPeriodMs);
+    }
+
+    /**
+     * @param motion 这一帧是否有运动
+     * @param nowMs  帧时间（毫秒）
+     * @return ACTION_*
+     */
+    synchronized int onFrame(boolean motion, long nowMs) {
+        if (motion) {
+            mMotionFrames++;
+            if (isActive) {
+                mLastMotionMs = nowMs;
+            } else if (mMotionFrames >= mTriggerFrames) {
+                isActive = true;
+                mLastMotionMs = nowMs;
+                return ACTION_START;
+            }
+            return ACTION_NONE;
+        }
+        mMotionFrames = 0;
+        if (isActive && nowMs - mLastMotionMs >= mQuietPeriodMs) {
+            isActive = false;
+            return ACTION_STOP;
+        }
+        return ACTION_NONE;
+    }
+
+    /**
+     * 不依赖预览帧的定时检查：录像时预览帧可能停止回调，安静超过指定时长同样停止
+     *
+     * @param nowMs 当前时间（毫秒），与帧时间同一时钟
+     * @return ACTION_STOP或ACTION_NONE
+     */
+    synchronized int onTick(long nowMs) {
+        if (isActive && nowMs - mLastMotionMs >= mQuietPeriodMs) {
+            isActive = false;
+            mMotionFrames = 0;
+            return ACTION_STOP;
+        }
+        return ACTION_NONE;
+    }
+
+    /**
+     * @return 没有新的运动时应停止的时间（毫秒），与帧时间同一时钟
+     */
+    synchronized long getStopDeadlineMs() {
+        return mLastMotionMs + mQuietPeriodMs;
+    }
+
+    /**
+     * @return 是否处于录像状态
+     */
+    synchronized boolean isActive() {
+        return isActive;
+    }
+
+    /**
+     * 回到未录像状态，录像被外部停止时调用
+     */
+    synchronized void reset() {
+        isActive = false;
+        mMotionFrames = 0;
+    }
+}
@@ -0,0 +1,141 @@
+package org.liaohailong.cameralibrary.camera;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Describe as : 预览帧缓冲池，配合{@link Camera#setPreviewCallbackWithBuffer(Camera.PreviewCallback)}使用
+ * <p>
+ * 相机只会把数据写入通过{@link Camera#addCallbackBuffer(byte[])}交还的缓冲区，
+ * 当池中没有可用缓冲区时，相机会直接丢弃该帧（记为一次耗尽）。
+ * <p>
+ * 缓冲区归还约定：{@link Camera.PreviewCallback#onPreviewFrame(byte[], Camera)}回调中拿到的data，
+ * 使用完毕后必须调用{@link CameraHelper#recyclePreviewBuffer(byte[])}归还，否则预览回调将会停止。
+ * 按数组身份记录相机手中与使用方手中的缓冲区，重复归还或归还不属于本池的数组会被忽略，
+ * 重新绑定相机时只交出空闲的缓冲区，使用方手中的缓冲区归还后才交给新相机，
+ * 避免同一块缓冲区在相机队列中出现两次、被下一帧覆盖时仍有使用方在读取。
+ */
+
+final class PreviewBufferPool {
+    private final int mDepth;//缓冲区个数
+
+    private Camera mCamera;
+    private final List<byte[]> mBuffers = new ArrayList<>();
+    private int mBufferSize = 0;
+    //已交给相机、尚未回调的缓冲区
+    private final Set<byte[]> mQueued = Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+    //已回调给使用方、尚未归还的缓冲区
+    private final Set<byte[]> mCheckedOut = Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+    private long mExhaustedCount = 0;//缓冲区耗尽次数
+
+    PreviewBufferPool(int depth) {
+        mDepth = depth < 1 ? 1 : depth;
+    }
+
+    /**
+     * 按预览尺寸与格式计算单帧所需字节数
+     *
+     * @param width  预览宽
+     * @param height 预览高
+     * @param format 预览格式{@link ImageFormat}
+     * @return 单帧字节数
+     */
+    static int computeBufferSize(int width, int height, int format) {
+        int bitsPerPixel = ImageFormat.getBitsPerPixel(format);
+        if (bitsPerPixel <= 0) {
+            bitsPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.NV21);
+        }
+        return (int) ((long) width * height * bitsPerPixel / 8);
+    }
+
+    /**
+     * 绑定相机，并把所有空闲的缓冲区交给相机
+     * 尺寸不变时复用已分配的缓冲区，使用方尚未归还的缓冲区在归还时再交给相机
+     *
+     * @param camera 当前相机
+     * @param width  预览宽
+     * @param height 预览高
+     * @param format 预览格式
+     */
+    synchronized void attach(Camera camera, int width, int height, int format) {
+        int bufferSize = computeBufferSize(width, height, format);
+        if (bufferSize != mBufferSize) {
+            //旧尺寸的缓冲区不再属于本池，使用方归还时会被忽略
+            mBuffers.clear();
+            mCheckedOut.clear();
+            mBufferSize = bufferSize;
+        }
+        while (mBuffers.size() < mDepth) {
+            mBuffers.add(new byte[mBufferSize]);
+        }
+        mCamera = camera;
+        mQueued.clear();
+        for (byte[] buffer : mBuffers) {
+            if (mCheckedOut.contains(buffer)) {
+                continue;
+            }
+            camera.addCallbackBuffer(buffer);
+            mQueued.add(buffer);
+        }
+    }
+
+    /**
+     * 解除与相机的绑定，缓冲区保留以便下次复用
+     */
+    synchronized void detach() {
+        mCamera = null;
+        mQueued.clear();
+    }
+
+    /**
+     * 相机回调了一帧数据，该缓冲区离开相机队列，交给使用方
+     *
+     * @param buffer 回调中拿到的data
+     */
+    synchronized void onFrameDelivered(byte[] buffer) {
+        if (!mQueued.remove(buffer)) {
+            return;
+        }
+        mCheckedOut.add(buffer);
+        if (mQueued.isEmpty()) {
+            //相机手中已无空闲缓冲区，在有缓冲区归还之前的帧都会被丢弃
+            mExhaustedCount++;
+        }
+    }
+
+    /**
+     * 归还缓冲区，未绑定相机时留到下次绑定再交给相机
+     *
+     * @param buffer 预览回调中拿到的data
+     */
+    synchronized void recycle(byte[] buffer) {
+        if (buffer == null || !mCheckedOut.remove(buffer)) {
+            //不属于本池（如尺寸变化前的旧缓冲区）或已经归还过
+            return;
+        }
+        if (mCamera != null) {
+            mCamera.addCallbackBuffer(buffer);
+            mQueued.add(buffer);
+        }
+    }
+
+    /**
+     * @return 单个缓冲区字节数
+     */
+    synchronized int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /**
+     * @return 缓冲区耗尽次数
+     */
+    synchronized long getExhaustedCount() {
+        return mExhaustedCount;
+    }
+}
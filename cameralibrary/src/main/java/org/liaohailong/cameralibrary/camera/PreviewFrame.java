@@ -0,0 +1,83 @@
+package org.liaohailong.cameralibrary.camera;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Describe as : 分发给{@link FrameProcessor}的预览帧，带引用计数
+ * <p>
+ * 所有持有者都释放后，开启缓冲池时缓冲区才会归还给相机
+ */
+
+public final class PreviewFrame {
+    private final FrameDispatcher mDispatcher;
+    private final byte[] mData;
+    private final AtomicInteger mRefCount = new AtomicInteger();
+    private int mWidth;
+    private int mHeight;
+    private int mFormat;
+    private long mTimestampNanos;
+    private int mGeneration;//相机重新开启后旧帧不再归还给缓冲池
+
+    PreviewFrame(FrameDispatcher dispatcher, byte[] data) {
+        mDispatcher = dispatcher;
+        mData = data;
+    }
+
+    void reset(int width, int height, int format, long timestampNanos, int generation) {
+        mWidth = width;
+        mHeight = height;
+        mFormat = format;
+        mTimestampNanos = timestampNanos;
+        mGeneration = generation;
+        mRefCount.set(1);
+    }
+
+    /**
+     * @return 帧数据，释放后不能再访问
+     */
+    public byte[] getData() {
+        return mData;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return 预览格式{@link android.graphics.ImageFormat}
+     */
+    public int getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * @return 帧到达时间（System.nanoTime）
+     */
+    public long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+
+    int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * 增加一次引用，需要在{@link FrameProcessor#onFrame(PreviewFrame)}返回后继续使用时调用
+     */
+    public void retain() {
+        mRefCount.incrementAndGet();
+    }
+
+    /**
+     * 释放一次引用，与{@link #retain()}成对调用
+     */
+    public void release() {
+        if (mRefCount.decrementAndGet() == 0) {
+            mDispatcher.onFrameReleased(this);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.liaohailong.cameralibrary.camera;
+
+import android.media.CamcorderProfile;
+import android.os.Build;
+
+/**
+ * Describe as : 按存储写入速度选择录像的{@link CamcorderProfile}
+ * <p>
+ * 1，从高到低遍历相机支持的质量档位，选择码率（含音频）留出余量后仍不超过写入速度、且分辨率为相机支持的预览尺寸的最高档位
+ * 2，写入速度允许但分辨率都不是预览尺寸时，使用写入速度允许的最高档位，改用不超过其面积的最大预览尺寸，并按面积等比降低码率
+ * 3，写入速度不足以支持任何档位时使用最低档位，并按写入速度降低视频码率
+ * 4，写入速度未知时沿用{@link CamcorderProfile#QUALITY_HIGH}，改用其它尺寸时同样按面积调整码率
+ */
+
+final class RecordProfileSelector {
+    private static final int HEADROOM_PERCENT = 200;//写入速度至少为码率的2倍，给文件系统与其它写入留出余量
+    private static final int MIN_VIDEO_BIT_RATE = 256 * 1024;
+
+    private RecordProfileSelector() throws IllegalAccessException {
+        throw new IllegalAccessException("no instance!");
+    }
+
+    /**
+     * @param cameraId     相机id
+     * @param writeMBps    存储写入速度（MB/s），未知时小于等于0
+     * @param previewSizes 相机支持的预览尺寸，宽高交替排列
+     * @return 录像配置
+     */
+    static CamcorderProfile select(int cameraId, float writeMBps, int[] previewSizes) {
+        if (writeMBps <= 0) {
+            return CamcorderProfile.get(cameraId, CamcorderProfile.QUALITY_HIGH);
+        }
+        long budgetBitRate = (long) (writeMBps * 1024 * 1024 * 8 * 100 / HEADROOM_PERCENT);
+        CamcorderProfile lowest = null;
+        CamcorderProfile highestInBudget = null;//写入速度允许的最高档位，不论尺寸
+        for (int quality : getQualities()) {
+            if (!CamcorderProfile.hasProfile(cameraId, quality)) {
+                continue;
+            }
+            CamcorderProfile profile = CamcorderProfile.get(cameraId, quality);
+            if (profile == null) {
+                continue;
+            }
+            lowest = profile;
+            if ((long) profile.videoBitRate + profile.audioBitRate > budgetBitRate) {
+                continue;
+            }
+            if (containsSize(previewSizes, profile.videoFrameWidth, profile.videoFrameHeight)) {
+                return profile;
+            }
+            if (highestInBudget == null) {
+                highestInBudget = profile;
+            }
+        }
+        if (highestInBudget != null) {
+            //码率缩小后一定仍在写入速度之内
+            int[] size = findLargestSizeWithin(previewSizes,
+                    highestInBudget.videoFrameWidth * highestInBudget.videoFrameHeight);
+            if (size != null) {
+                resize(highestInBudget, size[0], size[1]);
+                return highestInBudget;
+            }
+        }
+        if (lowest == null) {
+            return CamcorderProfile.get(cameraId, CamcorderProfile.QUALITY_LOW);
+        }
+        //最低档位也写不过来，降低视频码率
+        long videoBitRate = budgetBitRate - lowest.audioBitRate;
+        if (videoBitRate < lowest.videoBitRate) {
+            lowest.videoBitRate = (int) Math.max(MIN_VIDEO_BIT_RATE, videoBitRate);
+        }
+        return lowest;
+    }
+
+    /**
+     * 修改录像分辨率，视频码率按像素面积等比调整，保持每个像素的码率不变
+     *
+     * @param profile 录像配置
+     * @param width   新的宽
+     * @param height  新的高
+     */
+    static void resize(CamcorderProfile profile, int width, int height) {
+        long oldArea = (long) profile.videoFrameWidth * profile.videoFrameHeight;
+        long newArea = (long) width * height;
+        if (oldArea > 0 && newArea > 0 && oldArea != newArea) {
+            long bitRate = profile.videoBitRate * newArea / oldArea;
+            profile.videoBitRate = (int) Math.max(MIN_VIDEO_BIT_RATE, Math.min(Integer.MAX_VALUE, bitRate));
+        }
+        profile.videoFrameWidth = width;
+        profile.videoFrameHeight = height;
+    }
+
+    /**
+     * @return 面积不超过上限的最大尺寸{宽, 高}，没有时返回null
+     */
+    private static int[] findLargestSizeWithin(int[] sizes, long maxArea) {
+        if (sizes == null) {
+            return null;
+        }
+        int[] best = null;
+        long bestArea = 0;
+        for (int i = 0; i + 1 < sizes.length; i += 2) {
+            long area = (long) sizes[i] * sizes[i + 1];
+            if (area <= maxArea && area > bestArea) {
+                bestArea = area;
+                best = new int[]{sizes[i], sizes[i + 1]};
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return 从高到低的质量档位
+     */
+    private static int[] getQualities() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return new int[]{CamcorderProfile.QUALITY_2160P, CamcorderProfile.QUALITY_1080P,
+                    CamcorderProfile.QUALITY_720P, CamcorderProfile.QUALITY_480P,
+                    CamcorderProfile.QUALITY_CIF, CamcorderProfile.QUALITY_QVGA, CamcorderProfile.QUALITY_QCIF};
+        }
+        return new int[]{CamcorderProfile.QUALITY_1080P, CamcorderProfile.QUALITY_720P,
+                CamcorderProfile.QUALITY_480P, CamcorderProfile.QUALITY_CIF,
+                CamcorderProfile.QUALITY_QVGA, CamcorderProfile.QUALITY_QCIF};
+    }
+
+    private static boolean containsSize(int[] sizes, int width, int height) {
+        if (sizes == null || sizes.length == 0) {
+            //没有尺寸信息时不限制
+            return true;
+        }
+        for (int i = 0; i + 1 < sizes.length; i += 2) {
+            if (sizes[i] == width && sizes[i + 1] == height) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
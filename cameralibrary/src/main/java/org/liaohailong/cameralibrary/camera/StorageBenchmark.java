@@ -0,0 +1,126 @@
+package org.liaohailong.cameralibrary.camera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Describe as : 录像目录的顺序写入速度测试
+ * <p>
+ * 1，向保存目录顺序写入一个临时文件并同步到存储，按总耗时计算MB/s，结束后删除
+ * 2，结果按目录缓存在SharedPreferences，一周内不重复测试（存储卡不会轻易更换）
+ * 3，在独立的低优先级线程测试，不阻塞相机线程
+ */
+
+final class StorageBenchmark {
+    private static final String PREFERENCES_NAME = "camera_storage_benchmark";
+    private static final long MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;//缓存有效期
+    private static final int TOTAL_BYTES = 16 * 1024 * 1024;//测试写入16MB
+    private static final int CHUNK_BYTES = 256 * 1024;
+
+    private final Context mContext;
+    private final String mDirectoryPath;
+    private volatile float mWriteMBps = -1;
+    private boolean isRunning = false;
+
+    StorageBenchmark(Context context, String directoryPath) {
+        mContext = context.getApplicationContext();
+        mDirectoryPath = directoryPath;
+        SharedPreferences preferences = mContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        long measuredAt = preferences.getLong(directoryPath + "#time", 0);
+        if (System.currentTimeMillis() - measuredAt < MAX_AGE_MS) {
+            mWriteMBps = preferences.getFloat(directoryPath + "#mbps", -1);
+        }
+    }
+
+    /**
+     * @return 顺序写入速度（MB/s），尚未测试时为-1
+     */
+    float getWriteMBps() {
+        return mWriteMBps;
+    }
+
+    /**
+     * @return 是否正在测试
+     */
+    synchronized boolean isRunning() {
+        return isRunning;
+    }
+
+    /**
+     * 没有缓存结果时在后台测试一次
+     */
+    synchronized void measureAsync() {
+        if (mWriteMBps > 0 || isRunning || mDirectoryPath == null || mDirectoryPath.length() == 0) {
+            return;
+        }
+        isRunning = true;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                float writeMBps = measure(new File(mDirectoryPath), TOTAL_BYTES, CHUNK_BYTES);
+                if (writeMBps > 0) {
+                    mWriteMBps = writeMBps;
+                    mContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE).edit()
+                            .putFloat(mDirectoryPath + "#mbps", writeMBps)
+                            .putLong(mDirectoryPath + "#time", System.currentTimeMillis())
+                            .apply();
+                }
+                synchronized (StorageBenchmark.this) {
+                    isRunning = false;
+                }
+            }
+        }, "StorageBenchmark");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * 顺序写入并同步到存储，计算写入速度
+     *
+     * @param directory  测试目录
+     * @param totalBytes 写入总字节数
+     * @param chunkBytes 每次写入的字节数
+     * @return 写入速度（MB/s），失败时为-1
+     */
+    static float measure(File directory, int totalBytes, int chunkBytes) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            return -1;
+        }
+        File file = new File(directory, ".storage_benchmark.tmp");
+        byte[] chunk = new byte[chunkBytes];
+        for (int i = 0; i < chunk.length; i++) {
+            //避免全零数据被文件系统特殊处理
+            chunk[i] = (byte) (i * 31);
+        }
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(file);
+            long startNanos = System.nanoTime();
+            for (int written = 0; written < totalBytes; written += chunkBytes) {
+                outputStream.write(chunk, 0, Math.min(chunkBytes, totalBytes - written));
+            }
+            //录像是持续写入，需要算上真正落盘的时间
+            outputStream.getFD().sync();
+            long elapsedNanos = System.nanoTime() - startNanos;
+            return elapsedNanos <= 0 ? -1 : totalBytes / (1024f * 1024f) / (elapsedNanos / 1e9f);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return -1;
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+            if (file.exists() && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+}
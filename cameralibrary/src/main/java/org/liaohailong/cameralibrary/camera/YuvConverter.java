@@ -0,0 +1,266 @@
+package org.liaohailong.cameralibrary.camera;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Describe as : 预览帧NV21格式转换工具，输出ARGB_8888/RGB565/I420/NV12
+ * <p>
+ * 1，输出数组由调用方提供并复用，转换过程中不分配内存
+ * 2，只使用整数运算（BT.601）
+ * 3，大尺寸帧按行分段，交给多个线程并行转换；ForkJoinPool在API 21才加入，minSdk为19，
+ * 因此使用固定大小的守护线程池，当前线程执行最后一段并用CountDownLatch等待其余各段
+ * <p>
+ * 纯Java实现，不依赖Android API，可直接在JVM上测试
+ */
+
+public final class YuvConverter {
+
+    private YuvConverter() throws IllegalAccessException {
+        throw new IllegalAccessException("no instance!");
+    }
+
+    //像素数不小于此值时并行转换（约等于640x480）
+    static final int PARALLEL_THRESHOLD = 640 * 480;
+    private static final int THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static volatile ExecutorService sExecutorService;
+    private static volatile boolean sParallelEnabled = true;
+
+    /**
+     * 关闭后所有尺寸都在调用线程转换，用于对比并行的收益，或调用方已在多个线程中同时转换时避免争抢
+     *
+     * @param parallelEnabled 大尺寸帧是否并行转换
+     */
+    static void setParallelEnabled(boolean parallelEnabled) {
+        sParallelEnabled = parallelEnabled;
+    }
+
+    /**
+     * NV21 -> ARGB_8888，可直接用于{@code Bitmap.setPixels}
+     *
+     * @param nv21   NV21数据
+     * @param width  帧宽（偶数）
+     * @param height 帧高（偶数）
+     * @param out    输出，长度不小于width * height
+     */
+    public static void nv21ToArgb(final byte[] nv21, final int width, final int height, final int[] out) {
+        checkArgs(nv21, width, height, out.length, width * height);
+        execute(width, height, new RowKernel() {
+            @Override
+            void run(int rowStart, int rowEnd) {
+                for (int row = rowStart; row < rowEnd; row++) {
+                    int yIndex = row * width;
+                    int uvIndex = width * height + (row >> 1) * width;
+                    for (int col = 0; col < width; col += 2) {
+                        int v = (nv21[uvIndex++] & 0xff) - 128;
+                        int u = (nv21[uvIndex++] & 0xff) - 128;
+                        int rOffset = 409 * v + 128;
+                        int gOffset = -100 * u - 208 * v + 128;
+                        int bOffset = 516 * u + 128;
+
+                        int y = ((nv21[yIndex] & 0xff) - 16) * 298;
+                        out[yIndex++] = 0xff000000
+                                | (clamp((y + rOffset) >> 8) << 16)
+                                | (clamp((y + gOffset) >> 8) << 8)
+                                | clamp((y + bOffset) >> 8);
+
+                        y = ((nv21[yIndex] & 0xff) - 16) * 298;
+                        out[yIndex++] = 0xff000000
+                                | (clamp((y + rOffset) >> 8) << 16)
+                                | (clamp((y + gOffset) >> 8) << 8)
+                                | clamp((y + bOffset) >> 8);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * NV21 -> RGB565，可通过{@code Bitmap.copyPixelsFromBuffer(ShortBuffer.wrap(out))}写入RGB_565的Bitmap
+     *
+     * @param nv21   NV21数据
+     * @param width  帧宽（偶数）
+     * @param height 帧高（偶数）
+     * @param out    输出，长度不小于width * height
+     */
+    public static void nv21ToRgb565(final byte[] nv21, final int width, final int height, final short[] out) {
+        checkArgs(nv21, width, height, out.length, width * height);
+        execute(width, height, new RowKernel() {
+            @Override
+            void run(int rowStart, int rowEnd) {
+                for (int row = rowStart; row < rowEnd; row++) {
+                    int yIndex = row * width;
+                    int uvIndex = width * height + (row >> 1) * width;
+                    for (int col = 0; col < width; col += 2) {
+                        int v = (nv21[uvIndex++] & 0xff) - 128;
+                        int u = (nv21[uvIndex++] & 0xff) - 128;
+                        int rOffset = 409 * v + 128;
+                        int gOffset = -100 * u - 208 * v + 128;
+                        int bOffset = 516 * u + 128;
+
+                        int y = ((nv21[yIndex] & 0xff) - 16) * 298;
+                        out[yIndex++] = (short) (((clamp((y + rOffset) >> 8) >> 3) << 11)
+                                | ((clamp((y + gOffset) >> 8) >> 2) << 5)
+                                | (clamp((y + bOffset) >> 8) >> 3));
+
+                        y = ((nv21[yIndex] & 0xff) - 16) * 298;
+                        out[yIndex++] = (short) (((clamp((y + rOffset) >> 8) >> 3) << 11)
+                                | ((clamp((y + gOffset) >> 8) >> 2) << 5)
+                                | (clamp((y + bOffset) >> 8) >> 3));
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * NV21 -> I420（YYYY...UU...VV...）
+     *
+     * @param nv21   NV21数据
+     * @param width  帧宽（偶数）
+     * @param height 帧高（偶数）
+     * @param out    输出，长度不小于width * height * 3 / 2
+     */
+    public static void nv21ToI420(final byte[] nv21, final int width, final int height, final byte[] out) {
+        final int frameSize = width * height;
+        checkArgs(nv21, width, height, out.length, frameSize * 3 / 2);
+        execute(width, height, new RowKernel() {
+            @Override
+            void run(int rowStart, int rowEnd) {
+                System.arraycopy(nv21, rowStart * width, out, rowStart * width, (rowEnd - rowStart) * width);
+                int chromaWidth = width >> 1;
+                int uStart = frameSize;
+                int vStart = frameSize + (frameSize >> 2);
+                for (int row = rowStart >> 1; row < rowEnd >> 1; row++) {
+                    int uvIndex = frameSize + row * width;
+                    int chromaIndex = row * chromaWidth;
+                    for (int col = 0; col < chromaWidth; col++) {
+                        out[vStart + chromaIndex] = nv21[uvIndex++];
+                        out[uStart + chromaIndex] = nv21[uvIndex++];
+                        chromaIndex++;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * NV21 -> NV12（YYYY...UVUV...）
+     *
+     * @param nv21   NV21数据
+     * @param width  帧宽（偶数）
+     * @param height 帧高（偶数）
+     * @param out    输出，长度不小于width * height * 3 / 2
+     */
+    public static void nv21ToNv12(final byte[] nv21, final int width, final int height, final byte[] out) {
+        final int frameSize = width * height;
+        checkArgs(nv21, width, height, out.length, frameSize * 3 / 2);
+        execute(width, height, new RowKernel() {
+            @Override
+            void run(int rowStart, int rowEnd) {
+                System.arraycopy(nv21, rowStart * width, out, rowStart * width, (rowEnd - rowStart) * width);
+                int start = frameSize + (rowStart >> 1) * width;
+                int end = frameSize + (rowEnd >> 1) * width;
+                for (int i = start; i < end; i += 2) {
+                    out[i] = nv21[i + 1];
+                    out[i + 1] = nv21[i];
+                }
+            }
+        });
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    private static void checkArgs(byte[] nv21, int width, int height, int outLength, int requiredOutLength) {
+        if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) {
+            throw new IllegalArgumentException("width and height must be positive even numbers: " + width + "x" + height);
+        }
+        if (nv21.length < width * height * 3 / 2) {
+            throw new IllegalArgumentException("nv21 length " + nv21.length + " is too small for " + width + "x" + height);
+        }
+        if (outLength < requiredOutLength) {
+            throw new IllegalArgumentException("out length " + outLength + " is too small, need " + requiredOutLength);
+        }
+    }
+
+    /**
+     * 按行分段执行，每段行数为偶数，保证同一行色度数据只被一个线程处理
+     */
+    private static void execute(int width, int height, final RowKernel kernel) {
+        int stripeCount = Math.min(THREAD_COUNT, height >> 1);
+        if (!sParallelEnabled || width * height < PARALLEL_THRESHOLD || stripeCount < 2 || Thread.currentThread() instanceof Worker) {
+            kernel.run(0, height);
+            return;
+        }
+        ExecutorService executorService = getExecutorService();
+        int rowsPerStripe = ((height / stripeCount) + 1) & ~1;
+        final CountDownLatch latch = new CountDownLatch(stripeCount - 1);
+        int rowStart = 0;
+        for (int i = 0; i < stripeCount - 1; i++) {
+            final int start = rowStart;
+            final int end = Math.min(height, rowStart + rowsPerStripe);
+            rowStart = end;
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        kernel.run(start, end);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        //最后一段在当前线程执行
+        kernel.run(rowStart, height);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ExecutorService getExecutorService() {
+        if (sExecutorService == null) {
+            synchronized (YuvConverter.class) {
+                if (sExecutorService == null) {
+                    sExecutorService = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+                        private int index = 0;
+
+                        @Override
+                        public synchronized Thread newThread(Runnable r) {
+                            return new Worker(r, "YuvConverter-" + index++);
+                        }
+                    });
+                }
+            }
+        }
+        return sExecutorService;
+    }
+
+    private static abstract class RowKernel {
+        /**
+         * @param rowStart 起始行（包含，偶数）
+         * @param rowEnd   结束行（不包含，偶数）
+         */
+        abstract void run(int rowStart, int rowEnd);
+    }
+
+    private static final class Worker extends Thread {
+        Worker(Runnable runnable, String name) {
+            super(runnable, name);
+            setDaemon(true);
+        }
+    }
+}
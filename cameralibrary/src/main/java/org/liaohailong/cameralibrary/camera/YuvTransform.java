@@ -0,0 +1,195 @@
+package org.liaohailong.cameralibrary.camera;
+
+/**
+ * Describe as : NV21/I420帧的旋转与镜像，直接操作平面数据，无需经过Bitmap
+ * <p>
+ * 1，旋转（顺时针0/90/180/270度）与水平镜像合并为一次遍历，镜像作用于旋转之后的画面
+ * 2，输出数组由调用方提供，过程中不分配内存
+ * 3，90/270度旋转按块遍历，保证读写都落在缓存内
+ * <p>
+ * 配合{@link CameraHelper#getPreviewFrameRotation()}与{@link CameraHelper#isPreviewFrameMirror()}
+ * 可以得到与屏幕所见一致的正向预览帧
+ */
+
+public final class YuvTransform {
+
+    private YuvTransform() throws IllegalAccessException {
+        throw new IllegalAccessException("no instance!");
+    }
+
+    //分块边长（像素），32x32的块读写都能落在L1缓存内
+    private static final int TILE_SIZE = 32;
+
+    /**
+     * @param width    原始宽
+     * @param height   原始高
+     * @param rotation 顺时针旋转角度
+     * @return 旋转后的宽
+     */
+    public static int getOutputWidth(int width, int height, int rotation) {
+        return rotation == 90 || rotation == 270 ? height : width;
+    }
+
+    /**
+     * @param width    原始宽
+     * @param height   原始高
+     * @param rotation 顺时针旋转角度
+     * @return 旋转后的高
+     */
+    public static int getOutputHeight(int width, int height, int rotation) {
+        return rotation == 90 || rotation == 270 ? width : height;
+    }
+
+    /**
+     * 旋转并镜像NV21帧
+     *
+     * @param src      NV21数据
+     * @param width    帧宽（偶数）
+     * @param height   帧高（偶数）
+     * @param dst      输出NV21数据，长度不小于width * height * 3 / 2，不能与src为同一数组
+     * @param rotation 顺时针旋转角度，0/90/180/270
+     * @param mirror   旋转后是否水平镜像
+     */
+    public static void transformNv21(byte[] src, int width, int height, byte[] dst, int rotation, boolean mirror) {
+        checkArgs(src, width, height, dst, rotation);
+        int frameSize = width * height;
+        transformPlane(src, 0, width, height, 1, dst, 0, rotation, mirror);
+        //VU交错排列，以两个字节为一个单位整体搬运
+        transformPlane(src, frameSize, width >> 1, height >> 1, 2, dst, frameSize, rotation, mirror);
+    }
+
+    /**
+     * 旋转并镜像I420帧
+     *
+     * @param src      I420数据
+     * @param width    帧宽（偶数）
+     * @param height   帧高（偶数）
+     * @param dst      输出I420数据，长度不小于width * height * 3 / 2，不能与src为同一数组
+     * @param rotation 顺时针旋转角度，0/90/180/270
+     * @param mirror   旋转后是否水平镜像
+     */
+    public static void transformI420(byte[] src, int width, int height, byte[] dst, int rotation, boolean mirror) {
+        checkArgs(src, width, height, dst, rotation);
+        int frameSize = width * height;
+        int chromaSize = frameSize >> 2;
+        transformPlane(src, 0, width, height, 1, dst, 0, rotation, mirror);
+        transformPlane(src, frameSize, width >> 1, height >> 1, 1, dst, frameSize, rotation, mirror);
+        transformPlane(src, frameSize + chromaSize, width >> 1, height >> 1, 1, dst, frameSize + chromaSize, rotation, mirror);
+    }
+
+    private static void checkArgs(byte[] src, int width, int height, byte[] dst, int rotation) {
+        if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) {
+            throw new IllegalArgumentException("width and height must be positive even numbers: " + width + "x" + height);
+        }
+        if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270) {
+            throw new IllegalArgumentException("rotation must be 0, 90, 180 or 270: " + rotation);
+        }
+        int required = width * height * 3 / 2;
+        if (src.length < required || dst.length < required) {
+            throw new IllegalArgumentException("buffer is too small for " + width + "x" + height);
+        }
+        if (src == dst) {
+            throw new IllegalArgumentException("in-place transform is not supported");
+        }
+    }
+
+    /**
+     * 变换单个平面
+     * <p>
+     * 源坐标(x, y)映射到目标坐标(dx, dy)均为线性关系：
+     * dx = ax + bx * x + cx * y，dy = ay + by * x + cy * y
+     * 因此目标下标 = origin + x * stepX + y * stepY，内层循环只有加法
+     *
+     * @param elementSize 每个元素的字节数，NV21的VU交错平面为2
+     */
+    private static void transformPlane(byte[] src, int srcOffset, int width, int height, int elementSize,
+                                       byte[] dst, int dstOffset, int rotation, boolean mirror) {
+        int outWidth = getOutputWidth(width, height, rotation);
+        int ax, bx, cx, ay, by, cy;
+        switch (rotation) {
+            case 90:
+                ax = height - 1;
+                bx = 0;
+                cx = -1;
+                ay = 0;
+                by = 1;
+                cy = 0;
+                break;
+            case 180:
+                ax = width - 1;
+                bx = -1;
+                cx = 0;
+                ay = height - 1;
+                by = 0;
+                cy = -1;
+                break;
+            case 270:
+                ax = 0;
+                bx = 0;
+                cx = 1;
+                ay = width - 1;
+                by = -1;
+                cy = 0;
+                break;
+            default:
+                ax = 0;
+                bx = 1;
+                cx = 0;
+                ay = 0;
+                by = 0;
+                cy = 1;
+                break;
+        }
+        if (mirror) {
+            ax = outWidth - 1 - ax;
+            bx = -bx;
+            cx = -cx;
+        }
+        int origin = ax + ay * outWidth;
+        int stepX = bx + by * outWidth;
+        int stepY = cx + cy * outWidth;
+
+        if (rotation == 0 && !mirror) {
+            System.arraycopy(src, srcOffset, dst, dstOffset, width * height * elementSize);
+            return;
+        }
+        if (rotation == 0 || rotation == 180) {
+            //按行读写都是连续的，无需分块
+            copyBlock(src, srcOffset, width, elementSize, dst, dstOffset, origin, stepX, stepY, 0, width, 0, height);
+            return;
+        }
+        for (int tileY = 0; tileY < height; tileY += TILE_SIZE) {
+            int yEnd = Math.min(height, tileY + TILE_SIZE);
+            for (int tileX = 0; tileX < width; tileX += TILE_SIZE) {
+                int xEnd = Math.min(width, tileX + TILE_SIZE);
+                copyBlock(src, srcOffset, width, elementSize, dst, dstOffset, origin, stepX, stepY, tileX, xEnd, tileY, yEnd);
+            }
+        }
+    }
+
+    private static void copyBlock(byte[] src, int srcOffset, int width, int elementSize,
+                                  byte[] dst, int dstOffset, int origin, int stepX, int stepY,
+                                  int xStart, int xEnd, int yStart, int yEnd) {
+        if (elementSize == 1) {
+            for (int y = yStart; y < yEnd; y++) {
+                int srcIndex = srcOffset + y * width + xStart;
+                int dstIndex = dstOffset + origin + xStart * stepX + y * stepY;
+                for (int x = xStart; x < xEnd; x++) {
+                    dst[dstIndex] = src[srcIndex++];
+                    dstIndex += stepX;
+                }
+            }
+        } else {
+            int dstStepX = stepX * 2;
+            for (int y = yStart; y < yEnd; y++) {
+                int srcIndex = srcOffset + (y * width + xStart) * 2;
+                int dstIndex = dstOffset + (origin + xStart * stepX + y * stepY) * 2;
+                for (int x = xStart; x < xEnd; x++) {
+                    dst[dstIndex] = src[srcIndex++];
+                    dst[dstIndex + 1] = src[srcIndex++];
+                    dstIndex += dstStepX;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package org.liaohailong.cameralibrary.camera;
+
+import android.hardware.Camera;
+import android.view.Choreographer;
+
+import java.util.List;
+
+/**
+ * Describe as : 按屏幕帧节奏合并手势缩放
+ * <p>
+ * 1，手势事件只更新目标倍率，由{@link Choreographer}每帧最多提交一次缩放
+ * 2，支持平滑缩放的相机使用{@link Camera#startSmoothZoom(int)}，缩放过程中的新目标在本次结束后继续
+ * 3，倍率按{@link Camera.Parameters#getZoomRatios()}映射到缩放级别，而不是按级别线性换算
+ * 4，统计捏合过程中预览帧间隔的方差，用于衡量缩放对预览流畅度的影响
+ */
+
+final class ZoomController implements Choreographer.FrameCallback, Camera.OnZoomChangeListener {
+
+    interface Host {
+        /**
+         * 在相机线程执行
+         */
+        void runOnCameraThread(Runnable runnable);
+
+        /**
+         * 直接设置缩放级别（一次setParameters），在相机线程调用
+         */
+        void commitZoom(int zoom);
+
+        /**
+         * 平滑缩放过程中缩放级别发生变化，在相机线程调用，用于同步参数缓存
+         */
+        void onZoomChanged(int zoom);
+    }
+
+    private final Host mHost;
+
+    //相机线程写入，主线程读取
+    private volatile Camera mCamera;
+    private volatile int[] mZoomRatios;//各缩放级别对应的倍率 * 100，递增
+    private volatile boolean isSmoothZoomSupported = false;
+    private volatile int mCurrentZoom = 0;
+
+    //只在主线程访问
+    private float mTargetRatio = 100;
+    private int mRequestedZoom = -1;
+    private boolean isFramePosted = false;
+
+    //只在相机线程访问
+    private boolean isSmoothZooming = false;
+    private int mPendingZoom = -1;
+
+    //捏合过程中预览帧间隔统计（Welford算法）
+    private volatile boolean isPinching = false;
+    private long mLastFrameNanos = 0;
+    private long mFrameCount = 0;
+    private double mIntervalMean = 0;
+    private double mIntervalM2 = 0;
+
+    private final Runnable mApplyRunnable = new Runnable() {
+        @Override
+        public void run() {
+            applyZoom();
+        }
+    };
+    private volatile int mApplyZoom = -1;
+
+    ZoomController(Host host) {
+        mHost = host;
+    }
+
+    /**
+     * 绑定相机，在相机线程调用
+     *
+     * @param camera     当前相机
+     * @param parameters 参数缓存
+     */
+    void attach(Camera camera, Camera.Parameters parameters) {
+        isSmoothZooming = false;
+        mPendingZoom = -1;
+        if (!parameters.isZoomSupported()) {
+            mZoomRatios = null;
+            mCamera = null;
+            return;
+        }
+        List<Integer> ratios = parameters.getZoomRatios();
+        int[] zoomRatios = new int[ratios.size()];
+        for (int i = 0; i < zoomRatios.length; i++) {
+            zoomRatios[i] = ratios.get(i);
+        }
+        mZoomRatios = zoomRatios;
+        mCurrentZoom = parameters.getZoom();
+        isSmoothZoomSupported = parameters.isSmoothZoomSupported();
+        if (isSmoothZoomSupported) {
+            camera.setZoomChangeListener(this);
+        }
+        mCamera = camera;
+    }
+
+    /**
+     * 解除绑定，在相机线程调用
+     */
+    void detach() {
+        mCamera = null;
+        mZoomRatios = null;
+        isSmoothZooming = false;
+        mPendingZoom = -1;
+    }
+
+    /**
+     * 捏合开始，在主线程调用
+     */
+    void onScaleBegin() {
+        int[] zoomRatios = mZoomRatios;
+        if (zoomRatios != null) {
+            mTargetRatio = zoomRatios[Math.min(mCurrentZoom, zoomRatios.length - 1)];
+        }
+        mRequestedZoom = -1;
+        isPinching = true;
+    }
+
+    /**
+     * 捏合过程中，在主线程调用，只更新目标倍率
+     *
+     * @param scaleFactor 本次手势缩放系数
+     */
+    void onScale(float scaleFactor) {
+        int[] zoomRatios = mZoomRatios;
+        if (zoomRatios == null || zoomRatios.length == 0) {
+            return;
+        }
+        mTargetRatio *= scaleFactor;
+        mTargetRatio = Math.max(zoomRatios[0], Math.min(zoomRatios[zoomRatios.length - 1], mTargetRatio));
+        if (!isFramePosted) {
+            isFramePosted = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    /**
+     * 捏合结束，在主线程调用
+     */
+    void onScaleEnd() {
+        isPinching = false;
+    }
+
+    /**
+     * @return 是否正在捏合或平滑缩放，在相机线程调用
+     */
+    boolean isZooming() {
+        return isPinching || isSmoothZooming;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        isFramePosted = false;
+        int[] zoomRatios = mZoomRatios;
+        if (zoomRatios == null) {
+            return;
+        }
+        int zoom = findClosestZoom(zoomRatios, mTargetRatio);
+        if (zoom == mRequestedZoom) {
+            return;
+        }
+        mRequestedZoom = zoom;
+        mApplyZoom = zoom;
+        mHost.runOnCameraThread(mApplyRunnable);
+    }
+
+    /**
+     * 在相机线程提交缩放，多帧的请求在执行前会被合并为最新的一个
+     */
+    private void applyZoom() {
+        Camera camera = mCamera;
+        int zoom = mApplyZoom;
+        if (camera == null || zoom < 0) {
+            return;
+        }
+        if (!isSmoothZoomSupported) {
+            mHost.commitZoom(zoom);
+            mCurrentZoom = zoom;
+            return;
+        }
+        if (isSmoothZooming) {
+            //等本次平滑缩放结束后继续
+            mPendingZoom = zoom;
+            return;
+        }
+        if (zoom == mCurrentZoom) {
+            return;
+        }
+        try {
+            camera.startSmoothZoom(zoom);
+            isSmoothZooming = true;
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            mHost.commitZoom(zoom);
+            mCurrentZoom = zoom;
+        }
+    }
+
+    @Override
+    public void onZoomChange(int zoomValue, boolean stopped, Camera camera) {
+        mCurrentZoom = zoomValue;
+        mHost.onZoomChanged(zoomValue);
+        if (!stopped) {
+            return;
+        }
+        isSmoothZooming = false;
+        int pendingZoom = mPendingZoom;
+        mPendingZoom = -1;
+        if (pendingZoom >= 0 && pendingZoom != zoomValue) {
+            mApplyZoom = pendingZoom;
+            applyZoom();
+        }
+    }
+
+    /**
+     * 二分查找倍率最接近的缩放级别
+     */
+    static int findClosestZoom(int[] zoomRatios, float ratio) {
+        int low = 0;
+        int high = zoomRatios.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (zoomRatios[mid] < ratio) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low > 0 && ratio - zoomRatios[low - 1] < zoomRatios[low] - ratio) {
+            return low - 1;
+        }
+        return low;
+    }
+
+    /**
+     * 预览帧到达，在预览回调线程调用
+     *
+     * @param timestampNanos 帧到达时间
+     */
+    synchronized void onPreviewFrame(long timestampNanos) {
+        if (!isPinching) {
+            mLastFrameNanos = 0;
+            return;
+        }
+        if (mLastFrameNanos > 0) {
+            double interval = (timestampNanos - mLastFrameNanos) / 1e6;
+            mFrameCount++;
+            double delta = interval - mIntervalMean;
+            mIntervalMean += delta / mFrameCount;
+            mIntervalM2 += delta * (interval - mIntervalMean);
+        }
+        mLastFrameNanos = timestampNanos;
+    }
+
+    /**
+     * @return 捏合过程中预览帧间隔的平均值（毫秒）
+     */
+    synchronized double getPinchFrameIntervalMean() {
+        return mIntervalMean;
+    }
+
+    /**
+     * @return 捏合过程中预览帧间隔的方差（毫秒²）
+     */
+    synchronized double getPinchFrameIntervalVariance() {
+        return mFrameCount > 1 ? mIntervalM2 / (mFrameCount - 1) : 0;
+    }
+
+    /**
+     * 清空统计
+     */
+    synchronized void resetFrameStats() {
+        mFrameCount = 0;
+        mIntervalMean = 0;
+        mIntervalM2 = 0;
+        mLastFrameNanos = 0;
+    }
+}
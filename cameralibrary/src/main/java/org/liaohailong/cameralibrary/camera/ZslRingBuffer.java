@@ -0,0 +1,114 @@
+package org.liaohailong.cameralibrary.camera;
+
+/**
+ * Describe as : 零延时拍照（ZSL）所用的预览帧环形缓冲区
+ * <p>
+ * 预先分配K个槽位，预览回调时把帧数据复制进最旧的槽位，并记录时间戳；
+ * 拍照时取出时间上最接近点击时刻的一帧。运行过程中不再分配内存。
+ */
+
+final class ZslRingBuffer {
+    private final byte[][] mSlots;
+    private final long[] mTimestamps;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFrameSize;
+    private int mNext = 0;//下一帧写入的槽位
+    private int mCount = 0;//已写入的帧数
+
+    /**
+     * @param capacity  槽位个数
+     * @param width     预览宽
+     * @param height    预览高
+     * @param frameSize 单帧字节数
+     */
+    ZslRingBuffer(int capacity, int width, int height, int frameSize) {
+        mSlots = new byte[capacity][frameSize];
+        mTimestamps = new long[capacity];
+        mWidth = width;
+        mHeight = height;
+        mFrameSize = frameSize;
+    }
+
+    /**
+     * 按帧数与内存预算计算槽位个数
+     *
+     * @param frameCount   期望缓存的帧数
+     * @param memoryBudget 内存预算（字节），小于等于0表示不限制
+     * @param frameSize    单帧字节数
+     * @return 槽位个数，预算不足一帧时为0，不会超出预算
+     */
+    static int computeCapacity(int frameCount, long memoryBudget, int frameSize) {
+        int capacity = frameCount;
+        if (memoryBudget > 0 && frameSize > 0) {
+            capacity = (int) Math.min(capacity, memoryBudget / frameSize);
+        }
+        return Math.max(0, capacity);
+    }
+
+    /**
+     * 写入一帧，覆盖最旧的槽位
+     *
+     * @param data      预览帧
+     * @param timestamp 帧时间戳
+     */
+    synchronized void offer(byte[] data, long timestamp) {
+        if (data == null || data.length < mFrameSize) {
+            return;
+        }
+        System.arraycopy(data, 0, mSlots[mNext], 0, mFrameSize);
+        mTimestamps[mNext] = timestamp;
+        mNext = (mNext + 1) % mSlots.length;
+        if (mCount < mSlots.length) {
+            mCount++;
+        }
+    }
+
+    /**
+     * 复制时间上最接近目标时刻的一帧
+     *
+     * @param targetTime 目标时刻
+     * @param out        输出，长度不小于{@link #getFrameSize()}
+     * @return 该帧时间戳，缓冲区为空时返回-1
+     */
+    synchronized long copyClosest(long targetTime, byte[] out) {
+        if (mCount == 0) {
+            return -1;
+        }
+        int best = -1;
+        long bestDiff = Long.MAX_VALUE;
+        for (int i = 0; i < mCount; i++) {
+            long diff = Math.abs(mTimestamps[i] - targetTime);
+            if (diff < bestDiff) {
+                bestDiff = diff;
+                best = i;
+            }
+        }
+        System.arraycopy(mSlots[best], 0, out, 0, mFrameSize);
+        return mTimestamps[best];
+    }
+
+    /**
+     * 清空已缓存的帧，槽位保留
+     */
+    synchronized void clear() {
+        mNext = 0;
+        mCount = 0;
+    }
+
+    int getCapacity() {
+        return mSlots.length;
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    int getFrameSize() {
+        return mFrameSize;
+    }
+}
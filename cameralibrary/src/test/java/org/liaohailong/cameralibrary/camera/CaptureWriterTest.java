@@ -0,0 +1,175 @@
+package org.liaohailong.cameralibrary.camera;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link CaptureWriter}在临时目录上的写入、重命名与落盘策略测试
+ */
+public class CaptureWriterTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                int count = inputStream.read(data, offset, data.length - offset);
+                if (count < 0) {
+                    break;
+                }
+                offset += count;
+            }
+        } finally {
+            inputStream.close();
+        }
+        return data;
+    }
+
+    @Test
+    public void write_producesExactContentWithoutTempFile() throws IOException {
+        CaptureWriter writer = new CaptureWriter(CaptureWriter.Durability.NONE, 1, 8192);
+        //比缓冲区大得多，需要多次写出
+        byte[] data = randomBytes(100 * 1024 + 17, 1);
+        File target = new File(mFolder.getRoot(), "a.jpeg");
+
+        assertTrue(writer.write(target.getPath(), data, 0, data.length));
+
+        assertArrayEquals(data, readFile(target));
+        assertFalse(new File(target.getPath() + CaptureWriter.TEMP_SUFFIX).exists());
+        assertEquals(1, writer.getFileCount());
+        assertEquals(data.length, writer.getTotalBytes());
+        assertTrue(writer.getBytesPerSecond() > 0);
+        assertTrue(writer.getMaxLatencyUs() >= writer.getLastLatencyUs());
+    }
+
+    @Test
+    public void streamWrites_mixedSingleBytesAndArrays() throws IOException {
+        CaptureWriter writer = new CaptureWriter(CaptureWriter.Durability.FDATASYNC, 1, 4096);
+        File target = new File(mFolder.getRoot(), "b.png");
+        byte[] chunk = randomBytes(5000, 2);
+        CaptureWriter.Output output = writer.open(target.getPath());
+        output.write(7);
+        output.write(chunk, 100, 4900);
+        output.write(9);
+        output.commit();
+        output.close();
+
+        byte[] content = readFile(target);
+        assertEquals(4902, content.length);
+        assertEquals(7, content[0]);
+        assertArrayEquals(Arrays.copyOfRange(chunk, 100, 5000), Arrays.copyOfRange(content, 1, 4901));
+        assertEquals(9, content[4901]);
+    }
+
+    @Test
+    public void abort_leavesNoFileAndKeepsPreviousTarget() throws IOException {
+        CaptureWriter writer = new CaptureWriter(CaptureWriter.Durability.NONE, 1, 4096);
+        File target = new File(mFolder.getRoot(), "c.jpeg");
+        byte[] original = randomBytes(1000, 3);
+        assertTrue(writer.write(target.getPath(), original, 0, original.length));
+
+        //模拟写到一半出错：目标文件仍是上一次完整的内容
+        CaptureWriter.Output output = writer.open(target.getPath());
+        output.write(randomBytes(20000, 4), 0, 20000);
+        output.close();
+
+        assertArrayEquals(original, readFile(target));
+        assertFalse(new File(target.getPath() + CaptureWriter.TEMP_SUFFIX).exists());
+        assertEquals(1, writer.getFileCount());
+        assertEquals(1, writer.getFailedCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void writeAfterCommit_fails() throws IOException {
+        CaptureWriter writer = new CaptureWriter(CaptureWriter.Durability.NONE, 1, 4096);
+        CaptureWriter.Output output = writer.open(new File(mFolder.getRoot(), "d.jpeg").getPath());
+        output.write(1);
+        output.commit();
+        output.write(2);
+    }
+
+    @Test
+    public void missingDirectory_reportsFailure() {
+        CaptureWriter writer = new CaptureWriter(CaptureWriter.Durability.NONE, 1, 4096);
+        File target = new File(mFolder.getRoot(), "missing/e.jpeg");
+        assertFalse(writer.write(target.getPath(), new byte[10], 0, 10));
+        assertEquals(0, writer.getFileCount());
+    }
+
+    @Test
+    public void groupCommit_renamesOnlyAfterSync() throws IOException {
+        CaptureWriter writer = new CaptureWriter(CaptureWriter.Durability.GROUP_COMMIT, 3, 4096);
+        final List<String> committed = new ArrayList<>();
+        writer.setCommitListener(new CaptureWriter.CommitListener() {
+            @Override
+            public void onCommitted(String path, boolean success) {
+                assertTrue(success);
+                committed.add(path);
+            }
+        });
+        byte[] data = randomBytes(2048, 5);
+        File[] targets = new File[7];
+        for (int i = 0; i < 7; i++) {
+            targets[i] = new File(mFolder.getRoot(), i + ".jpeg");
+            assertTrue(writer.write(targets[i].getPath(), data, 0, data.length));
+            int synced = (i + 1) / 3 * 3;
+            for (int j = 0; j <= i; j++) {
+                //同步之前只有临时文件，目标文件名下不会出现未落盘的数据
+                assertEquals(j < synced, targets[j].exists());
+                assertEquals(j >= synced, new File(targets[j].getPath() + CaptureWriter.TEMP_SUFFIX).exists());
+            }
+            assertEquals(synced, committed.size());
+        }
+        assertEquals(2, writer.getSyncCount());
+        writer.sync();
+        assertEquals(3, writer.getSyncCount());
+        assertTrue(targets[6].exists());
+        assertFalse(new File(targets[6].getPath() + CaptureWriter.TEMP_SUFFIX).exists());
+        assertEquals(7, committed.size());
+        assertEquals(targets[6].getPath(), committed.get(6));
+        assertArrayEquals(data, readFile(targets[6]));
+        writer.sync();
+        assertEquals(3, writer.getSyncCount());
+    }
+
+    @Test
+    public void durabilityModes_writeAllFilesAndReportStatistics() throws IOException {
+        byte[] data = randomBytes(2 * 1024 * 1024, 6);
+        for (CaptureWriter.Durability durability : CaptureWriter.Durability.values()) {
+            CaptureWriter writer = new CaptureWriter(durability, 4, CaptureWriter.DEFAULT_BUFFER_BYTES);
+            for (int i = 0; i < 8; i++) {
+                File target = new File(mFolder.getRoot(), durability + "-" + i + ".jpeg");
+                assertTrue(writer.write(target.getPath(), data, 0, data.length));
+            }
+            writer.sync();
+            for (int i = 0; i < 8; i++) {
+                File target = new File(mFolder.getRoot(), durability + "-" + i + ".jpeg");
+                assertTrue(Arrays.equals(data, readFile(target)));
+            }
+            assertEquals(8, writer.getFileCount());
+            assertTrue(writer.getBytesPerSecond() > 0);
+            assertTrue(writer.getMaxLatencyUs() >= writer.getAverageLatencyUs());
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package org.liaohailong.cameralibrary.camera;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link JpegOrientation}在合成的JPEG段结构上的补写测试，输出由独立的EXIF解析读回校验
+ */
+public class JpegOrientationTest {
+
+    //DQT段与SOS之后的压缩数据只用作占位，解析只看段结构
+    private static final byte[] DQT = {(byte) 0xFF, (byte) 0xDB, 0, 6, 1, 2, 3, 4};
+    private static final byte[] SCAN = {(byte) 0xFF, (byte) 0xDA, 0, 4, 5, 6, 0x11, 0x22, 0x33, (byte) 0xFF, (byte) 0xD9};
+    private static final byte[] SOI = {(byte) 0xFF, (byte) 0xD8};
+    private static final byte[] JFIF = {(byte) 0xFF, (byte) 0xE0, 0, 7, 'J', 'F', 'I', 'F', 0};
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param littleEndian    TIFF字节序
+     * @param orientation     方向标签取值，小于0表示IFD0中没有方向标签
+     * @param truncateEntries 为true时IFD0声明的条目数多于段内实际的条目
+     * @return EXIF APP1段，IFD0含一个ImageWidth标签与可选的方向标签
+     */
+    private static byte[] exifSegment(boolean littleEndian, int orientation, boolean truncateEntries) {
+        int entries = orientation >= 0 ? 2 : 1;
+        ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+        tiff.write(littleEndian ? 'I' : 'M');
+        tiff.write(littleEndian ? 'I' : 'M');
+        writeShort(tiff, 0x2A, littleEndian);
+        writeInt(tiff, 8, littleEndian);
+        writeShort(tiff, truncateEntries ? entries + 5 : entries, littleEndian);
+        //ImageWidth LONG 1 = 640
+        writeShort(tiff, 0x0100, littleEndian);
+        writeShort(tiff, 4, littleEndian);
+        writeInt(tiff, 1, littleEndian);
+        writeInt(tiff, 640, littleEndian);
+        if (orientation >= 0) {
+            //Orientation SHORT 1
+            writeShort(tiff, 0x0112, littleEndian);
+            writeShort(tiff, 3, littleEndian);
+            writeInt(tiff, 1, littleEndian);
+            writeShort(tiff, orientation, littleEndian);
+            writeShort(tiff, 0, littleEndian);
+        }
+        writeInt(tiff, 0, littleEndian);
+        byte[] body = concat(new byte[]{'E', 'x', 'i', 'f', 0, 0}, tiff.toByteArray());
+        int length = body.length + 2;
+        return concat(new byte[]{(byte) 0xFF, (byte) 0xE1, (byte) (length >> 8), (byte) length}, body);
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value, boolean littleEndian) {
+        if (littleEndian) {
+            out.write(value & 0xff);
+            out.write((value >> 8) & 0xff);
+        } else {
+            out.write((value >> 8) & 0xff);
+            out.write(value & 0xff);
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value, boolean littleEndian) {
+        if (littleEndian) {
+            writeShort(out, value & 0xffff, true);
+            writeShort(out, value >>> 16, true);
+        } else {
+            writeShort(out, value >>> 16, false);
+            writeShort(out, value & 0xffff, false);
+        }
+    }
+
+    /**
+     * 参考解析：逐段查找EXIF APP1，读出IFD0中的方向标签
+     *
+     * @return 方向取值，没有EXIF或方向标签时返回-1
+     */
+    private static int readOrientation(byte[] jpeg) {
+        int offset = 2;
+        while (offset + 4 <= jpeg.length && (jpeg[offset] & 0xff) == 0xFF) {
+            int marker = jpeg[offset + 1] & 0xff;
+            if (marker == 0xDA || marker == 0xD9) {
+                return -1;
+            }
+            int length = ((jpeg[offset + 2] & 0xff) << 8) | (jpeg[offset + 3] & 0xff);
+            if (marker == 0xE1 && jpeg[offset + 4] == 'E' && jpeg[offset + 5] == 'x') {
+                int tiff = offset + 10;
+                boolean littleEndian = jpeg[tiff] == 'I';
+                int ifd = tiff + readInt(jpeg, tiff + 4, littleEndian);
+                int count = readShort(jpeg, ifd, littleEndian);
+                for (int i = 0; i < count; i++) {
+                    int entry = ifd + 2 + i * 12;
+                    if (readShort(jpeg, entry, littleEndian) == 0x0112) {
+                        return readShort(jpeg, entry + 8, littleEndian);
+                    }
+                }
+                return -1;
+            }
+            offset += 2 + length;
+        }
+        return -1;
+    }
+
+    private static int readShort(byte[] data, int offset, boolean littleEndian) {
+        int b0 = data[offset] & 0xff;
+        int b1 = data[offset + 1] & 0xff;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static int readInt(byte[] data, int offset, boolean littleEndian) {
+        int first = readShort(data, offset, littleEndian);
+        int second = readShort(data, offset + 2, littleEndian);
+        return littleEndian ? (second << 16) | first : (first << 16) | second;
+    }
+
+    private static byte[] write(byte[] jpeg, int orientation, boolean expectedPatched) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(expectedPatched, JpegOrientation.write(jpeg, orientation, out));
+        return out.toByteArray();
+    }
+
+    @Test
+    public void fromRotation_coversEveryOrientation() {
+        assertEquals(JpegOrientation.ORIENTATION_NORMAL, JpegOrientation.fromRotation(0, false));
+        assertEquals(JpegOrientation.ORIENTATION_FLIP_HORIZONTAL, JpegOrientation.fromRotation(0, true));
+        assertEquals(JpegOrientation.ORIENTATION_ROTATE_90, JpegOrientation.fromRotation(90, false));
+        assertEquals(JpegOrientation.ORIENTATION_TRANSPOSE, JpegOrientation.fromRotation(90, true));
+        assertEquals(JpegOrientation.ORIENTATION_ROTATE_180, JpegOrientation.fromRotation(180, false));
+        assertEquals(JpegOrientation.ORIENTATION_FLIP_VERTICAL, JpegOrientation.fromRotation(180, true));
+        assertEquals(JpegOrientation.ORIENTATION_ROTATE_270, JpegOrientation.fromRotation(270, false));
+        assertEquals(JpegOrientation.ORIENTATION_TRANSVERSE, JpegOrientation.fromRotation(270, true));
+        //超出0-360的角度先归一化
+        assertEquals(JpegOrientation.ORIENTATION_ROTATE_270, JpegOrientation.fromRotation(-90, false));
+        assertEquals(JpegOrientation.ORIENTATION_TRANSPOSE, JpegOrientation.fromRotation(450, true));
+    }
+
+    @Test
+    public void withoutApp1_insertsSegmentAfterSoi() throws IOException {
+        byte[] jpeg = concat(SOI, DQT, SCAN);
+        assertTrue(JpegOrientation.canPatch(jpeg));
+        for (int orientation = 1; orientation <= 8; orientation++) {
+            byte[] result = write(jpeg, orientation, true);
+            assertEquals(orientation, readOrientation(result));
+            //原有的段原样跟在新插入的APP1之后
+            byte[] tail = Arrays.copyOfRange(result, result.length - DQT.length - SCAN.length, result.length);
+            assertArrayEquals(concat(DQT, SCAN), tail);
+            assertEquals((byte) 0xE1, result[3]);
+        }
+    }
+
+    @Test
+    public void withoutApp1_insertsSegmentAfterJfif() throws IOException {
+        byte[] jpeg = concat(SOI, JFIF, DQT, SCAN);
+        byte[] result = write(jpeg, JpegOrientation.ORIENTATION_ROTATE_90, true);
+        assertEquals(JpegOrientation.ORIENTATION_ROTATE_90, readOrientation(result));
+        //APP0必须紧跟SOI
+        assertArrayEquals(concat(SOI, JFIF), Arrays.copyOf(result, SOI.length + JFIF.length));
+        assertEquals((byte) 0xE1, result[SOI.length + JFIF.length + 1]);
+    }
+
+    @Test
+    public void withApp1_patchesInPlace() throws IOException {
+        for (boolean littleEndian : new boolean[]{false, true}) {
+            byte[] jpeg = concat(SOI, exifSegment(littleEndian, JpegOrientation.ORIENTATION_NORMAL, false), DQT, SCAN);
+            assertTrue(JpegOrientation.canPatch(jpeg));
+            for (int orientation = 1; orientation <= 8; orientation++) {
+                byte[] result = write(jpeg, orientation, true);
+                assertEquals(jpeg.length, result.length);
+                assertEquals(orientation, readOrientation(result));
+                //只有方向取值的2个字节发生变化
+                int changed = 0;
+                for (int i = 0; i < jpeg.length; i++) {
+                    if (jpeg[i] != result[i]) {
+                        changed++;
+                    }
+                }
+                assertTrue(changed <= 2);
+            }
+        }
+    }
+
+    @Test
+    public void app1WithoutOrientation_isLeftUnchanged() throws IOException {
+        for (boolean littleEndian : new boolean[]{false, true}) {
+            byte[] jpeg = concat(SOI, exifSegment(littleEndian, -1, false), DQT, SCAN);
+            assertFalse(JpegOrientation.canPatch(jpeg));
+            assertArrayEquals(jpeg, write(jpeg, JpegOrientation.ORIENTATION_ROTATE_90, false));
+        }
+    }
+
+    @Test
+    public void truncatedIfd_isLeftUnchanged() throws IOException {
+        byte[] jpeg = concat(SOI, exifSegment(true, -1, true), DQT, SCAN);
+        assertFalse(JpegOrientation.canPatch(jpeg));
+        assertArrayEquals(jpeg, write(jpeg, JpegOrientation.ORIENTATION_ROTATE_90, false));
+    }
+
+    @Test
+    public void garbage_isWrittenUnchanged() throws IOException {
+        byte[][] inputs = {
+                new byte[0],
+                new byte[]{(byte) 0xFF},
+                new byte[]{(byte) 0xFF, (byte) 0xD8},
+                new byte[]{'P', 'N', 'G', 0, 1, 2, 3, 4},
+        };
+        for (byte[] input : inputs) {
+            assertFalse(JpegOrientation.canPatch(input));
+            assertArrayEquals(input, write(input, JpegOrientation.ORIENTATION_ROTATE_90, false));
+        }
+    }
+
+    @Test
+    public void truncatedAndCorruptedInput_neverThrows() throws IOException {
+        byte[][] sources = {
+                concat(SOI, exifSegment(false, JpegOrientation.ORIENTATION_NORMAL, false), DQT, SCAN),
+                concat(SOI, exifSegment(true, JpegOrientation.ORIENTATION_NORMAL, false), DQT, SCAN),
+                concat(SOI, JFIF, DQT, SCAN),
+        };
+        Random random = new Random(5);
+        for (byte[] source : sources) {
+            for (int length = 0; length <= source.length; length++) {
+                byte[] truncated = Arrays.copyOf(source, length);
+                JpegOrientation.write(truncated, JpegOrientation.ORIENTATION_ROTATE_180, new ByteArrayOutputStream());
+            }
+            for (int i = 0; i < 500; i++) {
+                byte[] corrupted = source.clone();
+                corrupted[2 + random.nextInt(corrupted.length - 2)] = (byte) random.nextInt(256);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                if (!JpegOrientation.write(corrupted, JpegOrientation.ORIENTATION_ROTATE_180, out)) {
+                    assertArrayEquals(corrupted, out.toByteArray());
+                }
+            }
+        }
+    }
+}
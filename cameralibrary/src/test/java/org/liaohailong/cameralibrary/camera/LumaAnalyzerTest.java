@@ -0,0 +1,149 @@
+package org.liaohailong.cameralibrary.camera;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link LumaAnalyzer}缩小与统计的正确性测试，以及逐帧复用内部数组的检查
+ */
+public class LumaAnalyzerTest {
+
+    private static byte[] nv21(int width, int height, int luma) {
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        for (int i = 0; i < width * height; i++) {
+            nv21[i] = (byte) luma;
+        }
+        return nv21;
+    }
+
+    @Test
+    public void uniformFrame_producesUniformStatistics() {
+        LumaAnalyzer analyzer = new LumaAnalyzer(32, 24, 4, 3, null);
+        analyzer.analyze(nv21(128, 96, 200), 128, 96);
+
+        assertEquals(32, analyzer.getOutputWidth());
+        assertEquals(24, analyzer.getOutputHeight());
+        assertEquals(200, analyzer.getMeanLuma());
+        assertEquals(32 * 24, analyzer.getHistogram()[200]);
+        for (int value : analyzer.getGrid()) {
+            assertEquals(200, value);
+        }
+        assertEquals(0, analyzer.getSharpness());
+        assertEquals(0, analyzer.getSceneChange());
+    }
+
+    @Test
+    public void downsample_averagesEachBlock() {
+        int width = 8;
+        int height = 4;
+        byte[] frame = nv21(width, height, 0);
+        //左半边0，右半边100，每个2x2块内交替0/200
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value = x < width / 2 ? 0 : ((x + y) % 2 == 0 ? 200 : 0);
+                frame[y * width + x] = (byte) value;
+            }
+        }
+        LumaAnalyzer analyzer = new LumaAnalyzer(4, 2, 2, 1, null);
+        analyzer.analyze(frame, width, height);
+
+        byte[] luma = analyzer.getLuma();
+        for (int oy = 0; oy < 2; oy++) {
+            assertEquals(0, luma[oy * 4] & 0xff);
+            assertEquals(0, luma[oy * 4 + 1] & 0xff);
+            assertEquals(100, luma[oy * 4 + 2] & 0xff);
+            assertEquals(100, luma[oy * 4 + 3] & 0xff);
+        }
+        assertEquals(50, analyzer.getMeanLuma());
+        assertEquals(0, analyzer.getGrid()[0]);
+        assertEquals(100, analyzer.getGrid()[1]);
+    }
+
+    @Test
+    public void nonDivisibleSize_coversEverySourcePixel() {
+        int width = 101;
+        int height = 67;
+        byte[] frame = new byte[width * height * 3 / 2];
+        new Random(7).nextBytes(frame);
+        LumaAnalyzer analyzer = new LumaAnalyzer(30, 20, 5, 5, null);
+        analyzer.analyze(frame, width, height);
+
+        int histogramTotal = 0;
+        for (int count : analyzer.getHistogram()) {
+            histogramTotal += count;
+        }
+        assertEquals(30 * 20, histogramTotal);
+        long sourceSum = 0;
+        for (int i = 0; i < width * height; i++) {
+            sourceSum += frame[i] & 0xff;
+        }
+        //块大小不完全相同，平均值与源图只差舍入误差
+        assertEquals(sourceSum / (width * height), analyzer.getMeanLuma(), 2);
+    }
+
+    @Test
+    public void smallerSource_isNotUpscaled() {
+        LumaAnalyzer analyzer = new LumaAnalyzer(320, 240, 4, 4, null);
+        analyzer.analyze(nv21(160, 120, 10), 160, 120);
+        assertEquals(160, analyzer.getOutputWidth());
+        assertEquals(120, analyzer.getOutputHeight());
+    }
+
+    @Test
+    public void sceneChange_detectsDifferenceFromPreviousFrame() {
+        LumaAnalyzer analyzer = new LumaAnalyzer(16, 16, 2, 2, null);
+        analyzer.analyze(nv21(64, 64, 50), 64, 64);
+        analyzer.analyze(nv21(64, 64, 50), 64, 64);
+        assertEquals(0, analyzer.getSceneChange());
+        analyzer.analyze(nv21(64, 64, 80), 64, 64);
+        assertEquals(30 * 256, analyzer.getSceneChange());
+    }
+
+    @Test
+    public void sharpness_dropsWhenFrameIsBlurred() {
+        int width = 64;
+        int height = 64;
+        byte[] sharp = nv21(width, height, 0);
+        byte[] blurred = nv21(width, height, 0);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                sharp[y * width + x] = (byte) (((x / 4 + y / 4) % 2) * 255);
+                blurred[y * width + x] = (byte) (128 + ((x / 4 + y / 4) % 2) * 16);
+            }
+        }
+        LumaAnalyzer analyzer = new LumaAnalyzer(32, 32, 1, 1, null);
+        analyzer.analyze(sharp, width, height);
+        int sharpScore = analyzer.getSharpness();
+        analyzer.analyze(blurred, width, height);
+        assertTrue(sharpScore > analyzer.getSharpness() * 4);
+    }
+
+    @Test
+    public void analyze_1080pReusesWorkArrays() {
+        int width = 1920;
+        int height = 1080;
+        byte[] frame = new byte[width * height * 3 / 2];
+        new Random(1).nextBytes(frame);
+        LumaAnalyzer analyzer = new LumaAnalyzer(320, 240, 8, 6, null);
+        analyzer.analyze(frame, width, height);
+        Object[] before = analyzer.getWorkArrays();
+        for (int i = 0; i < 5; i++) {
+            analyzer.analyze(frame, width, height);
+        }
+        Object[] after = analyzer.getWorkArrays();
+        //当前帧与上一帧的亮度每帧互换，按实例是否仍在使用比较
+        for (Object array : before) {
+            assertNotNull(array);
+            boolean reused = false;
+            for (Object current : after) {
+                reused |= current == array;
+            }
+            assertTrue(reused);
+        }
+        assertEquals(320, analyzer.getOutputWidth());
+        assertEquals(240, analyzer.getOutputHeight());
+    }
+}
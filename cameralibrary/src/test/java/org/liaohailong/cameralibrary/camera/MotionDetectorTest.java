@@ -0,0 +1,198 @@
+package org.liaohailong.cameralibrary.camera;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link MotionDetector}与{@link MotionGate}在合成帧序列上的测试
+ */
+public class MotionDetectorTest {
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+
+    private static byte[] background() {
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                frame[y * WIDTH + x] = (byte) (60 + (x + y) % 40);
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * 在背景上画一个亮方块
+     */
+    private static byte[] withSquare(int left, int top, int size) {
+        byte[] frame = background();
+        for (int y = top; y < top + size; y++) {
+            for (int x = left; x < left + size; x++) {
+                frame[y * WIDTH + x] = (byte) 240;
+            }
+        }
+        return frame;
+    }
+
+    @Test
+    public void staticScene_hasNoMotion() {
+        MotionDetector detector = new MotionDetector(8, 6, 50);
+        byte[] frame = background();
+        for (int i = 0; i < 10; i++) {
+            assertFalse(detector.analyze(frame, WIDTH, HEIGHT));
+        }
+        assertEquals(0, detector.getChangedBlockCount());
+    }
+
+    @Test
+    public void sensorNoise_isIgnored() {
+        MotionDetector detector = new MotionDetector(8, 6, 80);
+        Random random = new Random(3);
+        byte[] base = background();
+        byte[] frame = new byte[base.length];
+        for (int i = 0; i < 30; i++) {
+            for (int p = 0; p < WIDTH * HEIGHT; p++) {
+                frame[p] = (byte) ((base[p] & 0xff) + random.nextInt(9) - 4);
+            }
+            assertFalse(detector.analyze(frame, WIDTH, HEIGHT));
+        }
+    }
+
+    @Test
+    public void movingObject_isDetected() {
+        MotionDetector detector = new MotionDetector(8, 6, 50);
+        detector.analyze(background(), WIDTH, HEIGHT);
+        assertTrue(detector.analyze(withSquare(40, 30, 40), WIDTH, HEIGHT));
+        assertTrue(detector.getChangedBlockCount() > 0);
+        assertTrue(detector.analyze(withSquare(80, 30, 40), WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void regionMask_ignoresMotionOutsideRegion() {
+        MotionDetector detector = new MotionDetector(4, 4, 100);
+        boolean[] mask = new boolean[16];
+        //只检测右半边
+        for (int row = 0; row < 4; row++) {
+            mask[row * 4 + 2] = true;
+            mask[row * 4 + 3] = true;
+        }
+        detector.setRegionMask(mask);
+        detector.analyze(background(), WIDTH, HEIGHT);
+        assertFalse(detector.analyze(withSquare(0, 0, 60), WIDTH, HEIGHT));
+        assertEquals(0, detector.getChangedBlockCount());
+        assertTrue(detector.analyze(withSquare(100, 60, 60), WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void lowSensitivity_ignoresSmallObject() {
+        MotionDetector low = new MotionDetector(8, 6, 0);
+        MotionDetector high = new MotionDetector(8, 6, 100);
+        low.analyze(background(), WIDTH, HEIGHT);
+        high.analyze(background(), WIDTH, HEIGHT);
+        byte[] small = withSquare(60, 40, 20);
+        assertFalse(low.analyze(small, WIDTH, HEIGHT));
+        assertTrue(high.analyze(small, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void gradualLightChange_isAbsorbedByBackground() {
+        MotionDetector detector = new MotionDetector(8, 6, 50);
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int i = 0; i < 60; i++) {
+            //每帧整体变亮1级
+            for (int p = 0; p < WIDTH * HEIGHT; p++) {
+                frame[p] = (byte) (60 + i);
+            }
+            assertFalse(detector.analyze(frame, WIDTH, HEIGHT));
+        }
+    }
+
+    @Test
+    public void gate_startsAfterConfirmedMotionAndStopsAfterQuietPeriod() {
+        MotionDetector detector = new MotionDetector(8, 6, 50);
+        MotionGate gate = new MotionGate(3, 1000);
+        byte[] still = background();
+        long now = 0;
+        assertEquals(MotionGate.ACTION_NONE, gate.onFrame(detector.analyze(still, WIDTH, HEIGHT), now));
+
+        //单帧闪动不触发
+        now += 33;
+        assertEquals(MotionGate.ACTION_NONE, gate.onFrame(detector.analyze(withSquare(0, 0, 60), WIDTH, HEIGHT), now));
+        now += 33;
+        assertEquals(MotionGate.ACTION_NONE, gate.onFrame(detector.analyze(still, WIDTH, HEIGHT), now));
+
+        //物体连续移动3帧后开始
+        int action = MotionGate.ACTION_NONE;
+        for (int i = 0; i < 3; i++) {
+            now += 33;
+            action = gate.onFrame(detector.analyze(withSquare(10 + i * 30, 30, 50), WIDTH, HEIGHT), now);
+        }
+        assertEquals(MotionGate.ACTION_START, action);
+        assertTrue(gate.isActive());
+        long lastMotion = now;
+
+        //安静期内不停止，背景会逐渐吸收停下来的物体
+        byte[] stopped = withSquare(70, 30, 50);
+        while (now - lastMotion < 990) {
+            now += 33;
+            boolean motion = detector.analyze(stopped, WIDTH, HEIGHT);
+            if (motion) {
+                lastMotion = now;
+            }
+            assertEquals(MotionGate.ACTION_NONE, gate.onFrame(motion, now));
+        }
+        action = MotionGate.ACTION_NONE;
+        for (int i = 0; i < 100 && action == MotionGate.ACTION_NONE; i++) {
+            now += 33;
+            action = gate.onFrame(detector.analyze(stopped, WIDTH, HEIGHT), now);
+        }
+        assertEquals(MotionGate.ACTION_STOP, action);
+        assertFalse(gate.isActive());
+    }
+
+    @Test
+    public void gate_shortPauseKeepsRecording() {
+        MotionGate gate = new MotionGate(1, 500);
+        assertEquals(MotionGate.ACTION_START, gate.onFrame(true, 0));
+        assertEquals(MotionGate.ACTION_NONE, gate.onFrame(false, 300));
+        assertEquals(MotionGate.ACTION_NONE, gate.onFrame(true, 400));
+        assertEquals(MotionGate.ACTION_NONE, gate.onFrame(false, 800));
+        assertEquals(MotionGate.ACTION_STOP, gate.onFrame(false, 900));
+    }
+
+    @Test
+    public void gate_tickStopsWithoutFrames() {
+        MotionGate gate = new MotionGate(1, 500);
+        assertEquals(MotionGate.ACTION_NONE, gate.onTick(100));
+        assertEquals(MotionGate.ACTION_START, gate.onFrame(true, 0));
+        assertEquals(MotionGate.ACTION_NONE, gate.onFrame(true, 200));
+        assertEquals(700, gate.getStopDeadlineMs());
+        //之后不再有帧到达，只靠定时检查停止
+        assertEquals(MotionGate.ACTION_NONE, gate.onTick(699));
+        assertEquals(MotionGate.ACTION_STOP, gate.onTick(700));
+        assertFalse(gate.isActive());
+        assertEquals(MotionGate.ACTION_NONE, gate.onTick(800));
+    }
+
+    @Test
+    public void analyze_reusesWorkArraysPerFrame() {
+        MotionDetector detector = new MotionDetector(16, 12, 50);
+        byte[] frame = background();
+        detector.analyze(frame, WIDTH, HEIGHT);
+        int[][] before = detector.getWorkArrays();
+        for (int i = 0; i < 10; i++) {
+            detector.analyze(frame, WIDTH, HEIGHT);
+        }
+        int[][] after = detector.getWorkArrays();
+        assertEquals(before.length, after.length);
+        for (int i = 0; i < before.length; i++) {
+            assertNotNull(before[i]);
+            assertSame(before[i], after[i]);
+        }
+        //只有尺寸变化时才重新划分块
+        detector.analyze(new byte[WIDTH * 2 * HEIGHT * 2 * 3 / 2], WIDTH * 2, HEIGHT * 2);
+        assertNotSame(before[2], detector.getWorkArrays()[2]);
+    }
+}
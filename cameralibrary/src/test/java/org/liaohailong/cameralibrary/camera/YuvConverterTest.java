@@ -0,0 +1,146 @@
+package org.liaohailong.cameralibrary.camera;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * {@link YuvConverter}与浮点参考实现的对比测试，以及同一次运行中并行与单线程转换的对比
+ */
+public class YuvConverterTest {
+
+    private static byte[] randomNv21(int width, int height, long seed) {
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        new Random(seed).nextBytes(nv21);
+        return nv21;
+    }
+
+    /**
+     * BT.601浮点参考实现
+     */
+    private static int[] referenceRgb(byte[] nv21, int width, int height, int x, int y) {
+        int yValue = nv21[y * width + x] & 0xff;
+        int uvIndex = width * height + (y >> 1) * width + (x & ~1);
+        int v = (nv21[uvIndex] & 0xff) - 128;
+        int u = (nv21[uvIndex + 1] & 0xff) - 128;
+        double c = 1.164 * (yValue - 16);
+        int r = (int) Math.round(c + 1.596 * v);
+        int g = (int) Math.round(c - 0.391 * u - 0.813 * v);
+        int b = (int) Math.round(c + 2.018 * u);
+        return new int[]{clamp(r), clamp(g), clamp(b)};
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    @Test
+    public void nv21ToArgb_matchesReference() throws Exception {
+        //大尺寸走并行分段，小尺寸走单线程
+        int[][] sizes = {{64, 48}, {1280, 720}};
+        for (int[] size : sizes) {
+            int width = size[0];
+            int height = size[1];
+            byte[] nv21 = randomNv21(width, height, width);
+            int[] argb = new int[width * height];
+            YuvConverter.nv21ToArgb(nv21, width, height, argb);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int[] expected = referenceRgb(nv21, width, height, x, y);
+                    int actual = argb[y * width + x];
+                    assertEquals(0xff, actual >>> 24);
+                    assertEquals(expected[0], (actual >> 16) & 0xff, 2);
+                    assertEquals(expected[1], (actual >> 8) & 0xff, 2);
+                    assertEquals(expected[2], actual & 0xff, 2);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void nv21ToRgb565_matchesArgb() throws Exception {
+        int width = 1280;
+        int height = 720;
+        byte[] nv21 = randomNv21(width, height, 7);
+        int[] argb = new int[width * height];
+        short[] rgb565 = new short[width * height];
+        YuvConverter.nv21ToArgb(nv21, width, height, argb);
+        YuvConverter.nv21ToRgb565(nv21, width, height, rgb565);
+        for (int i = 0; i < argb.length; i++) {
+            int expected = (((argb[i] >> 19) & 0x1f) << 11) | (((argb[i] >> 10) & 0x3f) << 5) | ((argb[i] >> 3) & 0x1f);
+            assertEquals(expected, rgb565[i] & 0xffff);
+        }
+    }
+
+    @Test
+    public void nv21ToI420_and_nv21ToNv12() throws Exception {
+        int[][] sizes = {{16, 8}, {1920, 1080}};
+        for (int[] size : sizes) {
+            int width = size[0];
+            int height = size[1];
+            int frameSize = width * height;
+            int chromaSize = frameSize / 4;
+            byte[] nv21 = randomNv21(width, height, height);
+            byte[] i420 = new byte[frameSize * 3 / 2];
+            byte[] nv12 = new byte[frameSize * 3 / 2];
+            YuvConverter.nv21ToI420(nv21, width, height, i420);
+            YuvConverter.nv21ToNv12(nv21, width, height, nv12);
+            for (int i = 0; i < frameSize; i++) {
+                assertEquals(nv21[i], i420[i]);
+                assertEquals(nv21[i], nv12[i]);
+            }
+            for (int i = 0; i < chromaSize; i++) {
+                byte v = nv21[frameSize + i * 2];
+                byte u = nv21[frameSize + i * 2 + 1];
+                assertEquals(u, i420[frameSize + i]);
+                assertEquals(v, i420[frameSize + chromaSize + i]);
+                assertEquals(u, nv12[frameSize + i * 2]);
+                assertEquals(v, nv12[frameSize + i * 2 + 1]);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oddSize_isRejected() throws Exception {
+        YuvConverter.nv21ToArgb(new byte[15 * 10 * 3 / 2], 15, 10, new int[15 * 10]);
+    }
+
+    @Test
+    public void parallel_matchesAndBeatsSerialAt1080p() throws Exception {
+        assumeTrue(Runtime.getRuntime().availableProcessors() >= 2);
+        int width = 1920;
+        int height = 1080;
+        byte[] nv21 = randomNv21(width, height, 1);
+        int[] parallelOut = new int[width * height];
+        int[] serialOut = new int[width * height];
+        long parallelNanos;
+        long serialNanos;
+        try {
+            parallelNanos = bestArgbNanos(nv21, width, height, parallelOut);
+            YuvConverter.setParallelEnabled(false);
+            serialNanos = bestArgbNanos(nv21, width, height, serialOut);
+        } finally {
+            YuvConverter.setParallelEnabled(true);
+        }
+        assertArrayEquals(serialOut, parallelOut);
+        //取多次中最快的一次，同一次运行中比较，不依赖机器的绝对速度
+        assertTrue("parallel = " + parallelNanos + "ns serial = " + serialNanos + "ns", parallelNanos < serialNanos);
+    }
+
+    private static long bestArgbNanos(byte[] nv21, int width, int height, int[] out) {
+        //预热
+        for (int i = 0; i < 10; i++) {
+            YuvConverter.nv21ToArgb(nv21, width, height, out);
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 15; i++) {
+            long start = System.nanoTime();
+            YuvConverter.nv21ToArgb(nv21, width, height, out);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+}
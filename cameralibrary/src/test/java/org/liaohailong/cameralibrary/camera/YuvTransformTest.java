@@ -0,0 +1,118 @@
+package org.liaohailong.cameralibrary.camera;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link YuvTransform}各旋转角度与镜像组合和逐像素参考实现的对比测试
+ */
+public class YuvTransformTest {
+
+    private static final int[] ROTATIONS = {0, 90, 180, 270};
+
+    //小尺寸，以及跨越多个分块且边缘不满一块的尺寸
+    private static final int[][] SIZES = {{6, 4}, {70, 36}};
+
+    private static byte[] randomFrame(int width, int height, long seed) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        new Random(seed).nextBytes(frame);
+        return frame;
+    }
+
+    /**
+     * 逐像素参考实现：先顺时针旋转，再对旋转后的画面水平镜像
+     */
+    private static void referencePlane(byte[] src, int srcOffset, int width, int height, int elementSize,
+                                       byte[] dst, int dstOffset, int rotation, boolean mirror) {
+        int outWidth = rotation == 90 || rotation == 270 ? height : width;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int dx;
+                int dy;
+                if (rotation == 90) {
+                    dx = height - 1 - y;
+                    dy = x;
+                } else if (rotation == 180) {
+                    dx = width - 1 - x;
+                    dy = height - 1 - y;
+                } else if (rotation == 270) {
+                    dx = y;
+                    dy = width - 1 - x;
+                } else {
+                    dx = x;
+                    dy = y;
+                }
+                if (mirror) {
+                    dx = outWidth - 1 - dx;
+                }
+                for (int i = 0; i < elementSize; i++) {
+                    dst[dstOffset + (dy * outWidth + dx) * elementSize + i]
+                            = src[srcOffset + (y * width + x) * elementSize + i];
+                }
+            }
+        }
+    }
+
+    @Test
+    public void transformNv21_matchesReference() {
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            int frameSize = width * height;
+            byte[] src = randomFrame(width, height, width);
+            for (int rotation : ROTATIONS) {
+                for (boolean mirror : new boolean[]{false, true}) {
+                    byte[] expected = new byte[src.length];
+                    referencePlane(src, 0, width, height, 1, expected, 0, rotation, mirror);
+                    referencePlane(src, frameSize, width / 2, height / 2, 2, expected, frameSize, rotation, mirror);
+                    byte[] actual = new byte[src.length];
+                    YuvTransform.transformNv21(src, width, height, actual, rotation, mirror);
+                    assertTrue(width + "x" + height + " rotation = " + rotation + " mirror = " + mirror,
+                            Arrays.equals(expected, actual));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void transformI420_matchesReference() {
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            int frameSize = width * height;
+            int chromaSize = frameSize / 4;
+            byte[] src = randomFrame(width, height, height);
+            for (int rotation : ROTATIONS) {
+                for (boolean mirror : new boolean[]{false, true}) {
+                    byte[] expected = new byte[src.length];
+                    referencePlane(src, 0, width, height, 1, expected, 0, rotation, mirror);
+                    referencePlane(src, frameSize, width / 2, height / 2, 1, expected, frameSize, rotation, mirror);
+                    referencePlane(src, frameSize + chromaSize, width / 2, height / 2, 1,
+                            expected, frameSize + chromaSize, rotation, mirror);
+                    byte[] actual = new byte[src.length];
+                    YuvTransform.transformI420(src, width, height, actual, rotation, mirror);
+                    assertTrue(width + "x" + height + " rotation = " + rotation + " mirror = " + mirror,
+                            Arrays.equals(expected, actual));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void outputSize_swapsForQuarterTurns() {
+        assertEquals(6, YuvTransform.getOutputWidth(6, 4, 0));
+        assertEquals(4, YuvTransform.getOutputWidth(6, 4, 90));
+        assertEquals(6, YuvTransform.getOutputHeight(6, 4, 270));
+        assertEquals(4, YuvTransform.getOutputHeight(6, 4, 180));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void inPlace_isRejected() {
+        byte[] frame = randomFrame(6, 4, 1);
+        YuvTransform.transformNv21(frame, 6, 4, frame, 90, false);
+    }
+}